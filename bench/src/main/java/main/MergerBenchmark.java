@@ -0,0 +1,94 @@
+package main;
+
+import cpt.CPTSource;
+import networks.Creator;
+import org.encog.ml.bayesian.BayesianEvent;
+import org.encog.ml.bayesian.BayesianNetwork;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import util.Log;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link Merger#merge(BayesianNetwork, BayesianNetwork)} end to end, each of its phases in isolation
+ * and {@link Prob#getCPT(BayesianEvent)}, on the bundled {@link Creator}s.
+ *
+ * @version 1.1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MergerBenchmark {
+
+    @Param({"Simple", "Corner", "Example", "Practical"})
+    public String creator;
+
+    private BayesianNetwork bn1, bn2, bnt;
+    private CPTSource bn1Tables, bn2Tables;
+    private MergePlan plan;
+    private Log.Level logLevel;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ReflectiveOperationException {
+        // The progress messages would still be formatted into the buffer of Log, and measured.
+        logLevel = Log.getLevel();
+        Log.setLevel(Log.Level.OFF);
+        Creator c = (Creator) Class.forName("networks." + creator).getConstructor().newInstance();
+        bn1 = c.createBN1();
+        bn2 = c.createBN2();
+        bn1Tables = CPTSource.of(bn1);
+        bn2Tables = CPTSource.of(bn2);
+        plan = Merger.compile(bn1, bn2);
+        bnt = plan.execute(bn1, bn2);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Log.setLevel(logLevel);
+    }
+
+    @Benchmark
+    public BayesianNetwork merge() {
+        return Merger.merge(bn1, bn2);
+    }
+
+    @Benchmark
+    public Map<String, DeleteRule> buildSets() {
+        return Merger.buildSets(bn1, bn2);
+    }
+
+    @Benchmark
+    public BayesianNetwork deleteRuleCPT() {
+        plan.deleteRuleCPT(bnt, bn1Tables, bn2Tables);
+        return bnt;
+    }
+
+    @Benchmark
+    public BayesianNetwork mergeCPTs() {
+        plan.mergeCPTs(bnt, bn1Tables, bn2Tables);
+        return bnt;
+    }
+
+    @Benchmark
+    public void getCPT(Blackhole bh) {
+        for (BayesianEvent e : bnt.getEvents())
+            bh.consume(Prob.getCPT(e));
+    }
+}
@@ -0,0 +1,98 @@
+package main;
+
+import cpt.CPTSource;
+import networks.Synthetic;
+import org.encog.ml.bayesian.BayesianNetwork;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import util.Log;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link Merger#merge(BayesianNetwork, BayesianNetwork)} and its phases on {@link Synthetic} networks,
+ * against the number of events, the fraction of events in the intersection and the maximum number of parents.
+ * JMH runs every combination of the parameters; fixing two of them with -p gives the scaling curve of the third.
+ *
+ * @version 1.2
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScalingBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int nodes;
+
+    @Param({"0.1", "0.5", "0.9"})
+    public double overlap;
+
+    @Param({"1", "3", "6"})
+    public int fanIn;
+
+    @Param("0.5")
+    public double external;
+
+    @Param("42")
+    public long seed;
+
+    private BayesianNetwork bn1, bn2, bnt;
+    private CPTSource bn1Tables, bn2Tables;
+    private MergePlan plan;
+    private Log.Level logLevel;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        logLevel = Log.getLevel();
+        Log.setLevel(Log.Level.OFF);
+        Synthetic creator = new Synthetic(seed, nodes, (int) (nodes * overlap), external, fanIn, 0);
+        bn1 = creator.createBN1();
+        bn2 = creator.createBN2();
+        bn1Tables = CPTSource.of(bn1);
+        bn2Tables = CPTSource.of(bn2);
+        plan = Merger.compile(bn1, bn2);
+        bnt = plan.execute(bn1, bn2);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Log.setLevel(logLevel);
+    }
+
+    @Benchmark
+    public BayesianNetwork merge() {
+        return Merger.merge(bn1, bn2);
+    }
+
+    @Benchmark
+    public Map<String, DeleteRule> buildSets() {
+        return Merger.buildSets(bn1, bn2);
+    }
+
+    @Benchmark
+    public BayesianNetwork deleteRuleCPT() {
+        plan.deleteRuleCPT(bnt, bn1Tables, bn2Tables);
+        return bnt;
+    }
+
+    @Benchmark
+    public BayesianNetwork mergeCPTs() {
+        plan.mergeCPTs(bnt, bn1Tables, bn2Tables);
+        return bnt;
+    }
+}
@@ -0,0 +1,54 @@
+package cpt;
+
+import java.nio.DoubleBuffer;
+import java.nio.ReadOnlyBufferException;
+
+/**
+ * A {@link CPT} backed by a {@link DoubleBuffer}, laid out like a {@link DenseCPT}.
+ * The buffer may be a view of a direct or memory-mapped buffer, in which case the probabilities are never
+ * copied onto the heap and are only paged in when they are read.
+ *
+ * @version 1.0
+ */
+public class BufferCPT extends CPT {
+
+    /**
+     * The probabilities, indexed by {@code 2 * row + result}.
+     */
+    private final DoubleBuffer values;
+
+    /**
+     * Creates a {@link CPT} that reads from and writes to the given buffer, starting at its index 0.
+     *
+     * @param parents the number of parents of the event
+     * @param values  the buffer with at least {@code 2 << parents} probabilities
+     * @throws IllegalArgumentException if there are too many parents or the buffer is too small
+     */
+    public BufferCPT(int parents, DoubleBuffer values) {
+        super(parents);
+        if (values.limit() < 2L << parents)
+            throw new IllegalArgumentException("A table with " + parents + " parents does not fit in "
+                    + values.limit() + " entries");
+        this.values = values;
+    }
+
+    @Override
+    public double get(int row, int result) {
+        return values.get(row << 1 | result);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws UnsupportedOperationException if the buffer is read-only
+     */
+    @Override
+    public void set(int row, int result, double probability) {
+        try {
+            values.put(row << 1 | result, probability);
+        }
+        catch (ReadOnlyBufferException e) {
+            throw new UnsupportedOperationException("The table is read-only", e);
+        }
+    }
+}
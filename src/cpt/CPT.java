@@ -0,0 +1,202 @@
+package cpt;
+
+import main.Merger;
+import org.encog.ml.bayesian.BayesianEvent;
+import org.encog.ml.bayesian.table.TableLine;
+
+import java.util.List;
+
+import static main.Merger.FALSE;
+import static main.Merger.TRUE;
+
+/**
+ * A Conditional Probability Table of a boolean {@link BayesianEvent}, addressed by bit-packed rows.
+ * <p>
+ * An assignment of values to the parents is bit-packed into a row index.
+ * The first parent is the most significant bit and a bit is set when that parent is {@link Merger#FALSE}.
+ * Hence row 0 is the assignment where all parents are {@link Merger#TRUE}, and the rows are in the same order as
+ * the TABLE element of an XMLBIF file.
+ * Implementations decide where the probabilities are stored.
+ *
+ * @version 1.1
+ * @see DenseCPT
+ */
+public abstract class CPT {
+
+    /**
+     * The largest number of parents a table can have, so that its entries can still be indexed by an int.
+     */
+    public static final int MAX_PARENTS = 29;
+
+    /**
+     * Computes the row index of the given assignment of values to the parents.
+     *
+     * @param args the values of the parents, each {@link Merger#TRUE} or {@link Merger#FALSE}
+     * @return the row index of the assignment
+     */
+    public static int row(int[] args) {
+        int row = 0;
+        for (int arg : args)
+            row = row << 1 | arg;
+        return row;
+    }
+
+    /**
+     * Creates the assignment of values to the parents that corresponds to the given row index.
+     * This is the inverse of {@link CPT#row(int[])}.
+     *
+     * @param row     the row index
+     * @param parents the number of parents
+     * @return a new array with the values of the parents
+     */
+    public static int[] arguments(int row, int parents) {
+        int[] args = new int[parents];
+        for (int i = parents - 1; i >= 0; i--, row >>>= 1)
+            args[i] = row & 1;
+        return args;
+    }
+
+    /**
+     * Creates the masks used by {@link CPT#project(int, int[])}.
+     * For each parent in {@code to}, the mask is the bit of the parent's position in {@code from},
+     * or 0 if {@code from} does not contain that parent.
+     *
+     * @param from the parents of the table whose rows will be projected
+     * @param to   the parents of the table whose rows will be projected on
+     * @return the masks, one per parent in {@code to}
+     */
+    public static int[] projectionMasks(List<BayesianEvent> from, List<BayesianEvent> to) {
+        int[] masks = new int[to.size()];
+        for (int i = 0; i < to.size(); i++) {
+            String label = to.get(i).getLabel();
+            for (int j = 0; j < from.size(); j++) {
+                if (from.get(j).getLabel().equals(label)) {
+                    masks[i] = 1 << (from.size() - 1 - j);
+                    break;
+                }
+            }
+        }
+        return masks;
+    }
+
+    /**
+     * Projects a row of a table onto the row of another table whose parents are a subset of the first one's.
+     * The parents of the second table that are not parents of the first one are {@link Merger#TRUE}.
+     *
+     * @param row   the row of the table with {@code masks.length} parents
+     * @param masks the masks created by {@link CPT#projectionMasks(List, List)} for the second table
+     * @return the row of the second table
+     */
+    public static int project(int row, int[] masks) {
+        int projected = 0;
+        for (int i = masks.length - 1; i >= 0; i--, row >>>= 1)
+            if ((row & 1) != 0)
+                projected |= masks[i];
+        return projected;
+    }
+
+    /**
+     * Checks whether the given lines are exactly the lines of a full table, in row order and
+     * with the {@link Merger#TRUE} line of each row first.
+     * Such lines can be streamed in the order of a {@link CPT} without looking them up.
+     *
+     * @param lines   the lines of a table
+     * @param parents the number of parents of the event
+     * @return true iff the i-th line is the one of row {@code i / 2} and result {@code i % 2}
+     */
+    public static boolean isInTableOrder(List<TableLine> lines, int parents) {
+        if (parents > MAX_PARENTS || lines.size() != 2 << parents)
+            return false;
+
+        for (int i = 0; i < lines.size(); i++) {
+            TableLine line = lines.get(i);
+            if (line.getResult() != (i & 1) || row(line.getArguments()) != i >> 1)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * The number of parents of the event.
+     */
+    protected final int parents;
+
+    /**
+     * @param parents the number of parents of the event
+     * @throws IllegalArgumentException if there are more than {@link CPT#MAX_PARENTS} parents
+     */
+    protected CPT(int parents) {
+        if (parents < 0 || parents > MAX_PARENTS)
+            throw new IllegalArgumentException("Cannot store a table with " + parents + " parents");
+        this.parents = parents;
+    }
+
+    public int getParentCount() {
+        return parents;
+    }
+
+    public int getRowCount() {
+        return 1 << parents;
+    }
+
+    /**
+     * @param row    the row index
+     * @param result {@link Merger#TRUE} or {@link Merger#FALSE}
+     * @return the probability of the event having the given result in the given row,
+     * or {@link Double#NaN} if it is missing
+     */
+    public abstract double get(int row, int result);
+
+    /**
+     * @param row         the row index
+     * @param result      {@link Merger#TRUE} or {@link Merger#FALSE}
+     * @param probability the probability of the event having the given result in the given row
+     * @throws UnsupportedOperationException if the table cannot be changed
+     */
+    public abstract void set(int row, int result, double probability);
+
+    /**
+     * Replaces the lines of the table of the given {@link BayesianEvent} with the probabilities in this table.
+     * Probabilities that are {@link Double#NaN} are treated as missing lines and are not written.
+     * The event must already have its structure finalized.
+     * <p>
+     * If the event already has a full table in table order, such as one written by this method before,
+     * and this table has no missing lines, the probabilities of the existing lines are updated in place
+     * and no lines are allocated.
+     *
+     * @param e the {@link BayesianEvent} whose table to overwrite
+     * @throws IllegalArgumentException if the event has a different number of parents
+     */
+    public void writeTo(BayesianEvent e) {
+        if (e.getParents().size() != parents)
+            throw new IllegalArgumentException("Event \"" + e.getLabel() + "\" has " + e.getParents().size()
+                    + " parents, but the table has " + parents);
+
+        List<TableLine> lines = e.getTable().getLines();
+        if (isInTableOrder(lines, parents) && !hasMissingLines()) {
+            for (int i = 0; i < lines.size(); i++)
+                lines.get(i).setProbability(get(i >> 1, i & 1));
+            return;
+        }
+
+        lines.clear();
+        for (int row = 0; row < getRowCount(); row++) {
+            int[] args = arguments(row, parents);
+            double pTrue = get(row, TRUE), pFalse = get(row, FALSE);
+            if (!Double.isNaN(pTrue))
+                lines.add(new TableLine(pTrue, TRUE, args));
+            if (!Double.isNaN(pFalse))
+                lines.add(new TableLine(pFalse, FALSE, args));
+        }
+    }
+
+    /**
+     * @return true iff one of the probabilities is {@link Double#NaN}
+     */
+    private boolean hasMissingLines() {
+        for (int row = 0; row < getRowCount(); row++)
+            if (Double.isNaN(get(row, TRUE)) || Double.isNaN(get(row, FALSE)))
+                return true;
+        return false;
+    }
+}
@@ -0,0 +1,33 @@
+package cpt;
+
+import org.encog.ml.bayesian.BayesianEvent;
+import org.encog.ml.bayesian.BayesianNetwork;
+
+/**
+ * Something that can provide the {@link CPT}s of the events of a network by their labels,
+ * without necessarily building the network's encog objects.
+ *
+ * @version 1.0
+ */
+@FunctionalInterface
+public interface CPTSource {
+
+    /**
+     * Creates a {@link CPTSource} that reads the tables of the given {@link BayesianNetwork} into {@link DenseCPT}s.
+     *
+     * @param net the network
+     * @return a {@link CPTSource} for the network
+     */
+    static CPTSource of(BayesianNetwork net) {
+        return label -> {
+            BayesianEvent e = net.getEventMap().get(label);
+            return e == null ? null : DenseCPT.of(e);
+        };
+    }
+
+    /**
+     * @param label the label of an event
+     * @return the table of the event with the given label, or null if there is no such event
+     */
+    CPT getCPT(String label);
+}
@@ -0,0 +1,129 @@
+package cpt;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * The ways a {@link CPT} can be stored off the heap, in a direct or memory-mapped {@link ByteBuffer},
+ * with the values of the parents implicit in the index of every entry.
+ * <p>
+ * Very wide tables are best stored like this: as encog lines, every row of a table takes two objects and
+ * an array of arguments, which for tables of millions of rows means gigabytes of heap and long collections.
+ * {@link CPTStorage#FLOAT} and {@link CPTStorage#QUANTIZED} store only the probability of
+ * {@link main.Merger#TRUE} in every row, at a lower precision, so they take a quarter and an eighth of the bytes
+ * of {@link CPTStorage#DOUBLE}.
+ *
+ * @version 1.0
+ * @see main.MergePlan#executeTo(CPTSource, CPTSource, java.util.function.IntFunction,
+ * java.util.concurrent.ForkJoinPool)
+ */
+public enum CPTStorage {
+
+    /**
+     * Both probabilities of every row in double precision, in a {@link BufferCPT}.
+     */
+    DOUBLE(2 * Double.BYTES) {
+        @Override
+        CPT create(ByteBuffer buffer, int parents) {
+            return new BufferCPT(parents, buffer.asDoubleBuffer());
+        }
+    },
+    /**
+     * The probability of {@link main.Merger#TRUE} of every row in single precision, in a {@link FloatBufferCPT}.
+     */
+    FLOAT(Float.BYTES) {
+        @Override
+        CPT create(ByteBuffer buffer, int parents) {
+            return new FloatBufferCPT(parents, buffer.asFloatBuffer());
+        }
+    },
+    /**
+     * The probability of {@link main.Merger#TRUE} of every row quantized to 16 bits, in a {@link QuantizedCPT}.
+     */
+    QUANTIZED(Short.BYTES) {
+        @Override
+        CPT create(ByteBuffer buffer, int parents) {
+            return new QuantizedCPT(parents, buffer.asShortBuffer());
+        }
+    };
+
+    private final int bytesPerRow;
+
+    CPTStorage(int bytesPerRow) {
+        this.bytesPerRow = bytesPerRow;
+    }
+
+    /**
+     * Creates a table over a buffer whose position is at its first byte and whose order is the one of the table.
+     */
+    abstract CPT create(ByteBuffer buffer, int parents);
+
+    public int getBytesPerRow() {
+        return bytesPerRow;
+    }
+
+    /**
+     * @param parents the number of parents of an event
+     * @return the number of bytes of its table
+     */
+    public long getBytes(int parents) {
+        return (long) bytesPerRow << parents;
+    }
+
+    /**
+     * @param parents the number of parents of an event
+     * @return the number of bytes of its table, if a single buffer can hold them
+     * @throws IllegalArgumentException if the table is too large for a buffer
+     */
+    private int checkedBytes(int parents) {
+        if (parents < 0 || parents > CPT.MAX_PARENTS || getBytes(parents) > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("A table with " + parents + " parents is too large for "
+                    + name() + " storage");
+        return (int) getBytes(parents);
+    }
+
+    /**
+     * Allocates a table in a new direct buffer, outside of the heap. All probabilities are initially 0.
+     *
+     * @param parents the number of parents of the event
+     * @return the table
+     * @throws IllegalArgumentException if the table is too large for a buffer
+     */
+    public CPT allocate(int parents) {
+        return create(ByteBuffer.allocateDirect(checkedBytes(parents)).order(ByteOrder.nativeOrder()), parents);
+    }
+
+    /**
+     * Creates a table over the given buffer, from its position, in the byte order of the buffer.
+     * The buffer is not copied, and the table is read-only if the buffer is.
+     *
+     * @param buffer  the buffer
+     * @param parents the number of parents of the event
+     * @return the table
+     * @throws IllegalArgumentException if the table is larger than the remaining bytes of the buffer
+     */
+    public CPT wrap(ByteBuffer buffer, int parents) {
+        if (buffer.remaining() < checkedBytes(parents))
+            throw new IllegalArgumentException("A table with " + parents + " parents does not fit in "
+                    + buffer.remaining() + " bytes");
+        return create(buffer.slice().order(buffer.order()), parents);
+    }
+
+    /**
+     * Maps a table stored in little-endian order in a file, which is extended if it is writable and too short.
+     *
+     * @param channel  the channel of the file
+     * @param mode     how to map the file, {@link FileChannel.MapMode#READ_ONLY} to only read the table
+     * @param position the position of the table in the file
+     * @param parents  the number of parents of the event
+     * @return the table
+     * @throws IOException              if the file cannot be mapped
+     * @throws IllegalArgumentException if the table is too large for a buffer
+     */
+    public CPT map(FileChannel channel, FileChannel.MapMode mode, long position, int parents) throws IOException {
+        ByteBuffer buffer = channel.map(mode, position, checkedBytes(parents));
+        return create(buffer.order(ByteOrder.LITTLE_ENDIAN), parents);
+    }
+}
@@ -0,0 +1,382 @@
+package cpt;
+
+import java.util.Arrays;
+
+import static main.Merger.FALSE;
+import static main.Merger.TRUE;
+
+/**
+ * A {@link CPT} stored as a reduced, ordered algebraic decision diagram over the values of the parents.
+ * <p>
+ * Every inner node tests one parent, in the order of the parents, and leads to one node if that parent is
+ * {@link main.Merger#TRUE} and to another if it is {@link main.Merger#FALSE}. Every leaf holds the probabilities
+ * of both results. Nodes are hash-consed, so equal sub-diagrams are stored once and a node whose two branches are
+ * equal is skipped: the diagram has one path per context in which the table depends on fewer parents,
+ * and tables with many deterministic or repeated rows take far fewer nodes than rows.
+ * <p>
+ * Two diagrams over the same parents are combined row by row with
+ * {@link DecisionDiagram#apply(DecisionDiagram, DecisionDiagram, Combiner)}, which visits every pair of
+ * reachable nodes once, so its time and its result scale with the number of distinct contexts rather than
+ * the number of rows. A diagram is immutable.
+ *
+ * @version 1.1
+ * @see main.MergePlan
+ */
+public class DecisionDiagram extends CPT {
+
+    /**
+     * Combines the probabilities of the two results in one row of two tables.
+     */
+    @FunctionalInterface
+    public interface Combiner {
+
+        /**
+         * @param true1  the probability of {@link main.Merger#TRUE} in the first table
+         * @param false1 the probability of {@link main.Merger#FALSE} in the first table
+         * @param true2  the probability of {@link main.Merger#TRUE} in the second table
+         * @param false2 the probability of {@link main.Merger#FALSE} in the second table
+         * @return the combined probability of {@link main.Merger#TRUE}; that of {@link main.Merger#FALSE} is
+         * its complement
+         */
+        double combine(double true1, double false1, double true2, double false2);
+    }
+
+    /**
+     * The variable of a leaf, which comes after all parents.
+     */
+    private static final int LEAF = Integer.MAX_VALUE;
+
+    /**
+     * The parent tested by every node, its successors when that parent is {@link main.Merger#TRUE} and
+     * {@link main.Merger#FALSE}, and for the leaves their probabilities.
+     */
+    private final int[] variables, low, high;
+    private final double[] trueValues, falseValues;
+    private final int root;
+
+    private DecisionDiagram(int parents, Builder builder, int root) {
+        super(parents);
+        int n = builder.size;
+        variables = Arrays.copyOf(builder.variables, n);
+        low = Arrays.copyOf(builder.low, n);
+        high = Arrays.copyOf(builder.high, n);
+        trueValues = Arrays.copyOf(builder.trueValues, n);
+        falseValues = Arrays.copyOf(builder.falseValues, n);
+        this.root = root;
+    }
+
+    /**
+     * Builds the diagram of a table whose parents are some of the parents of the diagram.
+     * The table is read once per row.
+     *
+     * @param table     the table
+     * @param positions the parent of the diagram that every parent of the table is, in ascending order
+     *                  or not, so that the parents of the table can be reordered
+     * @param parents   the number of parents of the diagram
+     * @return the diagram, which is independent of the parents that the table does not have
+     * @throws IllegalArgumentException if a position is out of range or repeated
+     */
+    public static DecisionDiagram of(CPT table, int[] positions, int parents) {
+        int k = table.getParentCount();
+        if (positions.length != k)
+            throw new IllegalArgumentException("There must be one position per parent of the table");
+        // The parents of the table in the order of the diagram, and the bits of their rows in the table.
+        long[] order = new long[k];
+        for (int j = 0; j < k; j++) {
+            if (positions[j] < 0 || positions[j] >= parents)
+                throw new IllegalArgumentException("Position " + positions[j] + " is out of range");
+            order[j] = (long) positions[j] << 32 | (k - 1 - j);
+        }
+        Arrays.sort(order);
+        int[] vars = new int[k], bits = new int[k];
+        for (int s = 0; s < k; s++) {
+            vars[s] = (int) (order[s] >>> 32);
+            bits[s] = 1 << (int) order[s];
+            if (s > 0 && vars[s] == vars[s - 1])
+                throw new IllegalArgumentException("Position " + vars[s] + " is repeated");
+        }
+
+        Builder builder = new Builder();
+        return new DecisionDiagram(parents, builder, builder.build(table, vars, bits, 0, 0));
+    }
+
+    /**
+     * Same as {@link DecisionDiagram#of(CPT, int[], int)}, with the parents of the table in the order of the diagram.
+     *
+     * @param table the table
+     * @return its diagram
+     */
+    public static DecisionDiagram of(CPT table) {
+        int[] positions = new int[table.getParentCount()];
+        for (int j = 0; j < positions.length; j++)
+            positions[j] = j;
+        return of(table, positions, positions.length);
+    }
+
+    /**
+     * Combines two diagrams row by row. Every pair of nodes of the two diagrams that can be reached by the same
+     * assignment is visited once, and the combiner is called once per pair of leaves.
+     *
+     * @param a        the first diagram
+     * @param b        the second diagram, with the same parents
+     * @param combiner how to combine the probabilities of a row
+     * @return the combined diagram
+     * @throws IllegalArgumentException if the diagrams have different numbers of parents
+     */
+    public static DecisionDiagram apply(DecisionDiagram a, DecisionDiagram b, Combiner combiner) {
+        if (a.parents != b.parents)
+            throw new IllegalArgumentException("The diagrams have different parents");
+        Builder builder = new Builder();
+        Memo memo = new Memo();
+        return new DecisionDiagram(a.parents, builder, apply(a, a.root, b, b.root, combiner, builder, memo));
+    }
+
+    private static int apply(DecisionDiagram a, int x, DecisionDiagram b, int y, Combiner combiner,
+                             Builder builder, Memo memo) {
+        long key = (long) x << 32 | y;
+        int result = memo.get(key);
+        if (result >= 0)
+            return result;
+
+        int var = Math.min(a.variables[x], b.variables[y]);
+        if (var == LEAF) {
+            double p = combiner.combine(a.trueValues[x], a.falseValues[x], b.trueValues[y], b.falseValues[y]);
+            result = builder.leaf(p, 1 - p);
+        }
+        else {
+            // A diagram that does not test the variable here is the same on both branches.
+            int xLow = a.variables[x] == var ? a.low[x] : x, xHigh = a.variables[x] == var ? a.high[x] : x;
+            int yLow = b.variables[y] == var ? b.low[y] : y, yHigh = b.variables[y] == var ? b.high[y] : y;
+            int l = apply(a, xLow, b, yLow, combiner, builder, memo);
+            int h = apply(a, xHigh, b, yHigh, combiner, builder, memo);
+            result = builder.node(var, l, h);
+        }
+        memo.put(key, result);
+        return result;
+    }
+
+    /**
+     * @return the number of nodes, leaves included
+     */
+    public int getNodeCount() {
+        return variables.length;
+    }
+
+    /**
+     * @return the number of distinct rows
+     */
+    public int getLeafCount() {
+        int leaves = 0;
+        for (int var : variables)
+            if (var == LEAF)
+                leaves++;
+        return leaves;
+    }
+
+    /**
+     * Walks from the root to the leaf of the given row, testing at most one bit per parent.
+     */
+    @Override
+    public double get(int row, int result) {
+        int node = root;
+        while (variables[node] != LEAF)
+            node = (row >>> (parents - 1 - variables[node]) & 1) == TRUE ? low[node] : high[node];
+        return result == TRUE ? trueValues[node] : falseValues[node];
+    }
+
+    /**
+     * @throws UnsupportedOperationException always, as a diagram is immutable
+     */
+    @Override
+    public void set(int row, int result, double probability) {
+        throw new UnsupportedOperationException("A decision diagram cannot be changed");
+    }
+
+    /**
+     * Expands the diagram into a {@link DenseCPT}.
+     *
+     * @return the table of the diagram
+     * @see DecisionDiagram#expandInto(CPT)
+     */
+    public DenseCPT toDense() {
+        DenseCPT dense = new DenseCPT(parents);
+        expandInto(dense);
+        return dense;
+    }
+
+    /**
+     * Writes every row of the diagram to a table with the same number of parents. The rows under a leaf are
+     * contiguous once the parents it does not test are the last ones, so they are filled in runs without walking
+     * the diagram for every row.
+     *
+     * @param table the table to write to
+     * @throws IllegalArgumentException if the table has a different number of parents
+     */
+    public void expandInto(CPT table) {
+        if (table.getParentCount() != parents)
+            throw new IllegalArgumentException("The table has " + table.getParentCount() + " parents, but the "
+                    + "diagram has " + parents);
+        fill(table, root, 0, 0);
+    }
+
+    private void fill(CPT table, int node, int depth, int row) {
+        if (variables[node] == LEAF) {
+            int from = row << (parents - depth), to = (row + 1) << (parents - depth);
+            for (int r = from; r < to; r++) {
+                table.set(r, TRUE, trueValues[node]);
+                table.set(r, FALSE, falseValues[node]);
+            }
+        }
+        else if (variables[node] > depth) {
+            fill(table, node, depth + 1, row << 1 | TRUE);
+            fill(table, node, depth + 1, row << 1 | FALSE);
+        }
+        else {
+            fill(table, low[node], depth + 1, row << 1 | TRUE);
+            fill(table, high[node], depth + 1, row << 1 | FALSE);
+        }
+    }
+
+    /**
+     * Creates the nodes of a diagram, hash-consing them in an open-addressing table of node ids.
+     */
+    private static class Builder {
+
+        private int[] variables = new int[16], low = new int[16], high = new int[16];
+        private double[] trueValues = new double[16], falseValues = new double[16];
+        private int size;
+        private int[] table = new int[32];
+
+        private Builder() {
+            Arrays.fill(table, -1);
+        }
+
+        /**
+         * Builds the diagram of a table from the given parent on, with the parents before it fixed.
+         *
+         * @param vars the parents of the table in the order of the diagram
+         * @param bits the bit of every parent in the rows of the table
+         * @param s    the parent to build from
+         * @param row  the bits of the parents before it
+         * @return the node
+         */
+        private int build(CPT table, int[] vars, int[] bits, int s, int row) {
+            if (s == vars.length)
+                return leaf(table.get(row, TRUE), table.get(row, FALSE));
+            int l = build(table, vars, bits, s + 1, row), h = build(table, vars, bits, s + 1, row | bits[s]);
+            return node(vars[s], l, h);
+        }
+
+        private int leaf(double pTrue, double pFalse) {
+            long t = Double.doubleToLongBits(pTrue), f = Double.doubleToLongBits(pFalse);
+            int hash = mix(t * 31 + f);
+            for (int slot = hash & (table.length - 1); ; slot = (slot + 1) & (table.length - 1)) {
+                int id = table[slot];
+                if (id < 0)
+                    return add(slot, LEAF, -1, -1, pTrue, pFalse);
+                if (variables[id] == LEAF && Double.doubleToLongBits(trueValues[id]) == t
+                        && Double.doubleToLongBits(falseValues[id]) == f)
+                    return id;
+            }
+        }
+
+        private int node(int var, int l, int h) {
+            if (l == h)
+                return l;
+            int hash = mix(((long) var * 31 + l) * 31 + h);
+            for (int slot = hash & (table.length - 1); ; slot = (slot + 1) & (table.length - 1)) {
+                int id = table[slot];
+                if (id < 0)
+                    return add(slot, var, l, h, 0, 0);
+                if (variables[id] == var && low[id] == l && high[id] == h)
+                    return id;
+            }
+        }
+
+        private int add(int slot, int var, int l, int h, double pTrue, double pFalse) {
+            if (size == variables.length) {
+                variables = Arrays.copyOf(variables, 2 * size);
+                low = Arrays.copyOf(low, 2 * size);
+                high = Arrays.copyOf(high, 2 * size);
+                trueValues = Arrays.copyOf(trueValues, 2 * size);
+                falseValues = Arrays.copyOf(falseValues, 2 * size);
+            }
+            int id = size++;
+            variables[id] = var;
+            low[id] = l;
+            high[id] = h;
+            trueValues[id] = pTrue;
+            falseValues[id] = pFalse;
+            table[slot] = id;
+            if (2 * size > table.length)
+                rehash();
+            return id;
+        }
+
+        private void rehash() {
+            table = new int[2 * table.length];
+            Arrays.fill(table, -1);
+            for (int id = 0; id < size; id++) {
+                int hash = variables[id] == LEAF
+                        ? mix(Double.doubleToLongBits(trueValues[id]) * 31 + Double.doubleToLongBits(falseValues[id]))
+                        : mix(((long) variables[id] * 31 + low[id]) * 31 + high[id]);
+                int slot = hash & (table.length - 1);
+                while (table[slot] >= 0)
+                    slot = (slot + 1) & (table.length - 1);
+                table[slot] = id;
+            }
+        }
+    }
+
+    /**
+     * The results of {@link DecisionDiagram#apply(DecisionDiagram, DecisionDiagram, Combiner)} by pair of nodes,
+     * in an open-addressing table.
+     */
+    private static class Memo {
+
+        private long[] keys = new long[64];
+        private int[] values = new int[64];
+        private int size;
+
+        private Memo() {
+            Arrays.fill(keys, -1);
+        }
+
+        private int get(long key) {
+            for (int slot = mix(key) & (keys.length - 1); keys[slot] != -1; slot = (slot + 1) & (keys.length - 1))
+                if (keys[slot] == key)
+                    return values[slot];
+            return -1;
+        }
+
+        private void put(long key, int value) {
+            if (2 * (size + 1) > keys.length) {
+                long[] oldKeys = keys;
+                int[] oldValues = values;
+                keys = new long[2 * oldKeys.length];
+                values = new int[2 * oldKeys.length];
+                Arrays.fill(keys, -1);
+                size = 0;
+                for (int i = 0; i < oldKeys.length; i++)
+                    if (oldKeys[i] != -1)
+                        put(oldKeys[i], oldValues[i]);
+            }
+            int slot = mix(key) & (keys.length - 1);
+            while (keys[slot] != -1)
+                slot = (slot + 1) & (keys.length - 1);
+            keys[slot] = key;
+            values[slot] = value;
+            size++;
+        }
+    }
+
+    /**
+     * The finalizer of MurmurHash3, folded to an int.
+     */
+    private static int mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+}
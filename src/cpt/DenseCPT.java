@@ -0,0 +1,75 @@
+package cpt;
+
+import org.encog.ml.bayesian.BayesianEvent;
+import org.encog.ml.bayesian.table.TableLine;
+
+import java.util.Arrays;
+
+/**
+ * A {@link CPT} stored in a single flat {@code double[]}.
+ * The probability of the event having a given result in a given row is stored at index {@code 2 * row + result}.
+ * <p>
+ * Lookups are O(1) and do not allocate. Tables are only converted to and from encog
+ * {@link org.encog.ml.bayesian.table.BayesianTable}s at the edges, by {@link DenseCPT#of(BayesianEvent)}
+ * and {@link CPT#writeTo(BayesianEvent)}.
+ *
+ * @version 1.1
+ */
+public class DenseCPT extends CPT {
+
+    /**
+     * Fills a new {@link DenseCPT} with the lines of the table of the given {@link BayesianEvent}.
+     * Lines missing from that table are stored as {@link Double#NaN}.
+     *
+     * @param e the boolean {@link BayesianEvent} whose table to read
+     * @return a {@link DenseCPT} with the probabilities of the event
+     * @throws IllegalArgumentException if the event is not boolean
+     */
+    public static DenseCPT of(BayesianEvent e) {
+        if (e.getChoices().size() != 2)
+            throw new IllegalArgumentException("Event \"" + e.getLabel() + "\" is not boolean");
+
+        DenseCPT cpt = new DenseCPT(e.getParents().size());
+        Arrays.fill(cpt.values, Double.NaN);
+        for (TableLine line : e.getTable().getLines())
+            cpt.set(row(line.getArguments()), line.getResult(), line.getProbability());
+
+        return cpt;
+    }
+
+    /**
+     * The probabilities, indexed by {@code 2 * row + result}.
+     */
+    private final double[] values;
+
+    /**
+     * Creates a {@link DenseCPT} for an event with the given number of parents.
+     * All probabilities are initially 0.
+     *
+     * @param parents the number of parents
+     * @throws IllegalArgumentException if there are more than {@link CPT#MAX_PARENTS} parents
+     */
+    public DenseCPT(int parents) {
+        super(parents);
+        this.values = new double[2 << parents];
+    }
+
+    /**
+     * Gives access to the backing array, indexed by {@code 2 * row + result}.
+     *
+     * @return the array in which the probabilities are stored
+     */
+    public double[] getValues() {
+        return values;
+    }
+
+    @Override
+    public double get(int row, int result) {
+        return values[row << 1 | result];
+    }
+
+    @Override
+    public void set(int row, int result, double probability) {
+        values[row << 1 | result] = probability;
+    }
+}
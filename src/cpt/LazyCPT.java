@@ -0,0 +1,139 @@
+package cpt;
+
+import main.Merger;
+
+import java.util.function.Supplier;
+
+import static main.Merger.TRUE;
+
+/**
+ * A read-only {@link CPT} whose rows are computed on demand, the first time they are read, and then kept in a
+ * bounded memo, so that a large table that is only partly read never has to be stored or computed in full.
+ * <p>
+ * The rows are computed by a {@link Rows} function, which is itself only created by its {@link Supplier} when the
+ * first row is read, so creating a {@link LazyCPT} costs nothing but the memo. The memo is direct-mapped:
+ * a row is kept in the slot of its low bits, replacing the row that was there, so neighbouring rows never
+ * evict each other and a lookup is a single array access. Every slot holds an immutable entry, so the table can
+ * be read by several threads without locking; at worst two threads compute the same row.
+ * <p>
+ * {@link LazyCPT#materialize()} computes the whole table at once, bypassing the memo.
+ *
+ * @version 1.0
+ */
+public class LazyCPT extends CPT {
+
+    /**
+     * Computes the rows of a table.
+     */
+    @FunctionalInterface
+    public interface Rows {
+
+        /**
+         * @param row the row index
+         * @return the probability of the event being {@link Merger#TRUE} in the given row
+         */
+        double probability(int row);
+    }
+
+    /**
+     * A memoized row, immutable so that it can be published through the memo without locking.
+     */
+    private static final class Entry {
+
+        private final int row;
+        private final double probability;
+
+        private Entry(int row, double probability) {
+            this.row = row;
+            this.probability = probability;
+        }
+    }
+
+    private final Supplier<? extends Rows> supplier;
+    private volatile Rows rows;
+    private final Entry[] memo;
+    private final int mask;
+
+    /**
+     * @param parents  the number of parents of the event
+     * @param supplier creates the function that computes the rows, called once when the first row is read
+     * @param memoRows the largest number of rows to keep, rounded up to a power of two
+     *                 and at most the number of rows of the table; 0 to keep none
+     * @throws IllegalArgumentException if there are more than {@link CPT#MAX_PARENTS} parents
+     *                                  or the size of the memo is negative
+     */
+    public LazyCPT(int parents, Supplier<? extends Rows> supplier, int memoRows) {
+        super(parents);
+        if (memoRows < 0)
+            throw new IllegalArgumentException("The size of the memo must not be negative");
+        this.supplier = supplier;
+        int size = Math.min(memoRows, getRowCount());
+        memo = new Entry[size <= 1 ? size : Integer.highestOneBit(size - 1) << 1];
+        mask = memo.length - 1;
+    }
+
+    /**
+     * @return the function that computes the rows, created on the first call
+     */
+    private Rows rows() {
+        Rows rows = this.rows;
+        if (rows == null) {
+            synchronized (this) {
+                if ((rows = this.rows) == null)
+                    this.rows = rows = supplier.get();
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * @return whether any row has been read, so that the function that computes the rows has been created
+     */
+    public boolean isStarted() {
+        return rows != null;
+    }
+
+    @Override
+    public double get(int row, int result) {
+        double p = probability(row);
+        return result == TRUE ? p : 1 - p;
+    }
+
+    /**
+     * @param row the row index
+     * @return the probability of the event being {@link Merger#TRUE} in the given row, from the memo if it is there
+     */
+    private double probability(int row) {
+        if (memo.length == 0)
+            return rows().probability(row);
+        Entry entry = memo[row & mask];
+        if (entry == null || entry.row != row)
+            memo[row & mask] = entry = new Entry(row, rows().probability(row));
+        return entry.probability;
+    }
+
+    /**
+     * @throws UnsupportedOperationException always, since the rows are computed
+     */
+    @Override
+    public void set(int row, int result, double probability) {
+        throw new UnsupportedOperationException("A lazy table cannot be changed");
+    }
+
+    /**
+     * Computes every row of the table, without going through the memo.
+     *
+     * @return a new {@link DenseCPT} with the same probabilities as this table
+     */
+    public DenseCPT materialize() {
+        Rows rows = rows();
+        DenseCPT cpt = new DenseCPT(parents);
+        double[] values = cpt.getValues();
+        for (int row = 0; row < getRowCount(); row++) {
+            double p = rows.probability(row);
+            values[row << 1] = p;
+            values[row << 1 | 1] = 1 - p;
+        }
+        return cpt;
+    }
+}
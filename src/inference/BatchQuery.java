@@ -0,0 +1,384 @@
+package inference;
+
+import inference.EliminationOrder.Heuristic;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static inference.Model.UNOBSERVED;
+import static main.Merger.TRUE;
+
+/**
+ * Computes the posteriors of some targets for a whole batch of cases at once.
+ * <p>
+ * The evidence is given in columns: one {@code byte[]} per variable, with the value of that variable in every
+ * case, which is {@link main.Merger#TRUE}, {@link main.Merger#FALSE} or {@link Model#UNOBSERVED}. A variable that
+ * is not observed in any case has no column. The posteriors are returned in columns too, one per target.
+ * <p>
+ * The targets and the observed variables are the same for the whole batch, so the batch only needs them and their
+ * ancestors; all other variables sum out to 1. A junction tree is compiled over just these variables and kept for
+ * later batches that need the same ones, up to {@link BatchQuery#MAX_PRUNED} of them; a batch that needs all
+ * variables uses the given tree.
+ * <p>
+ * The cases are sorted by their evidence, so that identical cases are computed once and similar cases follow
+ * each other. The sorted cases are split into blocks, which are processed in parallel. Every block is processed
+ * by one copy of the junction tree, moving from one case to the next by only changing the evidence that differs,
+ * so consecutive cases share all the messages their differences do not affect, and all targets of a case share
+ * the same messages. The copies of the trees are kept and reused by later batches.
+ * <p>
+ * A batch query is thread-safe, as long as the arrays of a batch are not changed while it is processed.
+ *
+ * @version 1.5
+ */
+public class BatchQuery {
+
+    /**
+     * The number of consecutive cases processed by one task.
+     */
+    private static final int BLOCK = 256;
+    /**
+     * The largest number of junction trees over subsets of the variables that are kept.
+     */
+    static final int MAX_PRUNED = 16;
+
+    private final Pruned full;
+    /**
+     * The junction trees over subsets of the variables, by these variables, in least recently used order.
+     */
+    private final Map<BitSet, Pruned> pruned = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @param tree the compiled junction tree of the network; it is only copied, never queried itself
+     */
+    public BatchQuery(JunctionTree tree) {
+        full = new Pruned(tree, null);
+    }
+
+    /**
+     * Computes the probability of every target being {@link main.Merger#TRUE} in every case.
+     *
+     * @param evidence the column of every observed event, by its label
+     * @param rows     the number of cases
+     * @param targets  the labels of the targets
+     * @param pool     the pool in which to process the blocks of cases, or null to process them in the calling thread
+     * @return the column of every target, in the order of the targets, with {@link Double#NaN} for the cases
+     * whose evidence is impossible
+     * @throws IllegalArgumentException if an event is not in the network or a column has less than the given rows
+     */
+    public double[][] posteriors(Map<String, byte[]> evidence, int rows, String[] targets, ForkJoinPool pool) {
+        Model model = full.tree.getModel();
+        byte[][] columns = new byte[model.getVariableCount()][];
+        for (Map.Entry<String, byte[]> column : evidence.entrySet())
+            columns[model.getIndex(column.getKey())] = column.getValue();
+        int[] targetIndices = new int[targets.length];
+        for (int t = 0; t < targets.length; t++)
+            targetIndices[t] = model.getIndex(targets[t]);
+        return posteriors(columns, rows, targetIndices, pool);
+    }
+
+    /**
+     * Computes the probability of every target being {@link main.Merger#TRUE} in every case.
+     *
+     * @param evidence the column of every variable, by its index, or null for the variables that are never observed
+     * @param rows     the number of cases
+     * @param targets  the indices of the targets
+     * @param pool     the pool in which to process the blocks of cases, or null to process them in the calling thread
+     * @return the column of every target, in the order of the targets, with {@link Double#NaN} for the cases
+     * whose evidence is impossible
+     * @throws IllegalArgumentException if there is not one column per variable or a column has less than
+     *                                  the given rows
+     */
+    public double[][] posteriors(byte[][] evidence, int rows, int[] targets, ForkJoinPool pool) {
+        Model model = full.tree.getModel();
+        if (evidence.length != model.getVariableCount())
+            throw new IllegalArgumentException("There are " + evidence.length + " columns instead of "
+                    + model.getVariableCount());
+        BitSet observed = new BitSet(), relevant = new BitSet();
+        for (int v = 0; v < evidence.length; v++) {
+            byte[] column = evidence[v];
+            if (column == null)
+                continue;
+            if (column.length < rows)
+                throw new IllegalArgumentException("A column has " + column.length + " rows instead of " + rows);
+            // A column that is never observed changes nothing, and would keep the ancestors of its variable.
+            for (int row = 0; row < rows; row++)
+                if (column[row] != UNOBSERVED) {
+                    observed.set(v);
+                    break;
+                }
+        }
+        relevant.or(observed);
+        for (int t : targets)
+            relevant.set(t);
+        Pruned p = pruned(model.addAncestors(relevant));
+
+        byte[][] columns = new byte[observed.cardinality()][];
+        int[] observedVars = new int[columns.length];
+        for (int v = observed.nextSetBit(0), i = 0; v >= 0; v = observed.nextSetBit(v + 1), i++) {
+            columns[i] = evidence[v];
+            observedVars[i] = p.index(v);
+        }
+        int[] prunedTargets = new int[targets.length], targetColumns = new int[targets.length];
+        for (int t = 0; t < targets.length; t++) {
+            prunedTargets[t] = p.index(targets[t]);
+            targetColumns[t] = observed.get(targets[t]) ? observed.get(0, targets[t]).cardinality() : -1;
+        }
+
+        Rows sorted = new Rows(columns, rows);
+        double[][] result = new double[targets.length][rows];
+        BlockTask task = new BlockTask(p, sorted, observedVars, prunedTargets, targetColumns, result, 0, rows);
+        if (pool == null)
+            task.invoke();
+        else
+            pool.invoke(task);
+        return result;
+    }
+
+    /**
+     * @param variables the variables a batch needs, which include the parents of each of them
+     * @return the junction tree over these variables, compiled if necessary
+     */
+    private Pruned pruned(BitSet variables) {
+        Model model = full.tree.getModel();
+        if (variables.cardinality() == model.getVariableCount())
+            return full;
+        synchronized (pruned) {
+            Pruned p = pruned.get(variables);
+            if (p != null)
+                return p;
+        }
+
+        Pruned p;
+        try {
+            p = new Pruned(new JunctionTree(model.restrict(variables), Heuristic.MIN_FILL), variables);
+        }
+        catch (IllegalStateException e) {
+            // The triangulation of a subset is not always narrower, so the full tree is still the best one.
+            return full;
+        }
+        synchronized (pruned) {
+            Pruned previous = pruned.putIfAbsent(variables, p);
+            if (previous != null)
+                return previous;
+            Iterator<Pruned> it = pruned.values().iterator();
+            while (pruned.size() > MAX_PRUNED) {
+                it.next();
+                it.remove();
+            }
+            return p;
+        }
+    }
+
+    /**
+     * A junction tree over some of the variables, and its copies that are not in use.
+     */
+    private static class Pruned {
+
+        private final JunctionTree tree;
+        /**
+         * The index in the tree of every variable of the network, or null if the tree has all the variables.
+         */
+        private final int[] indices;
+        private final ConcurrentLinkedQueue<JunctionTree> copies = new ConcurrentLinkedQueue<>();
+
+        /**
+         * @param variables the variables of the network in the tree, in the order of the tree, or null for all
+         */
+        private Pruned(JunctionTree tree, BitSet variables) {
+            this.tree = tree;
+            if (variables == null)
+                indices = null;
+            else {
+                indices = new int[variables.length()];
+                Arrays.fill(indices, -1);
+                for (int v = variables.nextSetBit(0), i = 0; v >= 0; v = variables.nextSetBit(v + 1), i++)
+                    indices[v] = i;
+            }
+        }
+
+        private int index(int variable) {
+            return indices == null ? variable : indices[variable];
+        }
+    }
+
+    /**
+     * The cases of a batch, sorted by their evidence.
+     */
+    private static class Rows {
+
+        /**
+         * The columns of the observed variables.
+         */
+        private final byte[][] columns;
+        /**
+         * The evidence of every case, two bits per observed variable, in {@link Rows#words} longs per case.
+         */
+        private final long[] keys;
+        private final int words;
+        /**
+         * The cases in ascending order of their keys, and in ascending order among cases with the same key.
+         */
+        private final int[] order;
+
+        /**
+         * @throws ArithmeticException if the keys of all cases do not fit in one array
+         */
+        private Rows(byte[][] columns, int rows) {
+            this.columns = columns;
+            words = Math.max(1, (2 * columns.length + 63) >>> 6);
+            keys = new long[Math.multiplyExact(rows, words)];
+            for (int k = 0; k < columns.length; k++) {
+                int word = k >>> 5, shift = 62 - 2 * (k & 31);
+                // UNOBSERVED, TRUE and FALSE become 0, 1 and 2.
+                for (int row = 0; row < rows; row++)
+                    keys[row * words + word] |= (long) (columns[k][row] + 1) << shift;
+            }
+
+            order = sort(rows);
+        }
+
+        /**
+         * Sorts the cases by their keys with a least significant digit radix sort, one byte of the keys at a time,
+         * skipping the bytes in which no variable is stored and those that are the same in all cases.
+         *
+         * @return the cases in ascending order of their keys
+         */
+        private int[] sort(int rows) {
+            int[] sorted = new int[rows], buffer = new int[rows], counts = new int[257];
+            for (int row = 0; row < rows; row++)
+                sorted[row] = row;
+            for (int w = words - 1; w >= 0 && rows > 1; w--) {
+                // The variables of a word are stored from its most significant bits down.
+                int bits = 2 * Math.min(32, columns.length - 32 * w);
+                for (int shift = (64 - bits) & ~7; shift < 64; shift += 8) {
+                    Arrays.fill(counts, 0);
+                    for (int row = 0; row < rows; row++)
+                        counts[digit(row, w, shift) + 1]++;
+                    if (counts[digit(0, w, shift) + 1] == rows)
+                        continue;
+                    for (int d = 0; d < 256; d++)
+                        counts[d + 1] += counts[d];
+                    for (int i = 0; i < rows; i++) {
+                        int row = sorted[i];
+                        buffer[counts[digit(row, w, shift)]++] = row;
+                    }
+                    int[] swap = sorted;
+                    sorted = buffer;
+                    buffer = swap;
+                }
+            }
+            return sorted;
+        }
+
+        private int digit(int row, int word, int shift) {
+            return (int) (keys[row * words + word] >>> shift) & 0xFF;
+        }
+
+        private int compare(int a, int b) {
+            for (int w = 0; w < words; w++) {
+                int c = Long.compareUnsigned(keys[a * words + w], keys[b * words + w]);
+                if (c != 0)
+                    return c;
+            }
+            return 0;
+        }
+
+        /**
+         * @return whether the cases at two positions of the order have the same evidence
+         */
+        private boolean sameAt(int i, int j) {
+            return compare(order[i], order[j]) == 0;
+        }
+    }
+
+    /**
+     * Processes the sorted cases from one position to another, either itself or split into halves.
+     */
+    private static class BlockTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Pruned pruned;
+        private final Rows rows;
+        /**
+         * The observed variables and the targets, as indices in the pruned tree, and for every target
+         * the index of its column among the observed variables, or -1 if it is never observed.
+         */
+        private final int[] observedVars, targets, targetColumns;
+        private final double[][] result;
+        private final int from, to;
+
+        private BlockTask(Pruned pruned, Rows rows, int[] observedVars, int[] targets, int[] targetColumns,
+                          double[][] result, int from, int to) {
+            this.pruned = pruned;
+            this.rows = rows;
+            this.observedVars = observedVars;
+            this.targets = targets;
+            this.targetColumns = targetColumns;
+            this.result = result;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            // Outside a pool, forked halves would run in the common pool instead of the calling thread.
+            if (to - from > BLOCK && inForkJoinPool()) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new BlockTask(pruned, rows, observedVars, targets, targetColumns, result, from, middle),
+                        new BlockTask(pruned, rows, observedVars, targets, targetColumns, result, middle, to));
+                return;
+            }
+
+            JunctionTree copy = pruned.copies.poll();
+            if (copy == null)
+                copy = pruned.tree.copy();
+            try {
+                process(copy);
+            }
+            finally {
+                pruned.copies.add(copy);
+            }
+        }
+
+        private void process(JunctionTree copy) {
+            // A copy may still hold evidence of a previous batch on variables this batch does not observe.
+            copy.clearEvidence();
+            double[] marginal = new double[2];
+            byte[][] columns = rows.columns;
+            for (int i = from; i < to; i++) {
+                int row = rows.order[i];
+                if (i > from && rows.sameAt(i - 1, i)) {
+                    int previous = rows.order[i - 1];
+                    for (int t = 0; t < targets.length; t++)
+                        result[t][row] = result[t][previous];
+                    continue;
+                }
+
+                for (int k = 0; k < observedVars.length; k++)
+                    copy.setEvidence(observedVars[k], columns[k][row]);
+                // A query of an unobserved target fails on impossible evidence, but one of an observed target does not.
+                boolean checked = false;
+                try {
+                    for (int t = 0; t < targets.length; t++) {
+                        copy.marginal(targets[t], marginal);
+                        result[t][row] = marginal[TRUE];
+                        checked |= targetColumns[t] < 0 || columns[targetColumns[t]][row] == UNOBSERVED;
+                    }
+                    if (!checked && !copy.isPossible())
+                        throw new IllegalArgumentException("The evidence is impossible");
+                }
+                catch (IllegalArgumentException e) {
+                    for (int t = 0; t < targets.length; t++)
+                        result[t][row] = Double.NaN;
+                }
+            }
+        }
+    }
+}
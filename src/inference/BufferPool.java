@@ -0,0 +1,55 @@
+package inference;
+
+import java.util.ArrayDeque;
+
+/**
+ * Recycles the {@code double[]}s of intermediate factors, so that repeated queries stop allocating
+ * once the pool has warmed up. Arrays are kept by their number of variables, so an array taken for
+ * {@code n} variables always has a length of exactly {@code 1 << n}.
+ * A pool is not thread-safe; every engine has its own.
+ *
+ * @version 1.0
+ */
+final class BufferPool {
+
+    /**
+     * The largest number of variables of a factor, so that its array can still be indexed by an int
+     * and does not take more than 2 GiB.
+     */
+    static final int MAX_VARIABLES = 28;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ArrayDeque<double[]>[] free = new ArrayDeque[MAX_VARIABLES + 1];
+
+    /**
+     * @param vars the number of variables of a factor
+     * @return an array of length {@code 1 << vars}, with arbitrary contents
+     * @throws IllegalStateException if the factor has more than {@link BufferPool#MAX_VARIABLES} variables
+     */
+    double[] take(int vars) {
+        if (vars > MAX_VARIABLES)
+            throw new IllegalStateException("A factor over " + vars
+                    + " variables is needed, the network is too densely connected for exact inference");
+        ArrayDeque<double[]> arrays = free[vars];
+        double[] array = arrays == null ? null : arrays.poll();
+        return array != null ? array : new double[1 << vars];
+    }
+
+    /**
+     * Gives back the array of a factor, if it was taken from this pool.
+     */
+    void give(Factor factor) {
+        if (factor.pooled)
+            give(factor.values);
+    }
+
+    /**
+     * Gives back an array taken from this pool.
+     */
+    void give(double[] array) {
+        int vars = Integer.numberOfTrailingZeros(array.length);
+        if (free[vars] == null)
+            free[vars] = new ArrayDeque<>();
+        free[vars].push(array);
+    }
+}
@@ -0,0 +1,193 @@
+package inference;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * An order in which to eliminate variables, chosen greedily on their interaction graph,
+ * together with the clique that each elimination creates.
+ * <p>
+ * At every step the variable with the best score is eliminated: its neighbours are connected to each other
+ * and it is removed from the graph. Ties are broken by the other score, then by the lower index,
+ * so the order is deterministic. The variables are kept in an indexed heap by their scores, and only
+ * the scores that an elimination can change are recomputed, so large sparse graphs are ordered quickly.
+ *
+ * @version 1.0
+ */
+public final class EliminationOrder {
+
+    /**
+     * The score by which the next variable to eliminate is chosen.
+     */
+    public enum Heuristic {
+        /**
+         * The variable whose elimination adds the fewest edges to the graph.
+         */
+        MIN_FILL,
+        /**
+         * The variable whose elimination creates the smallest factor. As all variables are boolean,
+         * this is the variable with the fewest neighbours.
+         */
+        MIN_WEIGHT
+    }
+
+    private final BitSet[] graph;
+    private final Heuristic heuristic;
+    private final int[] order;
+    private final BitSet[] cliques;
+    private int width;
+
+    /**
+     * The indexed heap of the variables still to eliminate: the variables in heap order,
+     * the position of every variable in the heap, or -1 if it is not in the heap, and its score.
+     */
+    private final int[] heap, positions;
+    private final long[] scores;
+    private int size;
+
+    /**
+     * Chooses an order in which to eliminate the given variables.
+     *
+     * @param graph     the interaction graph, with the neighbours of every variable. It is changed:
+     *                  fill edges are added and the eliminated variables are removed.
+     * @param variables the variables to eliminate; all other variables in the graph are kept
+     * @param heuristic the score by which to choose the next variable
+     */
+    EliminationOrder(BitSet[] graph, BitSet variables, Heuristic heuristic) {
+        this.graph = graph;
+        this.heuristic = heuristic;
+        order = new int[variables.cardinality()];
+        cliques = new BitSet[order.length];
+        heap = new int[order.length];
+        positions = new int[graph.length];
+        scores = new long[graph.length];
+        Arrays.fill(positions, -1);
+        for (int v = variables.nextSetBit(0); v >= 0; v = variables.nextSetBit(v + 1)) {
+            scores[v] = score(v);
+            positions[v] = size;
+            heap[size++] = v;
+        }
+        for (int i = size / 2 - 1; i >= 0; i--)
+            down(i);
+
+        BitSet changed = new BitSet(graph.length);
+        for (int step = 0; step < order.length; step++) {
+            int best = heap[0];
+            remove(best);
+
+            BitSet neighbours = graph[best];
+            changed.clear();
+            for (int u = neighbours.nextSetBit(0); u >= 0; u = neighbours.nextSetBit(u + 1)) {
+                graph[u].or(neighbours);
+                graph[u].clear(u);
+                graph[u].clear(best);
+                changed.set(u);
+            }
+            if (heuristic == Heuristic.MIN_FILL)
+                for (int u = neighbours.nextSetBit(0); u >= 0; u = neighbours.nextSetBit(u + 1))
+                    changed.or(graph[u]);
+
+            BitSet clique = (BitSet) neighbours.clone();
+            clique.set(best);
+            width = Math.max(width, clique.cardinality());
+            order[step] = best;
+            cliques[step] = clique;
+            graph[best] = new BitSet();
+
+            for (int u = changed.nextSetBit(0); u >= 0; u = changed.nextSetBit(u + 1))
+                if (positions[u] >= 0) {
+                    scores[u] = score(u);
+                    up(positions[u]);
+                    down(positions[u]);
+                }
+        }
+    }
+
+    /**
+     * @return the score of the given variable, with the primary score in the upper half and the other one
+     * in the lower half
+     */
+    private long score(int v) {
+        long degree = graph[v].cardinality(), fill = fill(v);
+        return heuristic == Heuristic.MIN_FILL ? fill << 32 | degree : degree << 32 | fill;
+    }
+
+    /**
+     * @return the number of edges that eliminating the given variable would add between its neighbours,
+     * at most {@link Integer#MAX_VALUE}
+     */
+    private long fill(int v) {
+        BitSet neighbours = graph[v];
+        long missing = 0;
+        for (int u = neighbours.nextSetBit(0); u >= 0; u = neighbours.nextSetBit(u + 1))
+            for (int w = neighbours.nextSetBit(u + 1); w >= 0; w = neighbours.nextSetBit(w + 1))
+                if (!graph[u].get(w))
+                    missing++;
+        return Math.min(missing, Integer.MAX_VALUE);
+    }
+
+    private boolean less(int a, int b) {
+        return scores[a] < scores[b] || scores[a] == scores[b] && a < b;
+    }
+
+    private void remove(int v) {
+        int i = positions[v];
+        positions[v] = -1;
+        if (i == --size)
+            return;
+        int moved = heap[size];
+        heap[i] = moved;
+        positions[moved] = i;
+        up(i);
+        down(positions[moved]);
+    }
+
+    private void up(int i) {
+        int v = heap[i];
+        while (i > 0 && less(v, heap[(i - 1) / 2])) {
+            heap[i] = heap[(i - 1) / 2];
+            positions[heap[i]] = i;
+            i = (i - 1) / 2;
+        }
+        heap[i] = v;
+        positions[v] = i;
+    }
+
+    private void down(int i) {
+        int v = heap[i];
+        while (2 * i + 1 < size) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && less(heap[child + 1], heap[child]))
+                child++;
+            if (!less(heap[child], v))
+                break;
+            heap[i] = heap[child];
+            positions[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = v;
+        positions[v] = i;
+    }
+
+    /**
+     * @return the variables in the order in which they are eliminated. The array must not be modified.
+     */
+    int[] order() {
+        return order;
+    }
+
+    /**
+     * @return the variable eliminated at each step together with its neighbours at that time.
+     * The sets must not be modified.
+     */
+    BitSet[] cliques() {
+        return cliques;
+    }
+
+    /**
+     * @return the number of variables of the largest clique
+     */
+    public int getWidth() {
+        return width;
+    }
+}
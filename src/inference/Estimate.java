@@ -0,0 +1,70 @@
+package inference;
+
+/**
+ * The result of a {@link Sampler}: the estimated probability of every target being {@link main.Merger#TRUE},
+ * with its standard error, the number of samples it is based on and whether the error target was reached.
+ *
+ * @version 1.0
+ */
+public final class Estimate {
+
+    private final double[] probabilities, standardErrors;
+    private final long samples;
+    private final boolean converged;
+
+    Estimate(double[] probabilities, double[] standardErrors, long samples, boolean converged) {
+        this.probabilities = probabilities;
+        this.standardErrors = standardErrors;
+        this.samples = samples;
+        this.converged = converged;
+    }
+
+    /**
+     * @param target the position of the target in the query
+     * @return the estimated probability of the target being {@link main.Merger#TRUE},
+     * or {@link Double#NaN} if no sample was consistent with the evidence
+     */
+    public double getProbability(int target) {
+        return probabilities[target];
+    }
+
+    /**
+     * @param target the position of the target in the query
+     * @return the estimated standard error of the probability of the target
+     */
+    public double getStandardError(int target) {
+        return standardErrors[target];
+    }
+
+    /**
+     * @return the largest standard error of all targets, or {@link Double#NaN} if one of them is unknown
+     */
+    public double getMaxStandardError() {
+        double max = 0;
+        for (double error : standardErrors)
+            max = Math.max(max, error);
+        return max;
+    }
+
+    /**
+     * @return the number of samples drawn, or of sweeps for {@link Sampler.Method#GIBBS}, burn-in excluded
+     */
+    public long getSamples() {
+        return samples;
+    }
+
+    /**
+     * @return whether the standard error of every target reached the error target before the sample budget ran out
+     */
+    public boolean isConverged() {
+        return converged;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int t = 0; t < probabilities.length; t++)
+            sb.append(t == 0 ? "" : ", ").append(probabilities[t]).append(" +/- ").append(standardErrors[t]);
+        return "[" + sb + "] from " + samples + " samples" + (converged ? "" : ", not converged");
+    }
+}
@@ -0,0 +1,206 @@
+package inference;
+
+import java.util.Arrays;
+
+/**
+ * A function of some boolean variables, stored in a flat {@code double[]}.
+ * <p>
+ * The value of an assignment is stored at the index whose j-th bit is the value of the j-th variable,
+ * so the j-th variable has a stride of {@code 1 << j}. A set bit is {@link main.Merger#FALSE},
+ * as in {@link cpt.CPT}. All operations are done with strides on the flat arrays and never allocate
+ * the arrays of their results; these are taken from a {@link BufferPool} by the caller.
+ *
+ * @version 1.1
+ */
+final class Factor {
+
+    /**
+     * The variables of the factor, by their index in the {@link Model}.
+     */
+    final int[] vars;
+    /**
+     * The values of the factor, of length {@code 1 << vars.length}.
+     */
+    final double[] values;
+    /**
+     * Whether the values were taken from a {@link BufferPool} and can be given back to it.
+     */
+    final boolean pooled;
+
+    Factor(int[] vars, double[] values, boolean pooled) {
+        this.vars = vars;
+        this.values = values;
+        this.pooled = pooled;
+    }
+
+    /**
+     * @param var the index of a variable
+     * @return the position of the variable in this factor, or -1 if it is not a variable of this factor
+     */
+    int position(int var) {
+        for (int j = 0; j < vars.length; j++)
+            if (vars[j] == var)
+                return j;
+        return -1;
+    }
+
+    /**
+     * Multiplies the given factors into a factor over the given variables, which must include all of their
+     * variables.
+     *
+     * @param factors the factors to multiply
+     * @param count   the number of factors to multiply, from the start of the array
+     * @param vars    the variables of the product
+     * @param out     the array for the values of the product, of length at least {@code 1 << vars.length}
+     * @see Factor#multiply(Factor[], int, int[][], int[], double[], int)
+     */
+    static void multiply(Factor[] factors, int count, int[] vars, double[] out) {
+        multiply(factors, count, deltas(factors, count, vars), new int[count], out, 1 << vars.length);
+    }
+
+    /**
+     * Computes how the index into each of the given factors changes when a product over the given variables
+     * moves from an assignment to the next one. Going from an assignment to the next one sets bit t and clears
+     * all the bits below it, so the delta only depends on t.
+     *
+     * @param factors the factors to multiply
+     * @param count   the number of factors to multiply, from the start of the array
+     * @param vars    the variables of the product
+     * @return the delta of every factor for every t
+     */
+    static int[][] deltas(Factor[] factors, int count, int[] vars) {
+        int[][] deltas = new int[count][vars.length];
+        for (int f = 0; f < count; f++) {
+            int cleared = 0;
+            for (int t = 0; t < vars.length; t++) {
+                int j = factors[f].position(vars[t]), stride = j < 0 ? 0 : 1 << j;
+                deltas[f][t] = stride - cleared;
+                cleared += stride;
+            }
+        }
+        return deltas;
+    }
+
+    /**
+     * Multiplies the given factors with precomputed deltas. The assignments are visited in order,
+     * and the index into each factor is updated with the delta for the lowest bit that changes,
+     * so every value costs one multiplication and one addition per factor, and nothing is allocated.
+     *
+     * @param factors the factors to multiply
+     * @param count   the number of factors to multiply, from the start of the array
+     * @param deltas  the deltas of the factors, see {@link Factor#deltas(Factor[], int, int[])}
+     * @param indices an array for the indices into the factors, of length at least count
+     * @param out     the array for the values of the product
+     * @param size    the number of values of the product
+     */
+    static void multiply(Factor[] factors, int count, int[][] deltas, int[] indices, double[] out, int size) {
+        Arrays.fill(indices, 0, count, 0);
+        for (int a = 0; ; ) {
+            double p = 1;
+            for (int f = 0; f < count; f++)
+                p *= factors[f].values[indices[f]];
+            out[a] = p;
+            if (++a == size)
+                break;
+            int t = Integer.numberOfTrailingZeros(a);
+            for (int f = 0; f < count; f++)
+                indices[f] += deltas[f][t];
+        }
+    }
+
+    /**
+     * Sums all variables but the ones of the target out of the values of a factor, whose variables must
+     * include the ones of the target.
+     *
+     * @param in     the values of the factor
+     * @param vars   the variables of the factor
+     * @param target the variables to keep
+     * @param out    the array for the values of the result, of length at least {@code 1 << target.length}
+     * @see Factor#project(double[], int, int[], double[], int)
+     */
+    static void project(double[] in, int[] vars, int[] target, double[] out) {
+        project(in, 1 << vars.length, projection(vars, target), out, 1 << target.length);
+    }
+
+    /**
+     * Computes how the index into the target of a projection changes when the factor moves from an assignment
+     * to the next one, the same way as {@link Factor#deltas(Factor[], int, int[])}.
+     *
+     * @param vars   the variables of the factor
+     * @param target the variables to keep
+     * @return the delta of the index into the target for every t
+     */
+    static int[] projection(int[] vars, int[] target) {
+        int[] deltas = new int[vars.length];
+        int cleared = 0;
+        for (int t = 0; t < vars.length; t++) {
+            int stride = 0;
+            for (int j = 0; j < target.length; j++)
+                if (target[j] == vars[t])
+                    stride = 1 << j;
+            deltas[t] = stride - cleared;
+            cleared += stride;
+        }
+        return deltas;
+    }
+
+    /**
+     * Projects the values of a factor with precomputed deltas, without allocating.
+     *
+     * @param in      the values of the factor
+     * @param size    the number of values of the factor
+     * @param deltas  the deltas of the target, see {@link Factor#projection(int[], int[])}
+     * @param out     the array for the values of the result
+     * @param outSize the number of values of the result
+     */
+    static void project(double[] in, int size, int[] deltas, double[] out, int outSize) {
+        Arrays.fill(out, 0, outSize, 0);
+        for (int a = 0, index = 0; ; ) {
+            out[index] += in[a];
+            if (++a == size)
+                break;
+            index += deltas[Integer.numberOfTrailingZeros(a)];
+        }
+    }
+
+    /**
+     * Sums a variable out of the values of a factor.
+     *
+     * @param in       the values of the factor
+     * @param vars     the number of variables of the factor
+     * @param position the position of the variable to sum out
+     * @param out      the array for the values of the result, of length at least {@code 1 << (vars - 1)}
+     */
+    static void sumOut(double[] in, int vars, int position, double[] out) {
+        int size = 1 << (vars - 1), low = (1 << position) - 1, bit = 1 << position;
+        for (int r = 0; r < size; r++) {
+            int i = (r & ~low) << 1 | (r & low);
+            out[r] = in[i] + in[i | bit];
+        }
+    }
+
+    /**
+     * Fixes the value of a variable in a factor.
+     *
+     * @param in       the values of the factor
+     * @param vars     the number of variables of the factor
+     * @param position the position of the variable to fix
+     * @param value    {@link main.Merger#TRUE} or {@link main.Merger#FALSE}
+     * @param out      the array for the values of the result, of length at least {@code 1 << (vars - 1)}
+     */
+    static void restrict(double[] in, int vars, int position, int value, double[] out) {
+        int size = 1 << (vars - 1), low = (1 << position) - 1, bit = value << position;
+        for (int r = 0; r < size; r++)
+            out[r] = in[(r & ~low) << 1 | (r & low) | bit];
+    }
+
+    /**
+     * @return a copy of the given variables without the one at the given position
+     */
+    static int[] without(int[] vars, int position) {
+        int[] result = new int[vars.length - 1];
+        System.arraycopy(vars, 0, result, 0, position);
+        System.arraycopy(vars, position + 1, result, position, result.length - position);
+        return result;
+    }
+}
@@ -0,0 +1,658 @@
+package inference;
+
+import inference.EliminationOrder.Heuristic;
+import org.encog.ml.bayesian.BayesianNetwork;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import static inference.Model.UNOBSERVED;
+import static main.Merger.FALSE;
+import static main.Merger.TRUE;
+
+/**
+ * Exact inference on a junction tree, compiled once from a network and then queried any number of times
+ * with changing evidence.
+ * <p>
+ * Compilation moralizes the network, triangulates it with an {@link EliminationOrder}, keeps the maximal
+ * cliques of the elimination and connects them into a tree. Every Conditional Probability Table is
+ * multiplied into a clique that contains its family, and all clique and separator potentials are
+ * allocated at that time, so queries never allocate them.
+ * <p>
+ * Messages between cliques are computed lazily and cached. Entering or retracting the evidence of a variable
+ * only invalidates the messages that lead away from the clique where that evidence is entered, and a query
+ * only recomputes the invalid messages into the clique of its target. When the evidence changes slowly,
+ * most queries recompute a handful of messages instead of calibrating the whole tree.
+ * Retraction never divides: the potential of a clique is rebuilt from its tables and its current evidence.
+ * <p>
+ * The order in which the entries of every message and belief are combined is precomputed with the structure,
+ * so neither computing a message nor answering a query allocates.
+ * <p>
+ * A junction tree is not thread-safe. {@link JunctionTree#copy()} creates another one that shares the compiled
+ * structure and tables but has its own evidence and messages, for use in another thread.
+ *
+ * @version 1.2
+ */
+public class JunctionTree {
+
+    private final Model model;
+
+    /**
+     * The variables of every clique, in ascending order.
+     */
+    private final int[][] cliqueVars;
+    /**
+     * The parent of every clique in the tree, or -1 for the root, its children and the variables of the
+     * separator between it and its parent, in ascending order.
+     */
+    private final int[] parent;
+    private final int[][] children, separatorVars;
+    /**
+     * The product of the tables assigned to every clique.
+     */
+    private final double[][] base;
+    /**
+     * The clique into which the evidence of every variable is entered, and the variables homed in every clique.
+     */
+    private final int[] home;
+    private final int[][] homed;
+    private final int largestClique, maxDegree;
+    private final long totalTableSize;
+    /**
+     * The deltas of the operands of the message from every clique to its parent, of the message from the parent
+     * of every clique to it, and of the belief of every clique, see {@link Factor#deltas(Factor[], int, int[])},
+     * and the deltas of the projections of both messages onto their separator.
+     */
+    private final int[][][] upDeltas, downDeltas, beliefDeltas;
+    private final int[][] upProjection, downProjection;
+
+    /**
+     * The evidence, the potential of every clique with its evidence entered,
+     * and the messages from every clique to its parent and from its parent to it.
+     */
+    private final int[] evidence;
+    private final Factor[] work, up, down;
+    private final boolean[] workValid, upValid, downValid;
+    /**
+     * The operands of every message and belief, in the order of their deltas.
+     */
+    private final Factor[][] upOperands, downOperands, beliefOperands;
+
+    /**
+     * Buffers for computing messages and beliefs, and the clique whose belief is in the scratch buffer, or -1.
+     */
+    private final double[] scratch;
+    private final int[] indices, stackFrom, stackTo;
+    private int beliefClique = -1;
+
+    /**
+     * Compiles a junction tree for the given network, triangulated in {@link Heuristic#MIN_FILL} order.
+     *
+     * @param net the {@link BayesianNetwork}, whose events must all be boolean
+     * @throws IllegalArgumentException if an event is not boolean, a row of a table is missing
+     *                                  or the network has a cycle
+     * @throws IllegalStateException    if a clique is too large, see {@link JunctionTree#getLargestClique()}
+     */
+    public JunctionTree(BayesianNetwork net) {
+        this(new Model(net), Heuristic.MIN_FILL);
+    }
+
+    /**
+     * Compiles a junction tree for the given model.
+     *
+     * @param model     the model of the network
+     * @param heuristic the score by which the triangulation eliminates the next variable
+     * @throws IllegalStateException if a clique is too large, see {@link JunctionTree#getLargestClique()}
+     */
+    public JunctionTree(Model model, Heuristic heuristic) {
+        this.model = model;
+        int n = model.getVariableCount();
+
+        // Moralize: connect every variable to its parents and the parents to each other.
+        BitSet[] graph = new BitSet[n];
+        for (int v = 0; v < n; v++)
+            graph[v] = new BitSet();
+        for (int v = 0; v < n; v++) {
+            int[] parents = model.parents(v);
+            for (int p : parents) {
+                graph[v].set(p);
+                graph[p].set(v);
+                for (int q : parents)
+                    if (p != q)
+                        graph[p].set(q);
+            }
+        }
+        BitSet all = new BitSet(n);
+        all.set(0, n);
+        EliminationOrder elimination = new EliminationOrder(graph, all, heuristic);
+        if (elimination.getWidth() > BufferPool.MAX_VARIABLES)
+            throw new IllegalStateException("The junction tree would have a clique of " + elimination.getWidth()
+                    + " variables, the network is too densely connected for exact inference");
+
+        int[] order = elimination.order();
+        BitSet[] cliques = elimination.cliques();
+        int[] step = new int[n];
+        for (int i = 0; i < n; i++)
+            step[order[i]] = i;
+
+        // The parent of the clique of each step is the clique of the first variable of its separator
+        // to be eliminated. A parent that is a subset of its child is not maximal and is absorbed by it.
+        int[] parentStep = new int[n], representative = new int[n];
+        for (int i = 0; i < n; i++) {
+            representative[i] = i;
+            int first = -1;
+            for (int v = cliques[i].nextSetBit(0); v >= 0; v = cliques[i].nextSetBit(v + 1))
+                if (v != order[i] && (first < 0 || step[v] < first))
+                    first = step[v];
+            parentStep[i] = first;
+        }
+        boolean[] absorbed = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            if (absorbed[i])
+                continue;
+            for (int p = find(representative, parentStep[i]); p >= 0 && isSubset(cliques[p], cliques[i]);
+                 p = find(representative, parentStep[i])) {
+                absorbed[p] = true;
+                representative[p] = i;
+                parentStep[i] = parentStep[p];
+            }
+        }
+
+        int[] index = new int[n];
+        int count = 0;
+        for (int i = 0; i < n; i++)
+            index[i] = absorbed[i] ? -1 : count++;
+        cliqueVars = new int[count][];
+        parent = new int[count];
+        int root = -1;
+        for (int i = 0; i < n; i++) {
+            if (absorbed[i])
+                continue;
+            int c = index[i], p = find(representative, parentStep[i]);
+            cliqueVars[c] = cliques[i].stream().toArray();
+            // Separate trees are joined under the first root, with empty separators.
+            parent[c] = p >= 0 ? index[p] : root;
+            if (p < 0 && root < 0)
+                root = c;
+        }
+        // The first root may come after cliques that were attached to it before it was known.
+        for (int c = 0; c < count; c++)
+            if (parent[c] < 0 && c != root)
+                parent[c] = root;
+
+        int[] childCounts = new int[count];
+        for (int c = 0; c < count; c++)
+            if (parent[c] >= 0)
+                childCounts[parent[c]]++;
+        children = new int[count][];
+        for (int c = 0; c < count; c++)
+            children[c] = new int[childCounts[c]];
+        for (int c = 0; c < count; c++)
+            if (parent[c] >= 0)
+                children[parent[c]][--childCounts[parent[c]]] = c;
+
+        separatorVars = new int[count][];
+        int largest = 0, degree = 0;
+        long size = 0;
+        for (int c = 0; c < count; c++) {
+            separatorVars[c] = parent[c] < 0 ? new int[0] : intersection(cliqueVars[c], cliqueVars[parent[c]]);
+            largest = Math.max(largest, cliqueVars[c].length);
+            degree = Math.max(degree, children[c].length + 2);
+            size += (1L << cliqueVars[c].length) + (parent[c] < 0 ? 0 : 1L << separatorVars[c].length);
+        }
+        largestClique = largest;
+        maxDegree = degree;
+        totalTableSize = size;
+
+        // Every family is a clique of the moral graph, so it is in the clique of its first eliminated variable.
+        home = new int[n];
+        int[] homedCounts = new int[count];
+        for (int v = 0; v < n; v++) {
+            int first = step[v];
+            for (int p : model.parents(v))
+                first = Math.min(first, step[p]);
+            home[v] = index[find(representative, first)];
+            homedCounts[home[v]]++;
+        }
+        homed = new int[count][];
+        for (int c = 0; c < count; c++)
+            homed[c] = new int[homedCounts[c]];
+        for (int v = 0; v < n; v++)
+            homed[home[v]][--homedCounts[home[v]]] = v;
+
+        base = new double[count][];
+        Factor[] tables = new Factor[n];
+        for (int c = 0; c < count; c++) {
+            for (int j = 0; j < homed[c].length; j++)
+                tables[j] = model.factor(homed[c][j]);
+            base[c] = new double[1 << cliqueVars[c].length];
+            Factor.multiply(tables, homed[c].length, cliqueVars[c], base[c]);
+        }
+
+        evidence = new int[n];
+        work = new Factor[count];
+        up = new Factor[count];
+        down = new Factor[count];
+        workValid = new boolean[count];
+        upValid = new boolean[count];
+        downValid = new boolean[count];
+        upOperands = new Factor[count][];
+        downOperands = new Factor[count][];
+        beliefOperands = new Factor[count][];
+        scratch = new double[1 << largestClique];
+        indices = new int[maxDegree];
+        stackFrom = new int[count];
+        stackTo = new int[count];
+        allocateState();
+
+        upDeltas = new int[count][][];
+        downDeltas = new int[count][][];
+        beliefDeltas = new int[count][][];
+        upProjection = new int[count][];
+        downProjection = new int[count][];
+        for (int c = 0; c < count; c++) {
+            beliefDeltas[c] = Factor.deltas(beliefOperands[c], beliefOperands[c].length, cliqueVars[c]);
+            if (parent[c] < 0)
+                continue;
+            upDeltas[c] = Factor.deltas(upOperands[c], upOperands[c].length, cliqueVars[c]);
+            downDeltas[c] = Factor.deltas(downOperands[c], downOperands[c].length, cliqueVars[parent[c]]);
+            upProjection[c] = Factor.projection(cliqueVars[c], separatorVars[c]);
+            downProjection[c] = Factor.projection(cliqueVars[parent[c]], separatorVars[c]);
+        }
+    }
+
+    /**
+     * Creates a junction tree with the same structure and tables as the given one, and no evidence.
+     */
+    private JunctionTree(JunctionTree other) {
+        model = other.model;
+        cliqueVars = other.cliqueVars;
+        parent = other.parent;
+        children = other.children;
+        separatorVars = other.separatorVars;
+        base = other.base;
+        home = other.home;
+        homed = other.homed;
+        largestClique = other.largestClique;
+        maxDegree = other.maxDegree;
+        totalTableSize = other.totalTableSize;
+        upDeltas = other.upDeltas;
+        downDeltas = other.downDeltas;
+        beliefDeltas = other.beliefDeltas;
+        upProjection = other.upProjection;
+        downProjection = other.downProjection;
+
+        int count = cliqueVars.length;
+        evidence = new int[other.evidence.length];
+        work = new Factor[count];
+        up = new Factor[count];
+        down = new Factor[count];
+        workValid = new boolean[count];
+        upValid = new boolean[count];
+        downValid = new boolean[count];
+        upOperands = new Factor[count][];
+        downOperands = new Factor[count][];
+        beliefOperands = new Factor[count][];
+        scratch = new double[other.scratch.length];
+        indices = new int[other.indices.length];
+        stackFrom = new int[count];
+        stackTo = new int[count];
+        allocateState();
+    }
+
+    /**
+     * Allocates the clique potentials and the messages, collects the operands of every message and belief,
+     * and clears the evidence.
+     */
+    private void allocateState() {
+        Arrays.fill(evidence, UNOBSERVED);
+        for (int c = 0; c < cliqueVars.length; c++) {
+            work[c] = new Factor(cliqueVars[c], new double[1 << cliqueVars[c].length], false);
+            up[c] = new Factor(separatorVars[c], new double[1 << separatorVars[c].length], false);
+            down[c] = new Factor(separatorVars[c], new double[1 << separatorVars[c].length], false);
+        }
+        for (int c = 0; c < cliqueVars.length; c++) {
+            beliefOperands[c] = incoming(c, -1);
+            if (parent[c] >= 0) {
+                upOperands[c] = incoming(c, parent[c]);
+                downOperands[c] = incoming(parent[c], c);
+            }
+        }
+    }
+
+    /**
+     * @return the potential of clique c and the messages into it, except the one from the given clique
+     */
+    private Factor[] incoming(int c, int except) {
+        Factor[] operands = new Factor[children[c].length + 2];
+        int count = 0;
+        operands[count++] = work[c];
+        if (parent[c] >= 0 && parent[c] != except)
+            operands[count++] = down[c];
+        for (int child : children[c])
+            if (child != except)
+                operands[count++] = up[child];
+        return Arrays.copyOf(operands, count);
+    }
+
+    private static int find(int[] representative, int i) {
+        if (i < 0)
+            return -1;
+        while (representative[i] != i)
+            i = representative[i];
+        return i;
+    }
+
+    private static boolean isSubset(BitSet a, BitSet b) {
+        BitSet difference = (BitSet) a.clone();
+        difference.andNot(b);
+        return difference.isEmpty();
+    }
+
+    private static int[] intersection(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int size = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j])
+                i++;
+            else if (a[i] > b[j])
+                j++;
+            else {
+                result[size++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * @return a junction tree that shares the compiled structure and tables of this one, without evidence
+     */
+    public JunctionTree copy() {
+        return new JunctionTree(this);
+    }
+
+    public Model getModel() {
+        return model;
+    }
+
+    /**
+     * @return the number of cliques of the tree
+     */
+    public int getCliqueCount() {
+        return cliqueVars.length;
+    }
+
+    /**
+     * @return the number of variables of the largest clique. Every variable doubles the size of its potential,
+     * so this is what makes a network intractable.
+     */
+    public int getLargestClique() {
+        return largestClique;
+    }
+
+    /**
+     * @return the total number of entries of the potentials of all cliques and separators
+     */
+    public long getTotalTableSize() {
+        return totalTableSize;
+    }
+
+    /**
+     * Observes the value of an event, or retracts its observation.
+     *
+     * @param label the label of the event
+     * @param value true for {@link main.Merger#TRUE}, false for {@link main.Merger#FALSE}, null to retract
+     * @throws IllegalArgumentException if the event is not in the network
+     */
+    public void setEvidence(String label, Boolean value) {
+        setEvidence(model.getIndex(label), value == null ? UNOBSERVED : value ? TRUE : FALSE);
+    }
+
+    /**
+     * Observes the value of a variable, or retracts its observation.
+     * Only the messages that depend on the evidence of the variable are invalidated.
+     *
+     * @param variable the index of the variable
+     * @param value    {@link main.Merger#TRUE}, {@link main.Merger#FALSE} or {@link Model#UNOBSERVED}
+     * @throws IllegalArgumentException if the value is none of these
+     */
+    public void setEvidence(int variable, int value) {
+        if (evidence[variable] == value)
+            return;
+        if (value != TRUE && value != FALSE && value != UNOBSERVED)
+            throw new IllegalArgumentException("Invalid value " + value + " of \"" + model.getLabel(variable) + "\"");
+        evidence[variable] = value;
+        int h = home[variable];
+        workValid[h] = false;
+        beliefClique = -1;
+        invalidateFrom(h);
+    }
+
+    /**
+     * Replaces all the evidence. Only the variables whose evidence changes invalidate messages.
+     *
+     * @param values the value of every variable, see {@link Model}
+     * @throws IllegalArgumentException if a value is invalid
+     */
+    public void setEvidence(int[] values) {
+        for (int v = 0; v < values.length; v++)
+            setEvidence(v, values[v]);
+    }
+
+    /**
+     * Retracts all the evidence.
+     */
+    public void clearEvidence() {
+        for (int v = 0; v < evidence.length; v++)
+            setEvidence(v, UNOBSERVED);
+    }
+
+    /**
+     * Invalidates every message that leads away from the given clique. A message that is already invalid
+     * stops the walk, as every message that depends on it is invalid too.
+     */
+    private void invalidateFrom(int h) {
+        int size = 0;
+        stackFrom[size] = -1;
+        stackTo[size++] = h;
+        while (size > 0) {
+            int from = stackFrom[--size], c = stackTo[size];
+            int p = parent[c];
+            if (p >= 0 && p != from && upValid[c]) {
+                upValid[c] = false;
+                stackFrom[size] = c;
+                stackTo[size++] = p;
+            }
+            for (int child : children[c])
+                if (child != from && downValid[child]) {
+                    downValid[child] = false;
+                    stackFrom[size] = c;
+                    stackTo[size++] = child;
+                }
+        }
+    }
+
+    /**
+     * Computes the probability that an event is {@link main.Merger#TRUE}, given the current evidence.
+     *
+     * @param label the label of the event
+     * @return the conditional probability of the event
+     * @throws IllegalArgumentException if the event is not in the network or the evidence is impossible
+     */
+    public double probability(String label) {
+        return marginal(model.getIndex(label))[TRUE];
+    }
+
+    /**
+     * Computes the distribution of a variable, given the current evidence.
+     * Only the invalid messages into the clique of the variable are computed.
+     *
+     * @param variable the index of the variable
+     * @return the probabilities of the variable being {@link main.Merger#TRUE} and {@link main.Merger#FALSE},
+     * or its observed value with probability 1 if it is observed
+     * @throws IllegalArgumentException if the evidence is impossible
+     */
+    public double[] marginal(int variable) {
+        double[] result = new double[2];
+        marginal(variable, result);
+        return result;
+    }
+
+    /**
+     * Same as {@link JunctionTree#marginal(int)}, but writes the distribution into the given array.
+     */
+    void marginal(int variable, double[] result) {
+        if (evidence[variable] != UNOBSERVED) {
+            result[TRUE] = 0;
+            result[FALSE] = 0;
+            result[evidence[variable]] = 1;
+            return;
+        }
+
+        int c = home[variable];
+        int size = belief(c);
+        int bit = 1 << Arrays.binarySearch(cliqueVars[c], variable);
+        double pTrue = 0, pFalse = 0;
+        for (int i = 0; i < size; i++)
+            if ((i & bit) == 0)
+                pTrue += scratch[i];
+            else
+                pFalse += scratch[i];
+        double sum = pTrue + pFalse;
+        if (!(sum > 0))
+            throw new IllegalArgumentException("The evidence is impossible");
+        result[TRUE] = pTrue / sum;
+        result[FALSE] = pFalse / sum;
+    }
+
+    /**
+     * Checks whether the current evidence has a positive probability. Queries of unobserved variables check it
+     * anyway, so this is only needed when all the variables of interest are observed.
+     *
+     * @return whether the evidence is possible
+     */
+    boolean isPossible() {
+        if (cliqueVars.length == 0)
+            return true;
+        // Every clique sees all the evidence, so any clique will do, and the one of the last query is at hand.
+        int c = beliefClique >= 0 ? beliefClique : 0;
+        int size = belief(c);
+        for (int i = 0; i < size; i++)
+            if (scratch[i] > 0)
+                return true;
+        return false;
+    }
+
+    /**
+     * Computes the belief of a clique into the scratch buffer, unless it is already there.
+     * The belief stays in the scratch buffer until the evidence changes or a message is computed,
+     * so the targets that share a clique share its belief.
+     *
+     * @return the number of entries of the belief
+     */
+    private int belief(int c) {
+        collect(c);
+        int size = 1 << cliqueVars[c].length;
+        if (beliefClique != c) {
+            validateWork(c);
+            Factor.multiply(beliefOperands[c], beliefOperands[c].length, beliefDeltas[c], indices, scratch, size);
+            beliefClique = c;
+        }
+        return size;
+    }
+
+    /**
+     * Makes every message into the given clique valid, computing the invalid ones after the messages they
+     * depend on, with an explicit stack so that deep trees do not overflow the call stack.
+     * The subtree behind a valid message is never visited.
+     */
+    private void collect(int target) {
+        int size = 0;
+        size = pushInvalid(target, -1, size);
+        while (size > 0) {
+            int from = stackFrom[size - 1], to = stackTo[size - 1];
+            if (from >= 0) {
+                // First visit: mark it expanded and push the messages it depends on.
+                stackFrom[size - 1] = ~from;
+                size = pushInvalid(from, to, size);
+            }
+            else {
+                size--;
+                computeMessage(~from, to);
+            }
+        }
+    }
+
+    /**
+     * Pushes the invalid messages into clique c, except the one from the given clique.
+     */
+    private int pushInvalid(int c, int except, int size) {
+        int p = parent[c];
+        if (p >= 0 && p != except && !downValid[c]) {
+            stackFrom[size] = p;
+            stackTo[size++] = c;
+        }
+        for (int child : children[c])
+            if (child != except && !upValid[child]) {
+                stackFrom[size] = child;
+                stackTo[size++] = c;
+            }
+        return size;
+    }
+
+    /**
+     * Rebuilds the potential of clique c if its evidence changed.
+     */
+    private void validateWork(int c) {
+        if (!workValid[c]) {
+            enterEvidence(c);
+            workValid[c] = true;
+        }
+    }
+
+    /**
+     * Computes the message from one clique to a neighbouring one and normalizes it, so that long chains
+     * of messages do not underflow.
+     */
+    private void computeMessage(int from, int to) {
+        validateWork(from);
+        boolean isUp = parent[from] == to;
+        Factor message = isUp ? up[from] : down[to];
+        Factor[] operands = isUp ? upOperands[from] : downOperands[to];
+        int size = 1 << cliqueVars[from].length;
+        Factor.multiply(operands, operands.length, isUp ? upDeltas[from] : downDeltas[to], indices, scratch, size);
+        Factor.project(scratch, size, isUp ? upProjection[from] : downProjection[to], message.values,
+                message.values.length);
+        beliefClique = -1;
+
+        double sum = 0;
+        for (double p : message.values)
+            sum += p;
+        if (sum > 0)
+            for (int i = 0; i < message.values.length; i++)
+                message.values[i] /= sum;
+        if (isUp)
+            upValid[from] = true;
+        else
+            downValid[to] = true;
+    }
+
+    /**
+     * Rebuilds the potential of a clique from its tables and the evidence of the variables homed in it.
+     */
+    private void enterEvidence(int c) {
+        double[] values = work[c].values;
+        System.arraycopy(base[c], 0, values, 0, values.length);
+        int[] vars = cliqueVars[c];
+        for (int v : homed[c]) {
+            if (evidence[v] == UNOBSERVED)
+                continue;
+            int bit = 1 << Arrays.binarySearch(vars, v), wrong = evidence[v] == TRUE ? bit : 0;
+            for (int i = 0; i < values.length; i++)
+                if ((i & bit) == wrong)
+                    values[i] = 0;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package inference;
+
+import cpt.DenseCPT;
+import org.encog.ml.bayesian.BayesianEvent;
+import org.encog.ml.bayesian.BayesianNetwork;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static main.Merger.FALSE;
+import static main.Merger.TRUE;
+
+/**
+ * The structure and the Conditional Probability Tables of a {@link BayesianNetwork} as flat arrays,
+ * which the inference engines of this package work on instead of the encog objects.
+ * <p>
+ * Variables are identified by their index in the events of the network. The table of every variable is
+ * stored in the layout of a {@link DenseCPT}, which is also the layout of a factor over the variable
+ * followed by its parents in reverse order, see {@link Model#factor(int)}.
+ * <p>
+ * Evidence is given as an {@code int[]} with an entry per variable, which is either {@link main.Merger#TRUE},
+ * {@link main.Merger#FALSE} or {@link Model#UNOBSERVED}.
+ * A model is immutable, so it can be shared between threads.
+ *
+ * @version 1.1
+ */
+public class Model {
+
+    /**
+     * The value of a variable that is not observed.
+     */
+    public static final int UNOBSERVED = -1;
+
+    private final String[] labels;
+    private final Map<String, Integer> indices = new HashMap<>();
+    private final int[][] parents, children;
+    private final double[][] tables;
+    private final int[] topologicalOrder;
+
+    /**
+     * Reads the structure and the tables of the given network.
+     * A line missing from a table is taken to be the complement of the other line of its row.
+     *
+     * @param net the {@link BayesianNetwork}, whose events must all be boolean
+     * @throws IllegalArgumentException if an event is not boolean, a row of a table is missing
+     *                                  or the network has a cycle
+     */
+    public Model(BayesianNetwork net) {
+        List<BayesianEvent> events = net.getEvents();
+        int n = events.size();
+        labels = new String[n];
+        parents = new int[n][];
+        tables = new double[n][];
+        for (int i = 0; i < n; i++) {
+            labels[i] = events.get(i).getLabel();
+            indices.put(labels[i], i);
+        }
+
+        int[] childCounts = new int[n];
+        for (int i = 0; i < n; i++) {
+            BayesianEvent e = events.get(i);
+            List<BayesianEvent> eventParents = e.getParents();
+            parents[i] = new int[eventParents.size()];
+            for (int j = 0; j < parents[i].length; j++) {
+                parents[i][j] = indices.get(eventParents.get(j).getLabel());
+                childCounts[parents[i][j]]++;
+            }
+            tables[i] = complete(DenseCPT.of(e).getValues(), labels[i]);
+        }
+
+        children = children(parents, childCounts);
+        topologicalOrder = sort();
+    }
+
+    /**
+     * Creates the model of some variables of another model, see {@link Model#restrict(BitSet)}.
+     */
+    private Model(Model model, BitSet variables) {
+        int n = variables.cardinality();
+        labels = new String[n];
+        parents = new int[n][];
+        tables = new double[n][];
+        int[] newIndices = new int[model.labels.length], childCounts = new int[n];
+        for (int v = variables.nextSetBit(0), i = 0; v >= 0; v = variables.nextSetBit(v + 1), i++) {
+            newIndices[v] = i;
+            labels[i] = model.labels[v];
+            indices.put(labels[i], i);
+            tables[i] = model.tables[v];
+        }
+        for (int v = variables.nextSetBit(0), i = 0; v >= 0; v = variables.nextSetBit(v + 1), i++) {
+            parents[i] = new int[model.parents[v].length];
+            for (int j = 0; j < parents[i].length; j++) {
+                if (!variables.get(model.parents[v][j]))
+                    throw new IllegalArgumentException("The parents of \"" + labels[i] + "\" are not included");
+                parents[i][j] = newIndices[model.parents[v][j]];
+                childCounts[parents[i][j]]++;
+            }
+        }
+        children = children(parents, childCounts);
+        topologicalOrder = sort();
+    }
+
+    /**
+     * Inverts the parents of every variable.
+     *
+     * @param childCounts the number of children of every variable, which is cleared
+     */
+    private static int[][] children(int[][] parents, int[] childCounts) {
+        int n = parents.length;
+        int[][] children = new int[n][];
+        for (int i = 0; i < n; i++)
+            children[i] = new int[childCounts[i]];
+        for (int i = 0; i < n; i++)
+            for (int parent : parents[i])
+                children[parent][children[parent].length - childCounts[parent]--] = i;
+        return children;
+    }
+
+    /**
+     * Fills in the missing lines of a table with the complements of the other lines of their rows.
+     *
+     * @throws IllegalArgumentException if both lines of a row are missing
+     */
+    private static double[] complete(double[] table, String label) {
+        for (int i = 0; i < table.length; i += 2) {
+            if (Double.isNaN(table[i + TRUE]) && Double.isNaN(table[i + FALSE]))
+                throw new IllegalArgumentException("Row " + (i >> 1) + " of the table of \"" + label + "\" is missing");
+            if (Double.isNaN(table[i + TRUE]))
+                table[i + TRUE] = 1 - table[i + FALSE];
+            else if (Double.isNaN(table[i + FALSE]))
+                table[i + FALSE] = 1 - table[i + TRUE];
+        }
+        return table;
+    }
+
+    /**
+     * Orders the variables so that every variable comes after its parents.
+     *
+     * @return the variables in topological order
+     * @throws IllegalArgumentException if the network has a cycle
+     */
+    private int[] sort() {
+        int n = labels.length;
+        int[] order = new int[n], missing = new int[n];
+        int size = 0;
+        for (int i = 0; i < n; i++)
+            if ((missing[i] = parents[i].length) == 0)
+                order[size++] = i;
+        for (int next = 0; next < size; next++)
+            for (int child : children[order[next]])
+                if (--missing[child] == 0)
+                    order[size++] = child;
+        if (size != n)
+            throw new IllegalArgumentException("The network has a cycle");
+        return order;
+    }
+
+    public int getVariableCount() {
+        return labels.length;
+    }
+
+    public String getLabel(int variable) {
+        return labels[variable];
+    }
+
+    /**
+     * @param label the label of an event
+     * @return the index of the variable of the event
+     * @throws IllegalArgumentException if there is no such event
+     */
+    public int getIndex(String label) {
+        Integer i = indices.get(label);
+        if (i == null)
+            throw new IllegalArgumentException("Event \"" + label + "\" is not in the network");
+        return i;
+    }
+
+    /**
+     * @return the parents of the given variable, in the order of its table. The array must not be modified.
+     */
+    int[] parents(int variable) {
+        return parents[variable];
+    }
+
+    /**
+     * @return the children of the given variable. The array must not be modified.
+     */
+    int[] children(int variable) {
+        return children[variable];
+    }
+
+    /**
+     * @return the table of the given variable, in the layout of a {@link DenseCPT}. The array must not be modified.
+     */
+    double[] table(int variable) {
+        return tables[variable];
+    }
+
+    /**
+     * @return the variables in an order in which every variable comes after its parents.
+     * The array must not be modified.
+     */
+    int[] topologicalOrder() {
+        return topologicalOrder;
+    }
+
+    /**
+     * Adds the ancestors of the given variables to them.
+     *
+     * @param variables the variables, which are extended by all their ancestors
+     * @return the given {@link BitSet}
+     */
+    BitSet addAncestors(BitSet variables) {
+        int[] stack = new int[labels.length];
+        int size = 0;
+        for (int v = variables.nextSetBit(0); v >= 0; v = variables.nextSetBit(v + 1))
+            stack[size++] = v;
+        while (size > 0)
+            for (int p : parents[stack[--size]])
+                if (!variables.get(p)) {
+                    variables.set(p);
+                    stack[size++] = p;
+                }
+        return variables;
+    }
+
+    /**
+     * Creates the model of some of the variables of this one, which share its tables.
+     * The variables keep their order, so the i-th variable of the result is the i-th set bit of the given ones.
+     * Together with {@link Model#addAncestors(BitSet)}, this removes the variables that a query does not depend on.
+     *
+     * @param variables the variables to keep, which must include the parents of each of them
+     * @return the model of these variables
+     * @throws IllegalArgumentException if the parent of a kept variable is not kept
+     */
+    Model restrict(BitSet variables) {
+        return new Model(this, variables);
+    }
+
+    /**
+     * Creates a factor backed by the table of the given variable, without copying it.
+     * In the layout of a {@link DenseCPT} the result of the variable is the lowest bit of the index,
+     * followed by its last parent up to its first parent, so those are the variables of the factor.
+     *
+     * @param variable the index of the variable
+     * @return the factor of the Conditional Probability Table of the variable, which must not be modified
+     */
+    Factor factor(int variable) {
+        int[] p = parents[variable];
+        int[] vars = new int[p.length + 1];
+        vars[0] = variable;
+        for (int j = 0; j < p.length; j++)
+            vars[j + 1] = p[p.length - 1 - j];
+        return new Factor(vars, tables[variable], false);
+    }
+
+    /**
+     * Converts evidence given by labels into the evidence array of this model.
+     *
+     * @param evidence the observed value of each observed event, true for {@link main.Merger#TRUE}
+     * @return an array with the value of every variable, {@link Model#UNOBSERVED} for the unobserved ones
+     * @throws IllegalArgumentException if an event is not in the network
+     */
+    public int[] evidence(Map<String, Boolean> evidence) {
+        int[] values = new int[labels.length];
+        Arrays.fill(values, UNOBSERVED);
+        for (Map.Entry<String, Boolean> entry : evidence.entrySet())
+            values[getIndex(entry.getKey())] = entry.getValue() ? TRUE : FALSE;
+        return values;
+    }
+}
@@ -0,0 +1,447 @@
+package inference;
+
+import org.encog.ml.bayesian.BayesianNetwork;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+import static inference.Model.UNOBSERVED;
+import static main.Merger.FALSE;
+import static main.Merger.TRUE;
+
+/**
+ * Approximate inference by sampling, for networks whose cliques are too large for {@link VariableElimination}
+ * and {@link JunctionTree}, such as merges whose external events have the parents of both networks.
+ * <p>
+ * Two methods are supported:
+ * <ul>
+ * <li>{@link Method#LIKELIHOOD_WEIGHTING} samples the unobserved variables in topological order from their
+ * tables and weights every sample by the probability of the evidence given its parents.</li>
+ * <li>{@link Method#GIBBS} runs independent Markov chains, which resample every unobserved variable from its
+ * distribution given its Markov blanket. It copes better with unlikely evidence, but deterministic tables can
+ * keep a chain from reaching all the states that are consistent with the evidence.</li>
+ * </ul>
+ * Only the targets, the observed variables and their ancestors are sampled, as the other variables do not
+ * change the result. Samples are drawn in rounds of a fixed number of chunks, which are processed in parallel,
+ * each with its own {@link SplittableRandom} split from the seed in chunk order and its own sums,
+ * which are added in chunk order too. The result therefore only depends on the seed, never on the number of
+ * threads. Sampling stops after the first round in which the standard error of every target reaches the
+ * error target, or when the sample budget runs out.
+ * <p>
+ * A sampler is immutable, so it can be shared between threads.
+ *
+ * @version 1.1
+ */
+public class Sampler {
+
+    /**
+     * A way of drawing samples.
+     */
+    public enum Method {
+        LIKELIHOOD_WEIGHTING, GIBBS
+    }
+
+    /**
+     * The number of chunks, or chains, and the number of samples in a round.
+     */
+    private static final int CHUNKS = 64, ROUND = 1 << 16;
+    /**
+     * The number of forward samples a chain draws to find a state that is consistent with the evidence.
+     */
+    private static final int ATTEMPTS = 10000;
+
+    private final Model model;
+    private final Method method;
+    private final long seed;
+    private final int burnIn;
+
+    /**
+     * Creates a {@link Method#LIKELIHOOD_WEIGHTING} sampler for the given network, with seed 0.
+     *
+     * @param net the {@link BayesianNetwork}, whose events must all be boolean
+     * @throws IllegalArgumentException if an event is not boolean, a row of a table is missing
+     *                                  or the network has a cycle
+     */
+    public Sampler(BayesianNetwork net) {
+        this(new Model(net), Method.LIKELIHOOD_WEIGHTING, 0, 0);
+    }
+
+    /**
+     * @param model  the model of the network
+     * @param method the way of drawing samples
+     * @param seed   the seed from which all random numbers are drawn
+     * @param burnIn the number of sweeps every chain discards before it is counted,
+     *               only used by {@link Method#GIBBS}
+     */
+    public Sampler(Model model, Method method, long seed, int burnIn) {
+        if (burnIn < 0)
+            throw new IllegalArgumentException("The burn-in must not be negative");
+        this.model = model;
+        this.method = method;
+        this.seed = seed;
+        this.burnIn = burnIn;
+    }
+
+    public Model getModel() {
+        return model;
+    }
+
+    /**
+     * Estimates the probability of every target being {@link main.Merger#TRUE}, given the values of other events.
+     *
+     * @param targets    the labels of the targets
+     * @param evidence   the observed value of each observed event, true for {@link main.Merger#TRUE}
+     * @param maxSamples the sample budget
+     * @param maxError   the error target: the standard error every target must reach to stop early, or 0 to
+     *                   spend the whole budget
+     * @param pool       the pool in which to draw the chunks of every round, or null to draw them in the calling
+     *                   thread
+     * @return the estimates, in the order of the targets
+     * @throws IllegalArgumentException if an event is not in the network, or {@link Method#GIBBS} finds no state
+     *                                  that is consistent with the evidence
+     */
+    public Estimate estimate(String[] targets, Map<String, Boolean> evidence, long maxSamples, double maxError,
+                             ForkJoinPool pool) {
+        int[] targetIndices = new int[targets.length];
+        for (int t = 0; t < targets.length; t++)
+            targetIndices[t] = model.getIndex(targets[t]);
+        return estimate(targetIndices, model.evidence(evidence), maxSamples, maxError, pool);
+    }
+
+    /**
+     * Estimates the probability of every target being {@link main.Merger#TRUE}, given the values of other
+     * variables. An observed target is estimated as its observed value with no error.
+     *
+     * @param targets    the indices of the targets
+     * @param evidence   the value of every variable, see {@link Model}
+     * @param maxSamples the sample budget
+     * @param maxError   the error target: the standard error every target must reach to stop early, or 0 to
+     *                   spend the whole budget
+     * @param pool       the pool in which to draw the chunks of every round, or null to draw them in the calling
+     *                   thread
+     * @return the estimates, in the order of the targets
+     * @throws IllegalArgumentException if {@link Method#GIBBS} finds no state that is consistent with the evidence
+     */
+    public Estimate estimate(int[] targets, int[] evidence, long maxSamples, double maxError, ForkJoinPool pool) {
+        Query query = new Query(targets, evidence);
+        return method == Method.GIBBS ? query.gibbs(maxSamples, maxError, pool)
+                : query.likelihoodWeighting(maxSamples, maxError, pool);
+    }
+
+    /**
+     * Splits a round into chunks of almost equal size.
+     *
+     * @return the number of samples of every chunk
+     */
+    private static int[] chunkSizes(long round) {
+        int[] sizes = new int[CHUNKS];
+        for (int i = 0; i < CHUNKS; i++)
+            sizes[i] = (int) (round / CHUNKS + (i < round % CHUNKS ? 1 : 0));
+        return sizes;
+    }
+
+    /**
+     * Processes every chunk of a round, in parallel if a pool is given.
+     */
+    private static void forEachChunk(IntConsumer chunk, ForkJoinPool pool) {
+        if (pool == null)
+            for (int i = 0; i < CHUNKS; i++)
+                chunk.accept(i);
+        else
+            pool.invoke(new ChunkTask(chunk, 0, CHUNKS));
+    }
+
+    /**
+     * Processes the chunks from one index to another, either itself or split into halves.
+     */
+    private static class ChunkTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final IntConsumer chunk;
+        private final int from, to;
+
+        private ChunkTask(IntConsumer chunk, int from, int to) {
+            this.chunk = chunk;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ChunkTask(chunk, from, middle), new ChunkTask(chunk, middle, to));
+            }
+            else
+                chunk.accept(from);
+        }
+    }
+
+    /**
+     * The relevant variables of one query and the sampling methods.
+     */
+    private class Query {
+
+        private final int[] targets, evidence;
+        /**
+         * The relevant variables in topological order, and the unobserved ones among them.
+         */
+        private final int[] order, free;
+
+        private Query(int[] targets, int[] evidence) {
+            this.targets = targets;
+            this.evidence = evidence;
+
+            int n = model.getVariableCount();
+            BitSet relevant = new BitSet(n);
+            int[] stack = new int[n];
+            int top = 0;
+            for (int v = 0; v < n; v++)
+                if (evidence[v] != UNOBSERVED) {
+                    relevant.set(v);
+                    stack[top++] = v;
+                }
+            for (int t : targets)
+                if (!relevant.get(t)) {
+                    relevant.set(t);
+                    stack[top++] = t;
+                }
+            while (top > 0)
+                for (int parent : model.parents(stack[--top]))
+                    if (!relevant.get(parent)) {
+                        relevant.set(parent);
+                        stack[top++] = parent;
+                    }
+
+            order = new int[relevant.cardinality()];
+            int size = 0, freeSize = 0;
+            for (int v : model.topologicalOrder())
+                if (relevant.get(v)) {
+                    order[size++] = v;
+                    if (evidence[v] == UNOBSERVED)
+                        freeSize++;
+                }
+            free = new int[freeSize];
+            freeSize = 0;
+            for (int v : order)
+                if (evidence[v] == UNOBSERVED)
+                    free[freeSize++] = v;
+        }
+
+        /**
+         * @return the row of the table of a variable that matches the state of its parents
+         */
+        private int row(int v, byte[] state) {
+            int row = 0;
+            for (int p : model.parents(v))
+                row = row << 1 | state[p];
+            return row;
+        }
+
+        /**
+         * Draws the unobserved variables from their tables given their parents and fixes the observed ones.
+         *
+         * @return the probability of the evidence given its parents, which may stop at 0 before all
+         * variables are drawn
+         */
+        private double forward(SplittableRandom random, byte[] state) {
+            double weight = 1;
+            for (int v : order) {
+                double[] table = model.table(v);
+                int row = row(v, state) << 1;
+                if (evidence[v] == UNOBSERVED)
+                    state[v] = (byte) (random.nextDouble() < table[row | TRUE] ? TRUE : FALSE);
+                else {
+                    state[v] = (byte) evidence[v];
+                    weight *= table[row | evidence[v]];
+                    if (weight == 0)
+                        break;
+                }
+            }
+            return weight;
+        }
+
+        /**
+         * Draws samples by likelihood weighting. Every chunk sums, in this order, the weights, their squares,
+         * the weights of the samples in which every target is {@link main.Merger#TRUE} and their squares.
+         */
+        private Estimate likelihoodWeighting(long maxSamples, double maxError, ForkJoinPool pool) {
+            int t = targets.length;
+            SplittableRandom root = new SplittableRandom(seed);
+            double[][] sums = new double[CHUNKS][2 + 2 * t];
+            double[] total = new double[2 + 2 * t];
+            double[] probabilities = new double[t], errors = new double[t];
+            Arrays.fill(probabilities, Double.NaN);
+            Arrays.fill(errors, Double.NaN);
+
+            for (long samples = 0; samples < maxSamples; ) {
+                long round = Math.min(ROUND, maxSamples - samples);
+                int[] sizes = chunkSizes(round);
+                SplittableRandom[] randoms = new SplittableRandom[CHUNKS];
+                for (int i = 0; i < CHUNKS; i++)
+                    randoms[i] = root.split();
+
+                forEachChunk(i -> {
+                    double[] sum = sums[i];
+                    Arrays.fill(sum, 0);
+                    byte[] state = new byte[model.getVariableCount()];
+                    for (int s = 0; s < sizes[i]; s++) {
+                        double weight = forward(randoms[i], state);
+                        if (weight == 0)
+                            continue;
+                        double square = weight * weight;
+                        sum[0] += weight;
+                        sum[1] += square;
+                        for (int j = 0; j < t; j++)
+                            if (state[targets[j]] == TRUE) {
+                                sum[2 + j] += weight;
+                                sum[2 + t + j] += square;
+                            }
+                    }
+                }, pool);
+
+                for (double[] sum : sums)
+                    for (int k = 0; k < total.length; k++)
+                        total[k] += sum[k];
+                samples += round;
+
+                // The variance of a ratio estimator: sum of w^2 (x - p)^2 over the square of the sum of w.
+                boolean converged = total[0] > 0;
+                for (int j = 0; j < t && total[0] > 0; j++) {
+                    double p = total[2 + j] / total[0];
+                    double variance = (total[2 + t + j] * (1 - 2 * p) + p * p * total[1]) / (total[0] * total[0]);
+                    probabilities[j] = p;
+                    errors[j] = Math.sqrt(Math.max(0, variance));
+                    converged &= errors[j] <= maxError;
+                }
+                if (converged || samples == maxSamples)
+                    return new Estimate(probabilities, errors, samples, converged);
+            }
+            return new Estimate(probabilities, errors, 0, false);
+        }
+
+        /**
+         * Draws samples by Gibbs sampling, with one chain per chunk. The standard error is estimated from the
+         * spread of the means of the independent chains, so it accounts for the correlation within a chain.
+         */
+        private Estimate gibbs(long maxSamples, double maxError, ForkJoinPool pool) {
+            int t = targets.length, n = model.getVariableCount();
+
+            // The Markov blanket of a free variable: its relevant children, which hold it at some bit of their rows.
+            BitSet relevant = new BitSet(n);
+            for (int v : order)
+                relevant.set(v);
+            int[][] blanket = new int[n][], shifts = new int[n][];
+            for (int v : free) {
+                int[] children = model.children(v);
+                int count = 0;
+                for (int c : children)
+                    if (relevant.get(c))
+                        count++;
+                blanket[v] = new int[count];
+                shifts[v] = new int[count];
+                count = 0;
+                for (int c : children)
+                    if (relevant.get(c)) {
+                        int[] parents = model.parents(c);
+                        int j = 0;
+                        while (parents[j] != v)
+                            j++;
+                        blanket[v][count] = c;
+                        // The result is bit 0 of the index, and the first parent its highest bit.
+                        shifts[v][count++] = parents.length - j;
+                    }
+            }
+
+            SplittableRandom root = new SplittableRandom(seed);
+            SplittableRandom[] randoms = new SplittableRandom[CHUNKS];
+            for (int i = 0; i < CHUNKS; i++)
+                randoms[i] = root.split();
+            byte[][] states = new byte[CHUNKS][n];
+            long[] sweeps = new long[CHUNKS];
+            long[][] counts = new long[CHUNKS][t];
+
+            forEachChunk(i -> {
+                int attempt = 0;
+                while (forward(randoms[i], states[i]) == 0)
+                    if (++attempt == ATTEMPTS)
+                        throw new IllegalArgumentException("No state consistent with the evidence was found in "
+                                + ATTEMPTS + " samples");
+                for (int s = 0; s < burnIn; s++)
+                    sweep(randoms[i], states[i], blanket, shifts);
+            }, pool);
+
+            double[] probabilities = new double[t], errors = new double[t];
+            Arrays.fill(probabilities, Double.NaN);
+            Arrays.fill(errors, Double.NaN);
+            for (long samples = 0; samples < maxSamples; ) {
+                long round = Math.min(ROUND, maxSamples - samples);
+                int[] sizes = chunkSizes(round);
+                forEachChunk(i -> {
+                    for (int s = 0; s < sizes[i]; s++) {
+                        sweep(randoms[i], states[i], blanket, shifts);
+                        for (int j = 0; j < t; j++)
+                            if (states[i][targets[j]] == TRUE)
+                                counts[i][j]++;
+                    }
+                    sweeps[i] += sizes[i];
+                }, pool);
+                samples += round;
+
+                boolean converged = true;
+                for (int j = 0; j < t; j++) {
+                    int chains = 0;
+                    long hits = 0;
+                    double mean = 0;
+                    for (int i = 0; i < CHUNKS; i++)
+                        if (sweeps[i] > 0) {
+                            chains++;
+                            hits += counts[i][j];
+                            mean += (double) counts[i][j] / sweeps[i];
+                        }
+                    mean /= chains;
+                    double spread = 0;
+                    for (int i = 0; i < CHUNKS; i++)
+                        if (sweeps[i] > 0) {
+                            double d = (double) counts[i][j] / sweeps[i] - mean;
+                            spread += d * d;
+                        }
+                    probabilities[j] = (double) hits / samples;
+                    errors[j] = chains > 1 ? Math.sqrt(spread / ((double) chains * (chains - 1))) : Double.NaN;
+                    converged &= errors[j] <= maxError;
+                }
+                if (converged || samples == maxSamples)
+                    return new Estimate(probabilities, errors, samples, converged);
+            }
+            return new Estimate(probabilities, errors, 0, false);
+        }
+
+        /**
+         * Resamples every free variable from its distribution given its Markov blanket. A variable whose
+         * distribution underflows keeps its value.
+         */
+        private void sweep(SplittableRandom random, byte[] state, int[][] blanket, int[][] shifts) {
+            for (int v : free) {
+                double[] table = model.table(v);
+                int row = row(v, state) << 1;
+                double pTrue = table[row | TRUE], pFalse = table[row | FALSE];
+                int[] children = blanket[v], shift = shifts[v];
+                for (int k = 0; k < children.length; k++) {
+                    int c = children[k], index = row(c, state) << 1 | state[c], bit = 1 << shift[k];
+                    double[] childTable = model.table(c);
+                    pTrue *= childTable[index & ~bit];
+                    pFalse *= childTable[index | bit];
+                }
+                double sum = pTrue + pFalse;
+                if (sum > 0)
+                    state[v] = (byte) (random.nextDouble() * sum < pTrue ? TRUE : FALSE);
+            }
+        }
+    }
+}
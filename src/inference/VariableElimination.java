@@ -0,0 +1,207 @@
+package inference;
+
+import inference.EliminationOrder.Heuristic;
+import org.encog.ml.bayesian.BayesianNetwork;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+import static inference.Model.UNOBSERVED;
+import static main.Merger.TRUE;
+
+/**
+ * Exact inference by variable elimination, for marginal and conditional queries on networks such as the ones
+ * created by {@link main.Merger}.
+ * <p>
+ * A query only looks at the target, the observed variables and their ancestors, as all other variables
+ * sum out to 1. The evidence is entered into the factors of the Conditional Probability Tables first,
+ * then the other variables are eliminated in the order chosen by an {@link EliminationOrder.Heuristic}.
+ * Factors are flat arrays, multiplied and marginalized with strides, and the arrays of intermediate factors
+ * are recycled between queries, so a warmed-up engine barely allocates.
+ * <p>
+ * An engine is not thread-safe, but any number of engines can share the same {@link Model}.
+ *
+ * @version 1.0
+ */
+public class VariableElimination {
+
+    private final Model model;
+    private final Heuristic heuristic;
+    private final BufferPool pool = new BufferPool();
+
+    /**
+     * Creates an engine for the given network that eliminates variables in {@link Heuristic#MIN_FILL} order.
+     *
+     * @param net the {@link BayesianNetwork}, whose events must all be boolean
+     * @throws IllegalArgumentException if an event is not boolean, a row of a table is missing
+     *                                  or the network has a cycle
+     */
+    public VariableElimination(BayesianNetwork net) {
+        this(new Model(net), Heuristic.MIN_FILL);
+    }
+
+    /**
+     * @param model     the model of the network
+     * @param heuristic the score by which the next variable to eliminate is chosen
+     */
+    public VariableElimination(Model model, Heuristic heuristic) {
+        this.model = model;
+        this.heuristic = heuristic;
+    }
+
+    public Model getModel() {
+        return model;
+    }
+
+    /**
+     * Computes the probability that an event is {@link main.Merger#TRUE}, given the values of other events.
+     *
+     * @param target   the label of the event
+     * @param evidence the observed value of each observed event, true for {@link main.Merger#TRUE}
+     * @return the conditional probability of the target given the evidence
+     * @throws IllegalArgumentException if an event is not in the network or the evidence is impossible
+     */
+    public double probability(String target, Map<String, Boolean> evidence) {
+        return marginal(model.getIndex(target), model.evidence(evidence))[TRUE];
+    }
+
+    /**
+     * Computes the distribution of a variable, given the values of other variables.
+     *
+     * @param target   the index of the variable
+     * @param evidence the value of every variable, see {@link Model}
+     * @return the probabilities of the target being {@link main.Merger#TRUE} and {@link main.Merger#FALSE},
+     * or its observed value with probability 1 if it is observed
+     * @throws IllegalArgumentException if the evidence is impossible
+     * @throws IllegalStateException    if an intermediate factor is too large
+     */
+    public double[] marginal(int target, int[] evidence) {
+        double[] result = new double[2];
+        if (evidence[target] != UNOBSERVED) {
+            result[evidence[target]] = 1;
+            return result;
+        }
+
+        // Only the target, the observed variables and their ancestors are relevant.
+        int n = model.getVariableCount();
+        BitSet relevant = new BitSet(n);
+        int[] stack = new int[n];
+        int top = 0;
+        relevant.set(target);
+        stack[top++] = target;
+        for (int v = 0; v < n; v++)
+            if (evidence[v] != UNOBSERVED && !relevant.get(v)) {
+                relevant.set(v);
+                stack[top++] = v;
+            }
+        while (top > 0)
+            for (int parent : model.parents(stack[--top]))
+                if (!relevant.get(parent)) {
+                    relevant.set(parent);
+                    stack[top++] = parent;
+                }
+
+        // Enter the evidence and build the interaction graph of what is left.
+        List<Factor> factors = new ArrayList<>();
+        BitSet[] graph = new BitSet[n];
+        BitSet eliminated = new BitSet(n);
+        for (int v = relevant.nextSetBit(0); v >= 0; v = relevant.nextSetBit(v + 1)) {
+            graph[v] = new BitSet();
+            if (v != target && evidence[v] == UNOBSERVED)
+                eliminated.set(v);
+        }
+        // Constants cancel out in the normalization, unless one of them is 0 and the evidence is impossible.
+        boolean possible = true;
+        for (int v = relevant.nextSetBit(0); v >= 0; v = relevant.nextSetBit(v + 1)) {
+            Factor f = reduce(model.factor(v), evidence);
+            if (f.vars.length == 0) {
+                possible &= f.values[0] > 0;
+                pool.give(f);
+                continue;
+            }
+            factors.add(f);
+            for (int a : f.vars)
+                for (int b : f.vars)
+                    if (a != b)
+                        graph[a].set(b);
+        }
+
+        Factor[] bucket = new Factor[factors.size()];
+        BitSet scope = new BitSet(n);
+        for (int v : new EliminationOrder(graph, eliminated, heuristic).order()) {
+            int count = 0;
+            scope.clear();
+            for (int i = factors.size() - 1; i >= 0; i--) {
+                Factor f = factors.get(i);
+                if (f.position(v) < 0)
+                    continue;
+                bucket[count++] = f;
+                for (int var : f.vars)
+                    scope.set(var);
+                factors.set(i, factors.get(factors.size() - 1));
+                factors.remove(factors.size() - 1);
+            }
+            Factor f = eliminate(bucket, count, scope.stream().toArray(), v);
+            if (f.vars.length > 0)
+                factors.add(f);
+            else {
+                possible &= f.values[0] > 0;
+                pool.give(f);
+            }
+        }
+
+        Factor.multiply(factors.toArray(bucket), factors.size(), new int[]{target}, result);
+        for (Factor f : factors)
+            pool.give(f);
+        double sum = result[0] + result[1];
+        if (!possible || !(sum > 0))
+            throw new IllegalArgumentException("The evidence is impossible");
+        result[0] /= sum;
+        result[1] /= sum;
+        return result;
+    }
+
+    /**
+     * Fixes the values of the observed variables of a factor.
+     *
+     * @return a factor over the unobserved variables of the given factor
+     */
+    private Factor reduce(Factor f, int[] evidence) {
+        for (int j = f.vars.length - 1; j >= 0; j--) {
+            int value = evidence[f.vars[j]];
+            if (value == UNOBSERVED)
+                continue;
+            double[] out = pool.take(f.vars.length - 1);
+            Factor.restrict(f.values, f.vars.length, j, value, out);
+            pool.give(f);
+            f = new Factor(Factor.without(f.vars, j), out, true);
+        }
+        return f;
+    }
+
+    /**
+     * Multiplies the given factors and sums out the given variable.
+     *
+     * @param bucket the factors that contain the variable
+     * @param count  the number of factors in the bucket
+     * @param scope  all the variables of the factors, in ascending order
+     * @param v      the variable to sum out
+     * @return the resulting factor, which is a constant if the variable was its only variable
+     */
+    private Factor eliminate(Factor[] bucket, int count, int[] scope, int v) {
+        double[] product = pool.take(scope.length);
+        Factor.multiply(bucket, count, scope, product);
+        for (int i = 0; i < count; i++)
+            pool.give(bucket[i]);
+
+        int position = 0;
+        while (scope[position] != v)
+            position++;
+        double[] out = pool.take(scope.length - 1);
+        Factor.sumOut(product, scope.length, position, out);
+        pool.give(product);
+        return new Factor(Factor.without(scope, position), out, true);
+    }
+}
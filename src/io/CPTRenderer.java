@@ -0,0 +1,207 @@
+package io;
+
+import org.encog.ml.bayesian.BayesianEvent;
+import org.encog.ml.bayesian.table.TableLine;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.List;
+
+import static main.Merger.FALSE;
+import static main.Merger.TRUE;
+
+/**
+ * Renders the Conditional Probability Table of a {@link BayesianEvent} as text, in the format printed by
+ * {@link main.Prob}: the label of the event, the labels of its parents and, for every row,
+ * the values of the parents followed by the probabilities of the event being true and false.
+ * <p>
+ * The text is streamed line by line to an {@link Appendable}, such as a buffered {@link java.io.Writer},
+ * and probabilities are formatted by hand instead of with {@link String#format(String, Object...)},
+ * so rendering a table of any size only takes constant memory.
+ * The number of rendered rows can be limited, and a summary of the table can be rendered instead of its rows:
+ * its number of lines, the smallest and largest probability of the event being true and the mean entropy of
+ * its rows.
+ *
+ * @version 1.0
+ */
+public class CPTRenderer {
+
+    private static final long[] POWERS_OF_TEN = new long[16];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++)
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+
+    /**
+     * Renders all rows with two decimals, like {@link main.Prob} always did.
+     */
+    public static final CPTRenderer DEFAULT = new CPTRenderer(2, Long.MAX_VALUE, false);
+
+    private final int precision;
+    private final long rowLimit;
+    private final boolean summary;
+
+    /**
+     * @param precision the number of decimals of the probabilities, from 0 to 15
+     * @param rowLimit  the largest number of rows to render; the number of rows left out is rendered instead
+     * @param summary   whether to render a summary of the table instead of its rows
+     * @throws IllegalArgumentException if the precision or the row limit is out of range
+     */
+    public CPTRenderer(int precision, long rowLimit, boolean summary) {
+        if (precision < 0 || precision >= POWERS_OF_TEN.length)
+            throw new IllegalArgumentException("The precision must be between 0 and " + (POWERS_OF_TEN.length - 1));
+        if (rowLimit < 0)
+            throw new IllegalArgumentException("The row limit must not be negative");
+        this.precision = precision;
+        this.rowLimit = rowLimit;
+        this.summary = summary;
+    }
+
+    /**
+     * Renders the table of the given event into a {@link String}. Only meant for small tables.
+     *
+     * @param e the {@link BayesianEvent} whose table to render
+     * @return the rendered table
+     */
+    public String toString(BayesianEvent e) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            render(e, sb);
+        }
+        catch (IOException ex) {
+            // A StringBuilder never throws.
+            throw new UncheckedIOException(ex);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Renders the table of the given event.
+     *
+     * @param e   the {@link BayesianEvent} whose table to render
+     * @param out where to write the text
+     * @throws IOException if the text cannot be written
+     */
+    public void render(BayesianEvent e, Appendable out) throws IOException {
+        out.append(e.getLabel()).append('\n');
+
+        List<BayesianEvent> parents = e.getParents();
+        if (!parents.isEmpty()) {
+            for (int i = 0; i < parents.size(); i++)
+                (i == 0 ? out : out.append(", ")).append(parents.get(i).getLabel());
+            out.append('\n');
+        }
+
+        if (summary)
+            renderSummary(e.getTable().getLines(), out);
+        else
+            renderRows(e.getTable().getLines(), out);
+    }
+
+    private void renderRows(List<TableLine> lines, Appendable out) throws IOException {
+        long rows = 0;
+        for (TableLine line : lines) {
+            if (line.getResult() == FALSE)
+                continue;
+            if (rows++ >= rowLimit)
+                continue;
+
+            int[] args = line.getArguments();
+            if (args.length > 0) {
+                for (int i = 0; i < args.length; i++)
+                    out.append(args[i] == TRUE ? "True" : "False").append(i < args.length - 1 ? ", " : " ");
+                out.append('\t');
+            }
+            appendFixed(out, line.getProbability(), precision);
+            out.append(' ');
+            appendFixed(out, 1 - line.getProbability(), precision);
+            out.append('\n');
+        }
+        if (rows > rowLimit)
+            out.append("... ").append(Long.toString(rows - rowLimit)).append(" more rows\n");
+    }
+
+    private void renderSummary(List<TableLine> lines, Appendable out) throws IOException {
+        long rows = 0;
+        double min = Double.NaN, max = Double.NaN, entropy = 0;
+        for (TableLine line : lines) {
+            if (line.getResult() == FALSE)
+                continue;
+            double p = line.getProbability();
+            min = rows == 0 ? p : Math.min(min, p);
+            max = rows == 0 ? p : Math.max(max, p);
+            entropy += entropy(p) + entropy(1 - p);
+            rows++;
+        }
+
+        out.append(Integer.toString(lines.size())).append(" lines, P(True) min ");
+        appendFixed(out, min, precision);
+        out.append(" max ");
+        appendFixed(out, max, precision);
+        out.append(", mean entropy ");
+        appendFixed(out, rows == 0 ? Double.NaN : entropy / rows, precision);
+        out.append(" bits\n");
+    }
+
+    /**
+     * @return the contribution of an outcome of the given probability to the entropy of a row, in bits
+     */
+    private static double entropy(double p) {
+        return p > 0 ? -p * Math.log(p) / Math.log(2) : 0;
+    }
+
+    /**
+     * Appends a number with a fixed number of decimals, rounded half up like {@link String#format(String, Object...)}
+     * with {@code %.nf}, and with a '.' as the decimal separator whatever the default locale.
+     * Like there, ties are decided on the shortest decimal representation of the number,
+     * so 1.005 is rounded up to 1.01 even though the closest double is slightly below 1.005.
+     *
+     * @param out       where to write the number
+     * @param value     the number
+     * @param precision the number of decimals, from 0 to 15
+     * @throws IOException if the number cannot be written
+     */
+    public static void appendFixed(Appendable out, double value, int precision) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            out.append(Double.toString(value));
+            return;
+        }
+        long scale = POWERS_OF_TEN[precision];
+        double scaled = Math.abs(value) * scale;
+        if (scaled >= 1e15) {
+            out.append(new BigDecimal(Double.toString(value)).setScale(precision, RoundingMode.HALF_UP).toPlainString());
+            return;
+        }
+
+        long units = (long) scaled;
+        double fraction = scaled - units;
+        if (Math.abs(fraction - 0.5) <= 4 * Math.ulp(scaled))
+            // Too close to a tie to tell from the binary value, which is rare enough to afford a BigDecimal.
+            units = new BigDecimal(Double.toString(Math.abs(value))).setScale(precision, RoundingMode.HALF_UP)
+                    .unscaledValue().longValue();
+        else if (fraction > 0.5)
+            units++;
+        if (value < 0 || (value == 0 && 1 / value < 0))
+            out.append('-');
+        appendDigits(out, units / scale, 1);
+        if (precision > 0) {
+            out.append('.');
+            appendDigits(out, units % scale, precision);
+        }
+    }
+
+    /**
+     * Appends a non-negative number with at least the given number of digits, padded with leading zeros.
+     */
+    private static void appendDigits(Appendable out, long value, int digits) throws IOException {
+        int length = 1;
+        while (length < POWERS_OF_TEN.length && POWERS_OF_TEN[length] <= value)
+            length++;
+        for (int i = Math.max(length, digits) - 1; i >= 0; i--)
+            out.append((char) ('0' + value / POWERS_OF_TEN[i] % 10));
+    }
+}
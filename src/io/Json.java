@@ -0,0 +1,260 @@
+package io;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal reader and writer of JSON, for the single-line messages of {@link main.Daemon}.
+ * <p>
+ * Values are read into plain Java objects: objects into {@link Map}s that keep the order of their members,
+ * arrays into {@link List}s, strings into {@link String}s, numbers into {@link Double}s, booleans into
+ * {@link Boolean}s and null into null. Only strings are written, since messages are built by appending
+ * their members.
+ *
+ * @version 1.0
+ */
+public final class Json {
+
+    private final String text;
+    private int at;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    /**
+     * Reads a JSON value.
+     *
+     * @param text the text of the value, which may be surrounded by white space
+     * @return the value, as described above
+     * @throws IllegalArgumentException if the text is not a single valid JSON value
+     */
+    public static Object parse(String text) {
+        Json json = new Json(text);
+        Object value = json.value();
+        json.skipWhiteSpace();
+        if (json.at < text.length())
+            throw json.error("Unexpected text after the value");
+        return value;
+    }
+
+    /**
+     * Reads a JSON object.
+     *
+     * @param text the text of the object
+     * @return its members by name
+     * @throws IllegalArgumentException if the text is not a valid JSON object
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> parseObject(String text) {
+        Object value = parse(text);
+        if (!(value instanceof Map))
+            throw new IllegalArgumentException("Not a JSON object");
+        return (Map<String, Object>) value;
+    }
+
+    /**
+     * Appends a string as a quoted JSON string.
+     *
+     * @param sb    where to append the string
+     * @param value the string, or null for a JSON null
+     * @return the given {@link StringBuilder}
+     */
+    public static StringBuilder quote(StringBuilder sb, String value) {
+        if (value == null)
+            return sb.append("null");
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20)
+                        sb.append(String.format("\\u%04x", (int) c));
+                    else
+                        sb.append(c);
+            }
+        }
+        return sb.append('"');
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + at);
+    }
+
+    private void skipWhiteSpace() {
+        while (at < text.length() && " \t\r\n".indexOf(text.charAt(at)) >= 0)
+            at++;
+    }
+
+    private char peek() {
+        skipWhiteSpace();
+        if (at == text.length())
+            throw error("Unexpected end of the text");
+        return text.charAt(at);
+    }
+
+    private void expect(char c) {
+        if (peek() != c)
+            throw error("Expected '" + c + "'");
+        at++;
+    }
+
+    private Object value() {
+        char c = peek();
+        switch (c) {
+            case '{':
+                return object();
+            case '[':
+                return array();
+            case '"':
+                return string();
+            case 't':
+                return literal("true", Boolean.TRUE);
+            case 'f':
+                return literal("false", Boolean.FALSE);
+            case 'n':
+                return literal("null", null);
+            default:
+                if (c == '-' || (c >= '0' && c <= '9'))
+                    return number();
+                throw error("Unexpected character '" + c + "'");
+        }
+    }
+
+    private Map<String, Object> object() {
+        expect('{');
+        Map<String, Object> members = new LinkedHashMap<>();
+        if (peek() == '}') {
+            at++;
+            return members;
+        }
+        do {
+            if (peek() != '"')
+                throw error("Expected the name of a member");
+            String name = string();
+            expect(':');
+            members.put(name, value());
+        } while (next('}'));
+        return members;
+    }
+
+    private List<Object> array() {
+        expect('[');
+        List<Object> elements = new ArrayList<>();
+        if (peek() == ']') {
+            at++;
+            return elements;
+        }
+        do {
+            elements.add(value());
+        } while (next(']'));
+        return elements;
+    }
+
+    /**
+     * Reads the separator after a member or an element.
+     *
+     * @return true if another one follows, false if the given closing character ends the object or array
+     */
+    private boolean next(char close) {
+        char c = peek();
+        at++;
+        if (c == ',')
+            return true;
+        if (c == close)
+            return false;
+        at--;
+        throw error("Expected ',' or '" + close + "'");
+    }
+
+    private String string() {
+        at++;  // The opening quote
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            if (at >= text.length())
+                throw error("Unterminated string");
+            char c = text.charAt(at++);
+            if (c == '"')
+                return sb.toString();
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (at >= text.length())
+                throw error("Unterminated string");
+            c = text.charAt(at++);
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    sb.append(c);
+                    break;
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'u':
+                    if (at + 4 > text.length())
+                        throw error("Invalid escape");
+                    try {
+                        sb.append((char) Integer.parseInt(text.substring(at, at + 4), 16));
+                    }
+                    catch (NumberFormatException e) {
+                        throw error("Invalid escape");
+                    }
+                    at += 4;
+                    break;
+                default:
+                    throw error("Invalid escape '\\" + c + "'");
+            }
+        }
+    }
+
+    private Object literal(String word, Object value) {
+        if (!text.startsWith(word, at))
+            throw error("Unexpected text");
+        at += word.length();
+        return value;
+    }
+
+    private Double number() {
+        int start = at;
+        while (at < text.length() && "+-0123456789.eE".indexOf(text.charAt(at)) >= 0)
+            at++;
+        try {
+            return Double.valueOf(text.substring(start, at));
+        }
+        catch (NumberFormatException e) {
+            at = start;
+            throw error("Invalid number");
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package io;
+
+import cpt.BufferCPT;
+import cpt.CPT;
+import cpt.CPTSource;
+import cpt.DenseCPT;
+import org.encog.ml.bayesian.BayesianChoice;
+import org.encog.ml.bayesian.BayesianEvent;
+import org.encog.ml.bayesian.BayesianNetwork;
+import org.encog.ml.bayesian.table.TableLine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static main.Merger.FALSE;
+import static main.Merger.TRUE;
+
+/**
+ * A compact, versioned binary snapshot of a {@link BayesianNetwork}, read through memory-mapped files.
+ * <p>
+ * All numbers are little-endian. The file starts with a header:
+ * <pre>
+ * int    magic, the bytes "BNSN"
+ * int    version, currently 1
+ * int    number of events
+ * for each event:
+ *     string label, string first outcome, string second outcome
+ *     int    number of parents, followed by the index of each parent
+ * </pre>
+ * where a string is an int byte length followed by UTF-8 bytes.
+ * The header is padded to a multiple of 8 bytes and followed by the Conditional Probability Table of each event,
+ * in the order of the events. Each table is a contiguous block of {@code 2 << parents} doubles, in the layout of a
+ * {@link DenseCPT}, where {@link Double#NaN} marks a missing line.
+ * <p>
+ * Loading a snapshot only reads the header. The tables are mapped, not read, so large tables are paged in
+ * only when they are accessed, and {@link NetworkSnapshot#getCPT(String)} returns views that are never copied
+ * onto the heap. A snapshot can be merged without building encog objects for its tables,
+ * see {@link main.Merger#merge(NetworkSnapshot, NetworkSnapshot)}.
+ *
+ * @version 1.1
+ */
+public class NetworkSnapshot implements CPTSource {
+
+    /**
+     * The bytes "BNSN", read as a little-endian int.
+     */
+    private static final int MAGIC = 0x4E534E42;
+    private static final int VERSION = 1;
+    /**
+     * The largest number of bytes mapped at once. Tables are grouped into mappings of at most this size.
+     */
+    private static final long MAX_MAPPING = 1 << 30;
+
+    /**
+     * Writes a snapshot of the given network to the file at the given path, overwriting it if it exists.
+     * The tables are streamed through a small direct buffer.
+     *
+     * @param net  the {@link BayesianNetwork} to write, whose events must all be boolean
+     * @param path the path of the file
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(BayesianNetwork net, Path path) throws IOException {
+        List<BayesianEvent> events = net.getEvents();
+        Map<BayesianEvent, Integer> indices = new HashMap<>();
+        for (int i = 0; i < events.size(); i++)
+            indices.put(events.get(i), i);
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            long position = 0;
+
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(events.size());
+            position += 12;
+            for (BayesianEvent e : events) {
+                if (e.getChoices().size() != 2)
+                    throw new IOException("Event \"" + e.getLabel() + "\" is not boolean");
+
+                position += putString(channel, buffer, e.getLabel());
+                for (BayesianChoice choice : e.getChoices())
+                    position += putString(channel, buffer, choice.getLabel());
+                position += putInt(channel, buffer, e.getParents().size());
+                for (BayesianEvent parent : e.getParents())
+                    position += putInt(channel, buffer, indices.get(parent));
+            }
+            for (; position % Double.BYTES != 0; position++) {
+                ensureRemaining(channel, buffer, 1);
+                buffer.put((byte) 0);
+            }
+
+            for (BayesianEvent e : events)
+                putTable(channel, buffer, e);
+            flush(channel, buffer);
+        }
+    }
+
+    /**
+     * Writes the table of the given event in the layout of a {@link DenseCPT}.
+     * Tables whose lines are already in that order are streamed straight from their lines.
+     */
+    private static void putTable(FileChannel channel, ByteBuffer buffer, BayesianEvent e) throws IOException {
+        List<TableLine> lines = e.getTable().getLines();
+        if (CPT.isInTableOrder(lines, e.getParents().size())) {
+            for (TableLine line : lines)
+                putDouble(channel, buffer, line.getProbability());
+            return;
+        }
+
+        DenseCPT cpt = DenseCPT.of(e);
+        for (int row = 0; row < cpt.getRowCount(); row++) {
+            putDouble(channel, buffer, cpt.get(row, TRUE));
+            putDouble(channel, buffer, cpt.get(row, FALSE));
+        }
+    }
+
+    private static int putString(FileChannel channel, ByteBuffer buffer, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        putInt(channel, buffer, bytes.length);
+        for (int offset = 0; offset < bytes.length; ) {
+            ensureRemaining(channel, buffer, 1);
+            int length = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, length);
+            offset += length;
+        }
+        return Integer.BYTES + bytes.length;
+    }
+
+    private static int putInt(FileChannel channel, ByteBuffer buffer, int i) throws IOException {
+        ensureRemaining(channel, buffer, Integer.BYTES);
+        buffer.putInt(i);
+        return Integer.BYTES;
+    }
+
+    private static void putDouble(FileChannel channel, ByteBuffer buffer, double d) throws IOException {
+        ensureRemaining(channel, buffer, Double.BYTES);
+        buffer.putDouble(d);
+    }
+
+    private static void ensureRemaining(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() < bytes)
+            flush(channel, buffer);
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Loads the snapshot in the file at the given path.
+     * Only the header is read, the tables are mapped and paged in when they are accessed.
+     *
+     * @param path the path of the file
+     * @return the loaded {@link NetworkSnapshot}
+     * @throws IOException if the file cannot be read or is not a valid snapshot
+     */
+    public static NetworkSnapshot load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new NetworkSnapshot(channel);
+        }
+    }
+
+    /**
+     * The labels and outcomes of the events, in the order of the snapshot.
+     */
+    private final String[] labels, trueOutcomes, falseOutcomes;
+    /**
+     * The indices of the parents of each event.
+     */
+    private final int[][] parents;
+    /**
+     * The index of each event, by its label.
+     */
+    private final Map<String, Integer> indices = new HashMap<>();
+    /**
+     * A read-only view of the table of each event.
+     */
+    private final BufferCPT[] tables;
+
+    /**
+     * Reads the header from the given channel and maps the tables.
+     *
+     * @param channel the channel of the snapshot file
+     * @throws IOException if the file cannot be read or is not a valid snapshot
+     */
+    private NetworkSnapshot(FileChannel channel) throws IOException {
+        long size = channel.size();
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, MAX_MAPPING));
+        header.order(ByteOrder.LITTLE_ENDIAN);
+
+        try {
+            if (header.getInt() != MAGIC)
+                throw new IOException("Not a network snapshot");
+            int version = header.getInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported snapshot version " + version);
+
+            int events = header.getInt();
+            if (events < 0)
+                throw new IOException("Corrupt snapshot header: " + events + " events");
+            labels = new String[events];
+            trueOutcomes = new String[events];
+            falseOutcomes = new String[events];
+            parents = new int[events][];
+            for (int i = 0; i < events; i++) {
+                labels[i] = getString(header);
+                trueOutcomes[i] = getString(header);
+                falseOutcomes[i] = getString(header);
+                int parentCount = header.getInt();
+                if (parentCount < 0 || parentCount > CPT.MAX_PARENTS)
+                    throw new IOException("Corrupt snapshot header: \"" + labels[i] + "\" has " + parentCount
+                            + " parents");
+                parents[i] = new int[parentCount];
+                for (int j = 0; j < parentCount; j++) {
+                    parents[i][j] = header.getInt();
+                    if (parents[i][j] < 0 || parents[i][j] >= events)
+                        throw new IOException("Corrupt snapshot header: \"" + labels[i] + "\" has parent "
+                                + parents[i][j] + " of " + events + " events");
+                }
+                indices.put(labels[i], i);
+            }
+        }
+        catch (RuntimeException e) {
+            throw new IOException("Corrupt snapshot header", e);
+        }
+
+        tables = new BufferCPT[labels.length];
+        mapTables(channel, (header.position() + Double.BYTES - 1) / Double.BYTES * Double.BYTES, size);
+    }
+
+    /**
+     * Maps the tables in groups of consecutive tables of at most {@link NetworkSnapshot#MAX_MAPPING} bytes,
+     * so that files of any size can be mapped with few mappings.
+     *
+     * @param channel the channel of the snapshot file
+     * @param start   the position of the first table
+     * @param size    the size of the file
+     * @throws IOException if the file is too small or a table is too large to be mapped
+     */
+    private void mapTables(FileChannel channel, long start, long size) throws IOException {
+        int first = 0;
+        long mappingStart = start, mappingEnd = start;
+        for (int i = 0; i <= labels.length; i++) {
+            long tableBytes = i < labels.length ? (2L << parents[i].length) * Double.BYTES : 0;
+            if (i < labels.length && tableBytes > MAX_MAPPING)
+                throw new IOException("The table of \"" + labels[i] + "\" is too large to be mapped");
+
+            if (i == labels.length || mappingEnd + tableBytes - mappingStart > MAX_MAPPING) {
+                if (mappingEnd > size)
+                    throw new IOException("Truncated snapshot");
+                MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, mappingStart,
+                        mappingEnd - mappingStart);
+                mapping.order(ByteOrder.LITTLE_ENDIAN);
+
+                long offset = 0;
+                for (int j = first; j < i; j++) {
+                    int length = (2 << parents[j].length) * Double.BYTES;
+                    ByteBuffer table = mapping.duplicate();
+                    table.position((int) offset).limit((int) offset + length);
+                    tables[j] = new BufferCPT(parents[j].length,
+                            table.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer());
+                    offset += length;
+                }
+                first = i;
+                mappingStart = mappingEnd;
+            }
+            mappingEnd += tableBytes;
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public int getEventCount() {
+        return labels.length;
+    }
+
+    public String getLabel(int event) {
+        return labels[event];
+    }
+
+    /**
+     * @param event the index of an event
+     * @return the indices of the parents of the event
+     */
+    public int[] getParents(int event) {
+        return parents[event].clone();
+    }
+
+    /**
+     * @param label the label of an event
+     * @return a read-only view of the mapped table of the event, or null if there is no such event
+     */
+    @Override
+    public CPT getCPT(String label) {
+        Integer i = indices.get(label);
+        return i == null ? null : tables[i];
+    }
+
+    /**
+     * Creates a {@link BayesianNetwork} with the events and dependencies in the snapshot.
+     * Its structure is finalized, but its Conditional Probability Tables are empty.
+     *
+     * @return the structure of the network
+     */
+    public BayesianNetwork createStructure() {
+        BayesianNetwork net = new BayesianNetwork();
+        List<BayesianEvent> events = new ArrayList<>(labels.length);
+        for (int i = 0; i < labels.length; i++)
+            events.add(net.createEvent(labels[i], trueOutcomes[i], falseOutcomes[i]));
+        for (int i = 0; i < labels.length; i++)
+            for (int parent : parents[i])
+                net.createDependency(events.get(parent), events.get(i));
+        net.finalizeStructure();
+        return net;
+    }
+
+    /**
+     * Creates a {@link BayesianNetwork} with everything in the snapshot, including the tables.
+     * This copies every table into encog objects; use the snapshot as a {@link CPTSource} to avoid that.
+     *
+     * @return the network
+     */
+    public BayesianNetwork toNetwork() {
+        BayesianNetwork net = createStructure();
+        for (int i = 0; i < labels.length; i++)
+            tables[i].writeTo(net.getEvent(labels[i]));
+        return net;
+    }
+}
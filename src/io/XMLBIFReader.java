@@ -0,0 +1,362 @@
+package io;
+
+import cpt.CPT;
+import cpt.DenseCPT;
+import org.encog.ml.bayesian.BayesianEvent;
+import org.encog.ml.bayesian.BayesianNetwork;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads {@link BayesianNetwork}s from XMLBIF 0.3 files, such as the ones exported by the AIspace belief network tool.
+ * <p>
+ * The file is read with a streaming (StAX) parser, so no DOM is ever built.
+ * The numbers of each TABLE element are parsed as they are streamed, straight into a {@link DenseCPT},
+ * whose layout is the same as the one of the TABLE.
+ * Gzip-compressed files are detected by their header and decompressed on the fly.
+ * <p>
+ * Only variables with exactly two outcomes are supported. The first outcome is {@link main.Merger#TRUE}.
+ * A DEFINITION without a TABLE gives its variable its parents, but no lines, like a variable without a DEFINITION.
+ *
+ * @version 1.1
+ */
+public class XMLBIFReader {
+
+    /**
+     * The first two bytes of every gzip stream.
+     */
+    private static final int GZIP_MAGIC_1 = 0x1f, GZIP_MAGIC_2 = 0x8b;
+
+    /**
+     * Reads the network in the file at the given path.
+     *
+     * @param path the path of the XMLBIF file, which may be gzip-compressed
+     * @return the {@link BayesianNetwork} described by the file
+     * @throws IOException if the file cannot be read or is not a valid XMLBIF file
+     */
+    public static BayesianNetwork read(Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            return read(in);
+        }
+    }
+
+    /**
+     * Reads the network from the given stream. The stream is not closed.
+     *
+     * @param in the stream with the contents of an XMLBIF file, which may be gzip-compressed
+     * @return the {@link BayesianNetwork} described by the stream
+     * @throws IOException if the stream cannot be read or does not contain a valid XMLBIF file
+     */
+    public static BayesianNetwork read(InputStream in) throws IOException {
+        in = decompress(in);
+
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        try {
+            XMLStreamReader reader = factory.createXMLStreamReader(in);
+            try {
+                return new XMLBIFReader().parse(reader);
+            }
+            finally {
+                reader.close();
+            }
+        }
+        catch (XMLStreamException e) {
+            throw new IOException("Malformed XMLBIF: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Wraps the given stream in a {@link GZIPInputStream} if it starts with the gzip header.
+     *
+     * @param in the stream to check
+     * @return a stream with the decompressed contents
+     * @throws IOException if the stream cannot be read
+     */
+    static InputStream decompress(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, 1 << 16);
+        buffered.mark(2);
+        int b1 = buffered.read(), b2 = buffered.read();
+        buffered.reset();
+        if (b1 == GZIP_MAGIC_1 && b2 == GZIP_MAGIC_2)
+            return new BufferedInputStream(new GZIPInputStream(buffered, 1 << 16), 1 << 16);
+        return buffered;
+    }
+
+    /**
+     * The outcomes of each variable, in the order the variables are declared.
+     */
+    private final Map<String, String[]> variables = new LinkedHashMap<>();
+    /**
+     * The labels of the parents of each variable that has a definition.
+     */
+    private final Map<String, String[]> parents = new LinkedHashMap<>();
+    /**
+     * The table of each variable whose definition has one.
+     */
+    private final Map<String, DenseCPT> tables = new LinkedHashMap<>();
+
+    /**
+     * The text of the current NAME, OUTCOME, FOR or GIVEN element.
+     */
+    private final StringBuilder text = new StringBuilder();
+    /**
+     * The current number in a TABLE element, which may be split between multiple chunks of characters.
+     */
+    private final StringBuilder number = new StringBuilder();
+
+    /**
+     * The state of the VARIABLE or DEFINITION element being read.
+     */
+    private String name;
+    private final List<String> outcomes = new ArrayList<>(2), given = new ArrayList<>();
+    private double[] table;
+    private int tableSize;
+
+    private XMLBIFReader() {
+    }
+
+    /**
+     * Streams through the document and builds the network at the end.
+     *
+     * @param reader the reader positioned at the start of the document
+     * @return the {@link BayesianNetwork} described by the document
+     * @throws XMLStreamException if the document is not well-formed
+     * @throws IOException        if the document is not a valid XMLBIF file
+     */
+    private BayesianNetwork parse(XMLStreamReader reader) throws XMLStreamException, IOException {
+        boolean inVariable = false, inDefinition = false, inTable = false, inText = false;
+
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    switch (reader.getLocalName()) {
+                        case "VARIABLE":
+                            inVariable = true;
+                            name = null;
+                            outcomes.clear();
+                            break;
+                        case "DEFINITION":
+                        case "PROBABILITY":  // The name of the element in XMLBIF 0.2
+                            inDefinition = true;
+                            name = null;
+                            given.clear();
+                            break;
+                        case "NAME":
+                        case "OUTCOME":
+                        case "FOR":
+                        case "GIVEN":
+                            inText = inVariable || inDefinition;
+                            text.setLength(0);
+                            break;
+                        case "TABLE":
+                            if (inDefinition) {
+                                startTable();
+                                inTable = true;
+                            }
+                            break;
+                    }
+                    break;
+
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    if (inText)
+                        text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    else if (inTable)
+                        parseNumbers(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    break;
+
+                case XMLStreamConstants.END_ELEMENT:
+                    switch (reader.getLocalName()) {
+                        case "VARIABLE":
+                            endVariable();
+                            inVariable = false;
+                            break;
+                        case "DEFINITION":
+                        case "PROBABILITY":
+                            if (inDefinition)
+                                endDefinition();
+                            inDefinition = false;
+                            break;
+                        case "NAME":
+                        case "FOR":
+                            if (inText)
+                                name = text.toString().trim();
+                            inText = false;
+                            break;
+                        case "OUTCOME":
+                            if (inText)
+                                outcomes.add(text.toString().trim());
+                            inText = false;
+                            break;
+                        case "GIVEN":
+                            if (inText)
+                                given.add(text.toString().trim());
+                            inText = false;
+                            break;
+                        case "TABLE":
+                            if (inTable)
+                                endTable();
+                            inTable = false;
+                            break;
+                    }
+                    break;
+            }
+        }
+
+        return build();
+    }
+
+    /**
+     * Saves the outcomes of the variable that was just read.
+     *
+     * @throws IOException if the variable has no name or is not boolean
+     */
+    private void endVariable() throws IOException {
+        if (name == null)
+            throw new IOException("VARIABLE without a NAME");
+        if (outcomes.size() != 2)
+            throw new IOException("Variable \"" + name + "\" has " + outcomes.size()
+                    + " outcomes, but only boolean variables are supported");
+        if (variables.put(name, outcomes.toArray(new String[0])) != null)
+            throw new IOException("Variable \"" + name + "\" is declared twice");
+    }
+
+    /**
+     * Creates the table of the definition being read, now that its FOR and GIVEN elements are known.
+     *
+     * @throws IOException if the definition has no FOR element, is given too many parents or already has a table
+     */
+    private void startTable() throws IOException {
+        if (name == null)
+            throw new IOException("DEFINITION without a FOR");
+        if (given.size() > CPT.MAX_PARENTS)
+            throw new IOException("Variable \"" + name + "\" has too many parents: " + given.size());
+
+        DenseCPT cpt = new DenseCPT(given.size());
+        if (tables.put(name, cpt) != null)
+            throw new IOException("Variable \"" + name + "\" is defined twice");
+        table = cpt.getValues();
+        tableSize = 0;
+        number.setLength(0);
+    }
+
+    /**
+     * Saves the parents of the definition that was just read, whether or not it has a table.
+     *
+     * @throws IOException if the definition has no FOR element, is given too many parents, is not the first one
+     *                     of its variable or has GIVEN elements after its table
+     */
+    private void endDefinition() throws IOException {
+        if (name == null)
+            throw new IOException("DEFINITION without a FOR");
+        if (given.size() > CPT.MAX_PARENTS)
+            throw new IOException("Variable \"" + name + "\" has too many parents: " + given.size());
+        if (parents.put(name, given.toArray(new String[0])) != null)
+            throw new IOException("Variable \"" + name + "\" is defined twice");
+        DenseCPT cpt = tables.get(name);
+        if (cpt != null && cpt.getParentCount() != given.size())
+            throw new IOException("The TABLE of \"" + name + "\" is before some of its GIVEN elements");
+    }
+
+    /**
+     * Parses the whitespace separated numbers in the given characters into the current table.
+     * A number at the end of the characters may continue in the next chunk, so it is only parsed
+     * once whitespace or the end of the TABLE is reached.
+     *
+     * @throws IOException if there are more numbers than entries in the table, or a number is malformed
+     */
+    private void parseNumbers(char[] chars, int start, int length) throws IOException {
+        for (int i = start; i < start + length; i++) {
+            char c = chars[i];
+            if (Character.isWhitespace(c))
+                addNumber();
+            else
+                number.append(c);
+        }
+    }
+
+    /**
+     * Parses the current number, if there is one, and adds it to the current table.
+     *
+     * @throws IOException if there are more numbers than entries in the table, or the number is malformed
+     */
+    private void addNumber() throws IOException {
+        if (number.length() == 0)
+            return;
+        if (tableSize == table.length)
+            throw new IOException("The TABLE of \"" + name + "\" has more than " + table.length + " entries");
+
+        try {
+            table[tableSize++] = Double.parseDouble(number.toString());
+        }
+        catch (NumberFormatException e) {
+            throw new IOException("Malformed probability \"" + number + "\" in the TABLE of \"" + name + "\"", e);
+        }
+        number.setLength(0);
+    }
+
+    /**
+     * Parses the last number of the current table and checks that the table is full.
+     *
+     * @throws IOException if the table has too few entries
+     */
+    private void endTable() throws IOException {
+        addNumber();
+        if (tableSize != table.length)
+            throw new IOException("The TABLE of \"" + name + "\" has " + tableSize + " entries instead of "
+                    + table.length);
+        table = null;
+    }
+
+    /**
+     * Creates the {@link BayesianNetwork} from everything that was read.
+     *
+     * @return the network
+     * @throws IOException if a definition refers to an undeclared variable
+     */
+    private BayesianNetwork build() throws IOException {
+        BayesianNetwork net = new BayesianNetwork();
+        for (Map.Entry<String, String[]> variable : variables.entrySet())
+            net.createEvent(variable.getKey(), variable.getValue());
+
+        for (Map.Entry<String, String[]> definition : parents.entrySet()) {
+            BayesianEvent child = event(net, definition.getKey());
+            for (String parent : definition.getValue())
+                net.createDependency(event(net, parent), child);
+        }
+        net.finalizeStructure();
+
+        for (Map.Entry<String, DenseCPT> table : tables.entrySet())
+            table.getValue().writeTo(net.getEvent(table.getKey()));
+
+        return net;
+    }
+
+    /**
+     * Retrieves the event with the given label from the network.
+     *
+     * @throws IOException if there is no such event
+     */
+    private static BayesianEvent event(BayesianNetwork net, String label) throws IOException {
+        BayesianEvent e = net.getEventMap().get(label);
+        if (e == null)
+            throw new IOException("Undeclared variable \"" + label + "\"");
+        return e;
+    }
+}
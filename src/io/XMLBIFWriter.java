@@ -0,0 +1,212 @@
+package io;
+
+import cpt.CPT;
+import org.encog.ml.bayesian.BayesianChoice;
+import org.encog.ml.bayesian.BayesianEvent;
+import org.encog.ml.bayesian.BayesianNetwork;
+import org.encog.ml.bayesian.table.TableLine;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static main.Merger.TRUE;
+
+/**
+ * Writes {@link BayesianNetwork}s as XMLBIF 0.3 files that can be read by {@link XMLBIFReader}
+ * and by the AIspace belief network tool.
+ * <p>
+ * Every table is streamed line by line to a buffered {@link Writer}, so no representation of the whole file
+ * or of a whole table is ever built in memory.
+ * The lines of tables created by {@link main.Merger} and {@link XMLBIFReader} are already in the order of
+ * the XMLBIF TABLE element; tables whose lines are in any other order are streamed in the order of their sorted
+ * positions, so that only one index per line is allocated.
+ * A line missing from a table is written as the complement of the other line of its row, as
+ * {@link inference.Model} completes it. A row without any line is written as NaN, which {@link XMLBIFReader}
+ * reads back as missing lines, and a table without any line is not written at all.
+ *
+ * @version 1.1
+ */
+public class XMLBIFWriter {
+
+    private static final String INDENT = "    ";
+
+    /**
+     * Writes the given network to the file at the given path.
+     * If the name of the file ends with ".gz", the file is gzip-compressed.
+     *
+     * @param net  the {@link BayesianNetwork} to write
+     * @param name the name of the network
+     * @param path the path of the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(BayesianNetwork net, String name, Path path) throws IOException {
+        try (OutputStream out = Files.newOutputStream(path)) {
+            if (path.getFileName().toString().endsWith(".gz")) {
+                try (GZIPOutputStream gzip = new GZIPOutputStream(out, 1 << 16)) {
+                    write(net, name, gzip);
+                }
+            }
+            else write(net, name, out);
+        }
+    }
+
+    /**
+     * Writes the given network to the given stream, encoded in UTF-8. The stream is flushed, but not closed.
+     *
+     * @param net  the {@link BayesianNetwork} to write
+     * @param name the name of the network
+     * @param out  the stream to write to
+     * @throws IOException if the stream cannot be written to
+     */
+    public static void write(BayesianNetwork net, String name, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+        write(net, name, writer);
+        writer.flush();
+    }
+
+    /**
+     * Writes the given network to the given {@link Writer}, which should be buffered.
+     * The writer is neither flushed nor closed.
+     *
+     * @param net    the {@link BayesianNetwork} to write
+     * @param name   the name of the network
+     * @param writer the writer to write to
+     * @throws IOException if the writer cannot be written to
+     */
+    public static void write(BayesianNetwork net, String name, Writer writer) throws IOException {
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        writer.write("<BIF VERSION=\"0.3\" xmlns=\"http://www.cs.ubc.ca/labs/lci/fopi/ve/XMLBIFv0_3\">\n");
+        writer.write(INDENT + "<NETWORK>\n");
+        element(writer, 2, "NAME", name);
+        writer.write('\n');
+
+        for (BayesianEvent e : net.getEvents()) {
+            writer.write(INDENT + INDENT + "<VARIABLE TYPE=\"nature\">\n");
+            element(writer, 3, "NAME", e.getLabel());
+            for (BayesianChoice choice : e.getChoices())
+                element(writer, 3, "OUTCOME", choice.getLabel());
+            writer.write(INDENT + INDENT + "</VARIABLE>\n\n");
+        }
+
+        for (BayesianEvent e : net.getEvents()) {
+            writer.write(INDENT + INDENT + "<DEFINITION>\n");
+            element(writer, 3, "FOR", e.getLabel());
+            for (BayesianEvent parent : e.getParents())
+                element(writer, 3, "GIVEN", parent.getLabel());
+            if (!e.getTable().getLines().isEmpty()) {
+                writer.write(INDENT + INDENT + INDENT + "<TABLE>");
+                writeTable(writer, e);
+                writer.write('\n');
+                writer.write(INDENT + INDENT + INDENT + "</TABLE>\n");
+            }
+            writer.write(INDENT + INDENT + "</DEFINITION>\n\n");
+        }
+
+        writer.write(INDENT + "</NETWORK>\n");
+        writer.write("</BIF>\n");
+    }
+
+    /**
+     * Writes the probabilities of the table of the given event, one row of the table per line.
+     *
+     * @param writer the writer to write to
+     * @param e      the {@link BayesianEvent} whose table to write
+     * @throws IOException              if the writer cannot be written to
+     * @throws IllegalArgumentException if the event is not boolean or has more than {@link CPT#MAX_PARENTS} parents
+     */
+    private static void writeTable(Writer writer, BayesianEvent e) throws IOException {
+        List<TableLine> lines = e.getTable().getLines();
+        int parents = e.getParents().size();
+
+        if (CPT.isInTableOrder(lines, parents)) {
+            for (int i = 0; i < lines.size(); i += 2)
+                writeRow(writer, lines.get(i).getProbability(), lines.get(i + 1).getProbability());
+            return;
+        }
+
+        if (e.getChoices().size() != 2)
+            throw new IllegalArgumentException("Event \"" + e.getLabel() + "\" is not boolean");
+        if (parents > CPT.MAX_PARENTS)
+            throw new IllegalArgumentException("Cannot store a table with " + parents + " parents");
+        // The position of every line in the TABLE, above the index of the line, so that sorting orders the lines.
+        long[] positions = new long[lines.size()];
+        for (int i = 0; i < positions.length; i++) {
+            TableLine line = lines.get(i);
+            positions[i] = (long) (2 * CPT.row(line.getArguments()) + line.getResult()) << 32 | i;
+        }
+        Arrays.sort(positions);
+        int next = 0;
+        for (int row = 0; row < 1 << parents; row++) {
+            double pTrue = Double.NaN, pFalse = Double.NaN;
+            // If a line is repeated, the last one wins, as it would in a DenseCPT.
+            for (; next < positions.length && positions[next] >>> 33 == row; next++) {
+                TableLine line = lines.get((int) positions[next]);
+                if (line.getResult() == TRUE)
+                    pTrue = line.getProbability();
+                else pFalse = line.getProbability();
+            }
+            writeRow(writer, pTrue, pFalse);
+        }
+    }
+
+    /**
+     * Writes one row of a table, completing a missing line from the other one.
+     */
+    private static void writeRow(Writer writer, double pTrue, double pFalse) throws IOException {
+        if (Double.isNaN(pTrue))
+            pTrue = 1 - pFalse;
+        else if (Double.isNaN(pFalse))
+            pFalse = 1 - pTrue;
+        writer.write('\n');
+        writer.write(INDENT + INDENT + INDENT + INDENT);
+        writer.write(Double.toString(pTrue));
+        writer.write(' ');
+        writer.write(Double.toString(pFalse));
+    }
+
+    /**
+     * Writes an element with the given text on its own line.
+     */
+    private static void element(Writer writer, int indent, String element, String text) throws IOException {
+        for (int i = 0; i < indent; i++)
+            writer.write(INDENT);
+        writer.write('<');
+        writer.write(element);
+        writer.write('>');
+        escape(writer, text);
+        writer.write("</");
+        writer.write(element);
+        writer.write(">\n");
+    }
+
+    /**
+     * Writes the given text, escaping the characters that have a special meaning in XML.
+     */
+    private static void escape(Writer writer, String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '&':
+                    writer.write("&amp;");
+                    break;
+                case '<':
+                    writer.write("&lt;");
+                    break;
+                case '>':
+                    writer.write("&gt;");
+                    break;
+                default:
+                    writer.write(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,451 @@
+package main;
+
+import org.encog.ml.bayesian.BayesianNetwork;
+import util.Log;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static util.PrintFormatting.NEW_LINE;
+import static util.PrintFormatting.SEPARATOR;
+import static util.PrintFormatting.print;
+
+/**
+ * Merges many pairs of networks stored in files, and reports the time taken by every pair and the pairs that failed.
+ * <p>
+ * The pairs are listed in a manifest, one pair per line with the paths of the two networks and optionally the path
+ * of the merged network, separated by white space; blank lines and lines starting with # are skipped, and relative
+ * paths are resolved against the directory of the manifest. Alternatively, the pairs are found in a directory and
+ * its subdirectories: every file whose name contains "bn1" is paired with the file of the same name with "bn2"
+ * instead. Files are read and written as described by {@link Prob#read(Path)} and {@link Prob#write(BayesianNetwork,
+ * Path)}. Merged networks without a path of their own are written to the output directory, named like the first
+ * network with "bnt" instead of "bn1", as snapshots.
+ * <p>
+ * Reading and writing the files runs on virtual threads when the virtual machine has them, and on a pool of
+ * a fixed number of I/O threads otherwise. The merges run on a pool with one thread per processor.
+ * Pairs are started in order as long as the memory they are estimated to need fits a budget, so that a few large
+ * pairs do not run at the same time and exhaust the heap while many small ones still do. The estimate is
+ * {@link Batch#EXPANSION} times the size of the files of a pair, and a pair that needs more than the whole budget
+ * runs alone.
+ *
+ * @version 1.1
+ */
+public class Batch {
+
+    /**
+     * The estimated ratio between the memory taken by the merge of a pair, including both networks and the result,
+     * and the size of their files.
+     */
+    static final int EXPANSION = 8;
+
+    private final ExecutorService io, cpu;
+    /**
+     * The memory budget, in KiB.
+     */
+    private final Semaphore budget;
+    private final int budgetKiB;
+
+    /**
+     * @param ioThreads   the number of threads that read and write files when there are no virtual threads
+     * @param cpuThreads  the number of merges that run at once
+     * @param budgetBytes the memory that the pairs in flight are estimated to need at most
+     */
+    public Batch(int ioThreads, int cpuThreads, long budgetBytes) {
+        io = ioExecutor(ioThreads);
+        cpu = Executors.newFixedThreadPool(cpuThreads);
+        budgetKiB = (int) Math.max(1, Math.min(Integer.MAX_VALUE, budgetBytes >> 10));
+        budget = new Semaphore(budgetKiB);
+    }
+
+    /**
+     * @return an executor that starts a virtual thread per task if the virtual machine has virtual threads,
+     * a pool of the given number of threads otherwise
+     */
+    private static ExecutorService ioExecutor(int threads) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException e) {
+            Log.debug("No virtual threads, reading and writing with {} threads", threads);
+            return Executors.newFixedThreadPool(threads);
+        }
+    }
+
+    /**
+     * A pair of networks to merge, and what became of it.
+     */
+    public static class Pair {
+
+        private final String name;
+        private final Path bn1, bn2, output;
+        private int events = -1;
+        private long readNanos, mergeNanos, writeNanos;
+        private String error;
+
+        /**
+         * @param name   the name of the pair in the report
+         * @param bn1    the path of the first network
+         * @param bn2    the path of the second network
+         * @param output the path of the merged network, or null not to write it
+         */
+        public Pair(String name, Path bn1, Path bn2, Path output) {
+            this.name = name;
+            this.bn1 = bn1;
+            this.bn2 = bn2;
+            this.output = output;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the number of events of the merged network, or -1 if the pair was not merged
+         */
+        public int getEvents() {
+            return events;
+        }
+
+        public long getReadNanos() {
+            return readNanos;
+        }
+
+        public long getMergeNanos() {
+            return mergeNanos;
+        }
+
+        public long getWriteNanos() {
+            return writeNanos;
+        }
+
+        /**
+         * @return the reason why the pair failed, or null if it was merged
+         */
+        public String getError() {
+            return error;
+        }
+
+        /**
+         * @return the estimated memory needed by the pair, in KiB
+         */
+        private long estimateKiB() {
+            try {
+                return (Files.size(bn1) + Files.size(bn2)) * EXPANSION >> 10;
+            }
+            catch (IOException e) {
+                // The pair fails when it is read.
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Merges the given pairs and waits until all are done. The outcome of every pair is stored in it.
+     *
+     * @param pairs the pairs to merge
+     * @throws InterruptedException if interrupted while waiting for memory to start a pair
+     */
+    public void run(List<Pair> pairs) throws InterruptedException {
+        List<CompletableFuture<?>> futures = new ArrayList<>(pairs.size());
+        for (Pair pair : pairs) {
+            int permits = (int) Math.max(1, Math.min(budgetKiB, pair.estimateKiB()));
+            budget.acquire(permits);
+            futures.add(CompletableFuture
+                    .supplyAsync(() -> read(pair), io)
+                    .thenApplyAsync(networks -> merge(pair, networks), cpu)
+                    .thenAcceptAsync(bnt -> write(pair, bnt), io)
+                    .whenComplete((nothing, e) -> {
+                        budget.release(permits);
+                        if (e != null) {
+                            Throwable cause = e;
+                            while ((cause instanceof CompletionException || cause instanceof UncheckedIOException)
+                                    && cause.getCause() != null)
+                                cause = cause.getCause();
+                            // Keep the report one line per pair.
+                            pair.error = cause.toString().replaceAll("\\s+", " ");
+                            Log.debug("Pair {} failed: {}", pair.name, cause);
+                        }
+                    }));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).exceptionally(e -> null).join();
+    }
+
+    private static BayesianNetwork[] read(Pair pair) {
+        long start = System.nanoTime();
+        try {
+            BayesianNetwork[] networks = {Prob.read(pair.bn1), Prob.read(pair.bn2)};
+            pair.readNanos = System.nanoTime() - start;
+            return networks;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static BayesianNetwork merge(Pair pair, BayesianNetwork[] networks) {
+        long start = System.nanoTime();
+        BayesianNetwork bnt = Merger.merge(networks[0], networks[1]);
+        pair.mergeNanos = System.nanoTime() - start;
+        pair.events = bnt.getEvents().size();
+        return bnt;
+    }
+
+    private static void write(Pair pair, BayesianNetwork bnt) {
+        if (pair.output == null)
+            return;
+        long start = System.nanoTime();
+        try {
+            Path parent = pair.output.toAbsolutePath().getParent();
+            if (parent != null)
+                Files.createDirectories(parent);
+            Prob.write(bnt, pair.output);
+            pair.writeNanos = System.nanoTime() - start;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Stops the threads of the pools.
+     */
+    public void shutdown() {
+        io.shutdown();
+        cpu.shutdown();
+    }
+
+    /**
+     * Reads the pairs of a manifest, as described above.
+     *
+     * @param manifest the path of the manifest
+     * @param output   the directory of the merged networks without a path of their own
+     * @return the pairs, named by their line numbers
+     * @throws IOException if the manifest cannot be read or has a line with fewer than two paths
+     */
+    public static List<Pair> readManifest(Path manifest, Path output) throws IOException {
+        Path base = manifest.toAbsolutePath().getParent();
+        List<String> lines = Files.readAllLines(manifest, StandardCharsets.UTF_8);
+        List<Pair> pairs = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+            String[] paths = line.split("\\s+");
+            if (paths.length < 2)
+                throw new IOException("Line " + (i + 1) + " of \"" + manifest + "\" does not have two paths");
+            Path bn1 = base.resolve(paths[0]), bn2 = base.resolve(paths[1]);
+            Path bnt = paths.length > 2 ? base.resolve(paths[2]) : output.resolve(mergedName(bn1.getFileName()));
+            pairs.add(new Pair("line " + (i + 1), bn1, bn2, bnt));
+        }
+        return pairs;
+    }
+
+    /**
+     * Finds the pairs in a directory and its subdirectories, as described above.
+     *
+     * @param directory the directory
+     * @param output    the directory of the merged networks, which keep the relative paths of their pairs
+     * @return the pairs, named by the relative paths of their first networks, in order of these paths
+     * @throws IOException if the directory cannot be read
+     */
+    public static List<Pair> findPairs(Path directory, Path output) throws IOException {
+        List<Path> files;
+        try (Stream<Path> paths = Files.walk(directory)) {
+            files = paths.filter(Files::isRegularFile)
+                    .filter(path -> path.getFileName().toString().contains("bn1"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        List<Pair> pairs = new ArrayList<>();
+        for (Path bn1 : files) {
+            String name = bn1.getFileName().toString();
+            int at = name.lastIndexOf("bn1");
+            Path bn2 = bn1.resolveSibling(name.substring(0, at) + "bn2" + name.substring(at + 3));
+            if (!Files.isRegularFile(bn2)) {
+                Log.warn("No second network for \"{}\"", bn1);
+                continue;
+            }
+            Path relative = directory.relativize(bn1);
+            Path bnt = output.resolve(relative).resolveSibling(mergedName(bn1.getFileName()));
+            pairs.add(new Pair(relative.toString(), bn1, bn2, bnt));
+        }
+        return pairs;
+    }
+
+    /**
+     * @return the name of the merged network of the given first network: its name with "bnt" instead of "bn1"
+     * and without the extensions after it, or with ".bnt" instead of its extensions if it has no "bn1", as a snapshot
+     */
+    private static String mergedName(Path bn1) {
+        String name = bn1.toString();
+        int at = name.lastIndexOf("bn1"), dot;
+        if (at >= 0) {
+            name = name.substring(0, at) + "bnt" + name.substring(at + 3);
+            dot = name.indexOf('.', at);
+        }
+        else {
+            dot = name.indexOf('.', 1);
+            name = (dot > 0 ? name.substring(0, dot) : name) + ".bnt";
+            dot = -1;
+        }
+        return (dot > 0 ? name.substring(0, dot) : name) + Prob.SNAPSHOT_EXTENSION;
+    }
+
+    /**
+     * Formats the outcome of every pair, followed by the totals.
+     *
+     * @param pairs     the pairs, after they ran
+     * @param wallNanos the wall time of the whole run
+     * @return a table with one line per pair and a last line with the totals
+     */
+    public static String summary(List<Pair> pairs, long wallNanos) {
+        int width = "pair".length(), failed = 0;
+        long merge = 0;
+        for (Pair pair : pairs)
+            width = Math.max(width, pair.name.length());
+        String format = "%-" + width + "s %7s %10s %10s %10s  %s" + NEW_LINE;
+        StringBuilder sb = new StringBuilder(String.format(Locale.ROOT, format, "pair", "events", "read ms", "merge ms",
+                "write ms", "error"));
+        for (Pair pair : pairs) {
+            if (pair.error != null)
+                failed++;
+            merge += pair.mergeNanos;
+            sb.append(String.format(Locale.ROOT, format, pair.name, pair.error == null ? pair.events : "-",
+                    millis(pair.readNanos), millis(pair.mergeNanos), millis(pair.writeNanos),
+                    pair.error == null ? "" : pair.error));
+        }
+        sb.append(String.format(Locale.ROOT, "%d pairs, %d failed, %s ms in merges, %s ms in total",
+                pairs.size(), failed, millis(merge), millis(wallNanos)));
+        return sb.toString();
+    }
+
+    /**
+     * Formats a duration in milliseconds, with a decimal point whatever the default locale, so that it does not
+     * split into two fields of the report.
+     */
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    /**
+     * Writes the outcome of every pair as comma-separated values, with a header line.
+     *
+     * @param pairs the pairs, after they ran
+     * @param path  the path of the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public static void writeReport(List<Pair> pairs, Path path) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            out.write(String.join(SEPARATOR, "pair", "bn1", "bn2", "output", "events", "readMillis", "mergeMillis",
+                    "writeMillis", "error"));
+            out.write(NEW_LINE);
+            for (Pair pair : pairs) {
+                out.write(String.join(SEPARATOR, csv(pair.name), csv(pair.bn1), csv(pair.bn2), csv(pair.output),
+                        Integer.toString(pair.events), millis(pair.readNanos), millis(pair.mergeNanos),
+                        millis(pair.writeNanos), csv(pair.error)));
+                out.write(NEW_LINE);
+            }
+        }
+    }
+
+    /**
+     * @return the given value as a quoted field, or an empty field for null
+     */
+    private static String csv(Object value) {
+        return value == null ? "" : "\"" + value.toString().replace("\"", "\"\"") + "\"";
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String source = null, output = null, report = null;
+        int processors = Runtime.getRuntime().availableProcessors();
+        int ioThreads = 2 * processors, cpuThreads = processors;
+        long budget = Runtime.getRuntime().maxMemory() / 2;
+        boolean valid = true;
+        for (int i = 0; i < args.length && valid; i++) {
+            if (!args[i].startsWith("--")) {
+                valid = source == null;
+                source = args[i];
+                continue;
+            }
+            if (i + 1 == args.length) {
+                valid = false;
+                continue;
+            }
+            String option = args[i], value = args[++i];
+            boolean number = value.matches("\\d+");
+            switch (option) {
+                case "--out":
+                    output = value;
+                    break;
+                case "--report":
+                    report = value;
+                    break;
+                case "--io":
+                    valid = number;
+                    if (number)
+                        ioThreads = Math.max(1, Integer.parseInt(value));
+                    break;
+                case "--workers":
+                    valid = number;
+                    if (number)
+                        cpuThreads = Math.max(1, Integer.parseInt(value));
+                    break;
+                case "--memory":
+                    valid = number;
+                    if (number)
+                        budget = Long.parseLong(value) << 20;
+                    break;
+                default:
+                    valid = false;
+            }
+        }
+
+        if (!valid || source == null) {
+            print("Please provide a directory with pairs of networks, named like x-bn1.xml and x-bn2.xml,",
+                    "or a manifest with the paths of two networks and optionally of the merged network per line.",
+                    "Use --out <directory> to write the merged networks there (by default next to the pairs),",
+                    "--report <file> to also write the timings of every pair as comma-separated values,",
+                    "--workers <n> to run n merges at once (by default one per processor),",
+                    "--io <n> to read and write with n threads if there are no virtual threads,",
+                    "and --memory <MiB> to bound the memory estimated for the pairs in flight (by default half the heap).");
+            return;
+        }
+
+        Path path = Paths.get(source);
+        List<Pair> pairs;
+        if (Files.isDirectory(path))
+            pairs = findPairs(path, Paths.get(output == null ? source : output));
+        else
+            pairs = readManifest(path, output == null ? path.toAbsolutePath().getParent() : Paths.get(output));
+
+        Batch batch = new Batch(ioThreads, cpuThreads, budget);
+        // The progress messages of the concurrent merges would be interleaved, so by default only warnings are logged.
+        if (System.getProperty("log.level") == null)
+            Log.setLevel(Log.Level.WARN);
+        long start = System.nanoTime();
+        try {
+            batch.run(pairs);
+        }
+        finally {
+            batch.shutdown();
+        }
+        print(summary(pairs, System.nanoTime() - start));
+        if (report != null)
+            writeReport(pairs, Paths.get(report));
+    }
+}
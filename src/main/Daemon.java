@@ -0,0 +1,339 @@
+package main;
+
+import io.Json;
+import io.NetworkSnapshot;
+import networks.Creator;
+import org.encog.ml.bayesian.BayesianNetwork;
+import util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static util.PrintFormatting.print;
+
+/**
+ * A long-running process that merges networks on request, so that a merge does not pay for the startup of the
+ * virtual machine and runs in code that has already been compiled by earlier merges.
+ * <p>
+ * Jobs are read as JSON objects, one per line, from the standard input or, with {@code --port}, from every
+ * connection to a TCP port on the loopback address. A job names its two networks either by a {@link Creator}
+ * and the arguments of its constructor, as on the command line of {@link Prob}, or by the paths of their files:
+ * <pre>
+ * {"id": "a", "creator": "Xmlbif", "args": ["bn1.xml", "bn2.xml"], "output": "bnt.xml"}
+ * {"id": "b", "bn1": "bn1.bns", "bn2": "bn2.xml", "output": "bnt.bns"}
+ * </pre>
+ * Files whose names end with {@link Prob#SNAPSHOT_EXTENSION} are read and written as {@link NetworkSnapshot}s,
+ * all others as XMLBIF. The output is optional, and the id is only echoed back.
+ * <p>
+ * Jobs run on a fixed number of workers. At most as many jobs as there are workers, plus the length of the queue,
+ * are accepted at once; beyond that, reading stops until a job finishes, so that a client that sends jobs faster
+ * than they are merged is slowed down instead of filling the memory. Every job is answered on the same stream
+ * with a JSON line when it is queued and one when it is done or failed:
+ * <pre>
+ * {"id": "a", "status": "queued"}
+ * {"id": "a", "status": "done", "events": 12, "waitMillis": 0.1, "millis": 2.4, "output": "bnt.xml"}
+ * {"id": "b", "status": "failed", "error": "..."}
+ * </pre>
+ * Answers of different jobs may arrive in any order. When a stream ends, its remaining jobs are finished before
+ * it is closed; the daemon stops when the standard input ends, or never when it listens on a port.
+ * With {@code --cache}, results are kept in a {@link MergeCache}, so that a job that merges the same networks
+ * again only reads them and writes its output.
+ *
+ * @version 1.2
+ */
+public class Daemon {
+
+    private final ExecutorService workers;
+    /**
+     * The permits of the jobs that may be accepted before reading stops.
+     */
+    private final Semaphore accepted;
+    private final MergeCache cache;
+
+    /**
+     * @param workers the number of jobs that run at once
+     * @param queue   the number of jobs that may wait for a worker
+     * @param cache   the cache of the results, or null to merge every job
+     */
+    public Daemon(int workers, int queue, MergeCache cache) {
+        AtomicInteger threads = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                task -> {
+                    Thread thread = new Thread(task, "merge-worker-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.accepted = new Semaphore(workers + queue);
+        this.cache = cache;
+    }
+
+    /**
+     * Reads and runs jobs until the input ends, and waits for them to finish.
+     *
+     * @param in  the jobs, one JSON object per line
+     * @param out where to write the status of every job, one JSON object per line
+     * @throws IOException          if the input cannot be read
+     * @throws InterruptedException if interrupted while waiting for a job to be accepted
+     */
+    public void serve(InputStream in, OutputStream out) throws IOException, InterruptedException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        // Every job of the stream is registered until it is done, and the stream itself until it ends.
+        Phaser pending = new Phaser(1);
+        try {
+            for (String line; (line = reader.readLine()) != null; ) {
+                if (line.trim().isEmpty())
+                    continue;
+                Job job;
+                try {
+                    job = new Job(Json.parseObject(line));
+                }
+                catch (IllegalArgumentException e) {
+                    answer(writer, new StringBuilder("{\"status\": \"failed\", \"error\": ")
+                            .append(quote(e.getMessage())).append('}'));
+                    continue;
+                }
+
+                accepted.acquire();
+                pending.register();
+                answer(writer, job.status("queued"));
+                long queued = System.nanoTime();
+                workers.execute(() -> {
+                    try {
+                        answer(writer, run(job, queued));
+                    }
+                    finally {
+                        accepted.release();
+                        pending.arriveAndDeregister();
+                    }
+                });
+            }
+        }
+        finally {
+            pending.arriveAndAwaitAdvance();
+            writer.flush();
+        }
+    }
+
+    /**
+     * Accepts connections to a port on the loopback address and serves every one of them in its own thread.
+     * Only returns if the port cannot be listened on.
+     *
+     * @param port the port
+     * @throws IOException if the port cannot be listened on
+     */
+    public void listen(int port) throws IOException {
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            Log.info("Listening on {}", server.getLocalSocketAddress());
+            while (true) {
+                Socket socket = server.accept();
+                Thread thread = new Thread(() -> {
+                    try (Socket s = socket) {
+                        serve(s.getInputStream(), s.getOutputStream());
+                    }
+                    catch (IOException e) {
+                        Log.warn("Connection closed: {}", e.getMessage());
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }, "merge-connection-" + socket.getPort());
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+    }
+
+    /**
+     * Stops the workers once the jobs they have accepted are done.
+     */
+    public void shutdown() {
+        workers.shutdown();
+    }
+
+    /**
+     * Writes one status line. Lines of different workers are not interleaved, and each line is flushed
+     * so that the client sees it at once.
+     */
+    private static void answer(Writer writer, CharSequence status) {
+        synchronized (writer) {
+            try {
+                writer.append(status).append('\n').flush();
+            }
+            catch (IOException e) {
+                Log.warn("Could not answer: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Merges the networks of a job and writes the result.
+     *
+     * @param queued the time at which the job was queued, from {@link System#nanoTime()}
+     * @return the final status of the job
+     */
+    private CharSequence run(Job job, long queued) {
+        long start = System.nanoTime();
+        try {
+            BayesianNetwork bn1, bn2;
+            if (job.creator != null) {
+                Creator creator = Prob.createCreator(job.creator, job.args);
+                bn1 = creator.createBN1();
+                bn2 = creator.createBN2();
+            }
+            else {
+                bn1 = Prob.read(Paths.get(job.bn1));
+                bn2 = Prob.read(Paths.get(job.bn2));
+            }
+            BayesianNetwork bnt = cache == null ? Merger.merge(bn1, bn2) : cache.merge(bn1, bn2);
+            if (job.output != null)
+                Prob.write(bnt, Paths.get(job.output));
+
+            long end = System.nanoTime();
+            StringBuilder sb = job.status("done");
+            sb.setLength(sb.length() - 1);
+            sb.append(", \"events\": ").append(bnt.getEvents().size())
+                    .append(", \"waitMillis\": ").append(millis(start - queued))
+                    .append(", \"millis\": ").append(millis(end - start));
+            if (job.output != null)
+                sb.append(", \"output\": ").append(quote(job.output));
+            return sb.append('}');
+        }
+        catch (Exception e) {
+            Log.debug("Job failed: {}", e);
+            StringBuilder sb = job.status("failed");
+            sb.setLength(sb.length() - 1);
+            return sb.append(", \"error\": ").append(quote(e.toString())).append('}');
+        }
+    }
+
+    /**
+     * Formats a duration in milliseconds, with a decimal point whatever the default locale, as JSON requires.
+     */
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static String quote(String value) {
+        return Json.quote(new StringBuilder(), value).toString();
+    }
+
+    /**
+     * A job as read from its line.
+     */
+    private static class Job {
+
+        private final String id, creator, bn1, bn2, output;
+        private final String[] args;
+
+        /**
+         * @param json the members of the job
+         * @throws IllegalArgumentException if the job does not name its two networks in one of the two ways
+         */
+        private Job(Map<String, Object> json) {
+            id = string(json, "id");
+            creator = string(json, "creator");
+            bn1 = string(json, "bn1");
+            bn2 = string(json, "bn2");
+            output = string(json, "output");
+            if (creator == null && (bn1 == null || bn2 == null))
+                throw new IllegalArgumentException("A job needs a \"creator\" or both \"bn1\" and \"bn2\"");
+            if (creator != null && creator.isEmpty())
+                throw new IllegalArgumentException("The \"creator\" is empty");
+
+            Object list = json.get("args");
+            if (list != null && !(list instanceof List))
+                throw new IllegalArgumentException("The \"args\" are not an array");
+            List<?> elements = list == null ? Collections.emptyList() : (List<?>) list;
+            args = new String[elements.size()];
+            for (int i = 0; i < args.length; i++) {
+                Object arg = elements.get(i);
+                if (arg instanceof Double && (Double) arg == Math.rint((Double) arg))
+                    args[i] = Long.toString(((Double) arg).longValue());
+                else args[i] = String.valueOf(arg);
+            }
+        }
+
+        private static String string(Map<String, Object> json, String name) {
+            Object value = json.get(name);
+            if (value == null || value instanceof String)
+                return (String) value;
+            if (value instanceof Double && (Double) value == Math.rint((Double) value))
+                return Long.toString(((Double) value).longValue());
+            if (value instanceof Double || value instanceof Boolean)
+                return value.toString();
+            throw new IllegalArgumentException("The \"" + name + "\" is not a string");
+        }
+
+        /**
+         * @return a status line of this job, as a complete JSON object
+         */
+        private StringBuilder status(String status) {
+            StringBuilder sb = new StringBuilder("{\"id\": ");
+            Json.quote(sb, id);
+            return sb.append(", \"status\": \"").append(status).append("\"}");
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = -1, workers = Runtime.getRuntime().availableProcessors(), queue = -1;
+        long cacheLines = 0;
+        for (int i = 0; i < args.length; i++) {
+            if (i + 1 < args.length && args[i + 1].matches("\\d+")) {
+                switch (args[i]) {
+                    case "--port":
+                        port = Integer.parseInt(args[++i]);
+                        continue;
+                    case "--workers":
+                        workers = Math.max(1, Integer.parseInt(args[++i]));
+                        continue;
+                    case "--queue":
+                        queue = Integer.parseInt(args[++i]);
+                        continue;
+                    case "--cache":
+                        cacheLines = Long.parseLong(args[++i]);
+                        continue;
+                }
+            }
+            print("Reads merge jobs as JSON lines from the standard input and answers with their status.",
+                    "Use --port <port> to read them from connections to a port on the loopback address instead,",
+                    "--workers <n> to run at most n jobs at once (by default one per processor),",
+                    "--queue <n> to let at most n more jobs wait (by default as many as there are workers),",
+                    "and --cache <lines> to keep results of up to that many table lines for repeated jobs.");
+            return;
+        }
+
+        Daemon daemon = new Daemon(workers, queue < 0 ? workers : queue,
+                cacheLines > 0 ? new MergeCache(cacheLines) : null);
+        // The standard output may carry the answers, so messages go to the standard error.
+        Log.setOutput(System.err);
+        if (port >= 0)
+            daemon.listen(port);
+        else {
+            daemon.serve(System.in, System.out);
+            daemon.shutdown();
+        }
+    }
+}
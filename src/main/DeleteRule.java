@@ -0,0 +1,51 @@
+package main;
+
+/**
+ * The cases of the DELETE RULE described in the lectures.
+ * For an internal event, the rule decides from which of the two networks the parents and the
+ * Conditional Probability Table are saved in the merged network.
+ *
+ * @version 1.0
+ * @see Merger
+ */
+public enum DeleteRule {
+
+    /**
+     * Not all parents in BN1 are in the intersection, the node is saved from BN1.
+     */
+    CASE_A(true, "CASE A, saving node from BN1"),
+    /**
+     * Not all parents in BN2 are in the intersection, the node is saved from BN2.
+     */
+    CASE_B(false, "CASE B, saving node from BN2"),
+    /**
+     * All parents are in the intersection and there are at least as many in BN1, the node is saved from BN1.
+     */
+    CASE_C_BN1(true, "CASE C, more parents in BN1, saving node from BN1"),
+    /**
+     * All parents are in the intersection and there are more in BN2, the node is saved from BN2.
+     */
+    CASE_C_BN2(false, "CASE C, more parents in BN2, saving node from BN2");
+
+    /**
+     * Whether the node is saved from BN1 (as opposed to BN2).
+     */
+    private final boolean fromBN1;
+    /**
+     * A human readable description of the case.
+     */
+    private final String description;
+
+    DeleteRule(boolean fromBN1, String description) {
+        this.fromBN1 = fromBN1;
+        this.description = description;
+    }
+
+    public boolean isFromBN1() {
+        return fromBN1;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
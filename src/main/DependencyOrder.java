@@ -0,0 +1,230 @@
+package main;
+
+import org.encog.ml.bayesian.BayesianError;
+
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+/**
+ * A topological order of the events of the merged network that is kept up to date as {@link Merger} adds
+ * dependencies, so that a dependency that closes a cycle is rejected as soon as it is added,
+ * with the cycle it closes, instead of breaking the merged network later on.
+ * <p>
+ * This is the dynamic topological sort of Pearce and Kelly. Every event has a position in the order, and a
+ * dependency from an earlier to a later event keeps the order valid as it is. Otherwise only the events whose
+ * positions lie between the two ends of the dependency are visited: the descendants of the child and the
+ * ancestors of the parent among them. If the parent is a descendant of the child, the dependency closes a cycle;
+ * if not, the two groups of events swap their positions, each keeping its relative order.
+ * Most dependencies of a merge follow the order of the original networks, so they cost nothing but a comparison,
+ * and the order of the merged network is available at any time without sorting it.
+ *
+ * @version 1.0
+ */
+final class DependencyOrder {
+
+    /**
+     * The position of every event in the order, and the event at every position.
+     */
+    private final int[] positions, events;
+    /**
+     * The children and the parents of every event, in the first {@code childCounts[id]} and
+     * {@code parentCounts[id]} entries of its arrays.
+     */
+    private final int[][] children, parents;
+    private final int[] childCounts, parentCounts;
+    /**
+     * The labels of the events, only used to report cycles.
+     */
+    private final IntFunction<String> labels;
+
+    /**
+     * The state of the searches of {@link DependencyOrder#add(int, int)}: the events found by the forward and
+     * the backward search, and for every event found forward, the event it was reached from.
+     */
+    private final boolean[] visited;
+    private final int[] forward, backward, from, stack, merged;
+
+    /**
+     * @param size   the number of events, initially ordered by id and without dependencies
+     * @param labels the label of every event, to report cycles
+     */
+    DependencyOrder(int size, IntFunction<String> labels) {
+        this.labels = labels;
+        positions = new int[size];
+        events = new int[size];
+        for (int id = 0; id < size; id++)
+            positions[id] = events[id] = id;
+        children = new int[size][];
+        parents = new int[size][];
+        childCounts = new int[size];
+        parentCounts = new int[size];
+        visited = new boolean[size];
+        forward = new int[size];
+        backward = new int[size];
+        from = new int[size];
+        stack = new int[size];
+        merged = new int[size];
+    }
+
+    /**
+     * Adds a dependency and moves events in the order if necessary.
+     *
+     * @param parent the id of the parent
+     * @param child  the id of the child
+     * @throws BayesianError if the dependency closes a cycle, which is then described in the message.
+     *                       The dependency is not added.
+     */
+    void add(int parent, int child) {
+        if (parent == child)
+            throw new BayesianError("The dependency " + labels.apply(parent) + " -> " + labels.apply(child)
+                    + " is a cycle");
+        int lower = positions[child], upper = positions[parent];
+        if (lower > upper) {
+            link(parent, child);
+            return;
+        }
+
+        int forwardCount = searchForward(child, parent, upper);
+        if (forwardCount < 0)
+            throw new BayesianError("The dependency " + labels.apply(parent) + " -> " + labels.apply(child)
+                    + " closes the cycle " + cycle(parent, child));
+        int backwardCount = searchBackward(parent, lower);
+        reorder(forwardCount, backwardCount);
+        link(parent, child);
+    }
+
+    private void link(int parent, int child) {
+        children[parent] = append(children[parent], childCounts[parent]++, child);
+        parents[child] = append(parents[child], parentCounts[child]++, parent);
+    }
+
+    private static int[] append(int[] ids, int count, int id) {
+        if (ids == null)
+            ids = new int[4];
+        else if (count == ids.length)
+            ids = Arrays.copyOf(ids, 2 * count);
+        ids[count] = id;
+        return ids;
+    }
+
+    /**
+     * Finds the descendants of the child that are not after the parent in the order.
+     *
+     * @return the number of descendants found, in {@link DependencyOrder#forward},
+     * or -1 if the parent is one of them, in which case {@link DependencyOrder#from} leads back from it to the child
+     */
+    private int searchForward(int child, int parent, int upper) {
+        int count = 0, top = 0;
+        stack[top++] = child;
+        visited[child] = true;
+        while (top > 0) {
+            int id = stack[--top];
+            forward[count++] = id;
+            for (int j = 0; j < childCounts[id]; j++) {
+                int next = children[id][j];
+                if (next == parent) {
+                    from[parent] = id;
+                    clear(forward, count);
+                    for (int k = 0; k < top; k++)
+                        visited[stack[k]] = false;
+                    return -1;
+                }
+                if (!visited[next] && positions[next] < upper) {
+                    visited[next] = true;
+                    from[next] = id;
+                    stack[top++] = next;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Finds the ancestors of the parent that are not before the child in the order.
+     *
+     * @return the number of ancestors found, in {@link DependencyOrder#backward}
+     */
+    private int searchBackward(int parent, int lower) {
+        int count = 0, top = 0;
+        stack[top++] = parent;
+        visited[parent] = true;
+        while (top > 0) {
+            int id = stack[--top];
+            backward[count++] = id;
+            for (int j = 0; j < parentCounts[id]; j++) {
+                int next = parents[id][j];
+                if (!visited[next] && positions[next] > lower) {
+                    visited[next] = true;
+                    stack[top++] = next;
+                }
+            }
+        }
+        return count;
+    }
+
+    private void clear(int[] ids, int count) {
+        for (int k = 0; k < count; k++)
+            visited[ids[k]] = false;
+    }
+
+    /**
+     * Gives the positions of the events found by both searches to the ancestors first and the descendants last,
+     * each group in its previous relative order.
+     */
+    private void reorder(int forwardCount, int backwardCount) {
+        clear(forward, forwardCount);
+        clear(backward, backwardCount);
+        sortByPosition(backward, backwardCount);
+        sortByPosition(forward, forwardCount);
+
+        int count = 0;
+        for (int k = 0; k < backwardCount; k++)
+            merged[count++] = positions[backward[k]];
+        for (int k = 0; k < forwardCount; k++)
+            merged[count++] = positions[forward[k]];
+        Arrays.sort(merged, 0, count);
+
+        for (int k = 0; k < backwardCount; k++)
+            place(backward[k], merged[k]);
+        for (int k = 0; k < forwardCount; k++)
+            place(forward[k], merged[backwardCount + k]);
+    }
+
+    private void place(int id, int position) {
+        positions[id] = position;
+        events[position] = id;
+    }
+
+    /**
+     * Sorts ids by their positions, by sorting the positions and looking the ids up again.
+     */
+    private void sortByPosition(int[] ids, int count) {
+        for (int k = 0; k < count; k++)
+            ids[k] = positions[ids[k]];
+        Arrays.sort(ids, 0, count);
+        for (int k = 0; k < count; k++)
+            ids[k] = events[ids[k]];
+    }
+
+    /**
+     * Describes the cycle found by {@link DependencyOrder#searchForward(int, int, int)}.
+     */
+    private String cycle(int parent, int child) {
+        StringBuilder sb = new StringBuilder(labels.apply(parent));
+        int length = 0;
+        for (int id = parent; id != child; id = from[id])
+            stack[length++] = id;
+        stack[length++] = child;
+        for (int k = length - 1; k >= 0; k--)
+            sb.append(" -> ").append(labels.apply(stack[k]));
+        return sb.toString();
+    }
+
+    /**
+     * @return the ids of the events in an order in which every event comes after its parents.
+     * The array must not be modified.
+     */
+    int[] order() {
+        return events;
+    }
+}
@@ -0,0 +1,86 @@
+package main;
+
+import cpt.CPT;
+import cpt.CPTSource;
+import cpt.LazyCPT;
+import org.encog.ml.bayesian.BayesianNetwork;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The tables of a merged network whose external events are merged on demand, created by
+ * {@link MergePlan#executeLazy(CPTSource, CPTSource, int)}.
+ * <p>
+ * The tables of outside and internal events are read from the original network they are copied from,
+ * without copying them. The tables of external events are {@link LazyCPT}s: a row is merged from the two original
+ * tables by the same formula as {@link MergePlan#execute(CPTSource, CPTSource, ForkJoinPool)} the first time it is
+ * read and then kept in a bounded memo, and the original tables of an event are only read when the first row of
+ * its merged table is. Creating the tables therefore takes time proportional to the structure of the merged
+ * network, and merging only takes time for the rows that are actually read.
+ * <p>
+ * The original tables must not change while the merged ones are being read, since rows that are already
+ * memoized would not change with them. {@link LazyMerge#materialize(ForkJoinPool)} builds the whole merged
+ * {@link BayesianNetwork} when it is needed after all.
+ *
+ * @version 1.0
+ */
+public class LazyMerge implements CPTSource {
+
+    private final MergePlan plan;
+    private final CPTSource bn1, bn2;
+    private final LazyCPT[] externalTables;
+
+    /**
+     * @param plan           the plan the tables are merged with
+     * @param bn1            the tables of the first network
+     * @param bn2            the tables of the second network
+     * @param externalTables the merged tables of the external events, in the order of the plan
+     */
+    LazyMerge(MergePlan plan, CPTSource bn1, CPTSource bn2, LazyCPT[] externalTables) {
+        this.plan = plan;
+        this.bn1 = bn1;
+        this.bn2 = bn2;
+        this.externalTables = externalTables;
+    }
+
+    public MergePlan getPlan() {
+        return plan;
+    }
+
+    /**
+     * @param label the label of an event
+     * @return the table of the event in the merged network, which is a {@link LazyCPT} for an external event,
+     * or null if there is no such event
+     * @throws IllegalArgumentException if the table of an outside or internal event
+     *                                  does not have the structure of the plan in its original network
+     */
+    @Override
+    public CPT getCPT(String label) {
+        int i = plan.getExternalIndex(label);
+        return i >= 0 ? externalTables[i] : plan.copiedCPT(label, bn1, bn2);
+    }
+
+    /**
+     * @return the number of merged tables of which at least one row has been read
+     */
+    public int getStartedCount() {
+        int count = 0;
+        for (LazyCPT table : externalTables)
+            if (table.isStarted())
+                count++;
+        return count;
+    }
+
+    /**
+     * Merges all the tables into a new {@link BayesianNetwork}, like
+     * {@link MergePlan#execute(CPTSource, CPTSource, ForkJoinPool)} on the same tables.
+     * The memoized rows are not reused, since merging the tables in full is cheaper per row.
+     *
+     * @param pool the pool in which to merge the tables, or null to merge them in the calling thread
+     * @return the merged network
+     * @throws IllegalArgumentException if one of the networks does not have the structure of the plan
+     */
+    public BayesianNetwork materialize(ForkJoinPool pool) {
+        return plan.execute(bn1, bn2, pool);
+    }
+}
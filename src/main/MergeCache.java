@@ -0,0 +1,226 @@
+package main;
+
+import io.NetworkSnapshot;
+import org.encog.ml.bayesian.BayesianEvent;
+import org.encog.ml.bayesian.BayesianNetwork;
+import util.NetworkHash;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of the results of {@link Merger#merge(BayesianNetwork, BayesianNetwork)}, addressed by the contents of
+ * the two merged networks.
+ * <p>
+ * Every pair of networks is identified by their {@link NetworkHash}es, computed in one pass over each network.
+ * When a pair was merged before, the cached result is returned and the merge, including the classification of
+ * the events, the merging of the tables and the validation, is skipped entirely.
+ * <p>
+ * Results are kept in memory in least recently used order, as long as their total number of table lines
+ * does not exceed a budget. If a directory is given, every result is also written there as a
+ * {@link NetworkSnapshot}, and results that are no longer in memory are loaded from there,
+ * so they survive evictions and restarts.
+ * <p>
+ * The cache is thread-safe. The same pair may be merged by two threads at once, in which case
+ * both results are equal and one of them is kept.
+ * Cached results are shared between all the callers that get them, so they must not be modified.
+ *
+ * @version 1.0
+ */
+public class MergeCache {
+
+    private static final String EXTENSION = ".bns";
+
+    private final long maxLines;
+    private final Path directory;
+    private final Map<NetworkHash, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long lines;
+
+    private final AtomicLong hits = new AtomicLong(), diskHits = new AtomicLong(), misses = new AtomicLong(),
+            evictions = new AtomicLong();
+
+    /**
+     * @param maxLines the largest total number of table lines of the results kept in memory
+     */
+    public MergeCache(long maxLines) {
+        this(maxLines, null);
+    }
+
+    /**
+     * @param maxLines  the largest total number of table lines of the results kept in memory
+     * @param directory the directory in which every result is also stored, or null to keep results only in memory
+     * @throws UncheckedIOException if the directory cannot be created
+     */
+    public MergeCache(long maxLines, Path directory) {
+        this.maxLines = maxLines;
+        this.directory = directory;
+        if (directory != null) {
+            try {
+                Files.createDirectories(directory);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Merges the two given networks, or returns the result of a previous merge of two networks with the same
+     * contents. The result must not be modified.
+     *
+     * @param bn1 the first network
+     * @param bn2 the second network
+     * @return the merged network
+     * @throws UncheckedIOException if the result cannot be read from or written to the directory of the cache
+     */
+    public BayesianNetwork merge(BayesianNetwork bn1, BayesianNetwork bn2) {
+        NetworkHash key = NetworkHash.of(bn1).combine(NetworkHash.of(bn2));
+
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                hits.incrementAndGet();
+                return entry.bnt;
+            }
+        }
+
+        BayesianNetwork bnt = load(key);
+        if (bnt != null)
+            diskHits.incrementAndGet();
+        else {
+            misses.incrementAndGet();
+            bnt = Merger.merge(bn1, bn2);
+            store(key, bnt);
+        }
+        put(key, bnt);
+        return bnt;
+    }
+
+    /**
+     * Adds a result to the memory tier and evicts the least recently used results until it fits the budget.
+     * Results that are larger than the whole budget are not kept in memory.
+     */
+    private synchronized void put(NetworkHash key, BayesianNetwork bnt) {
+        long size = 0;
+        for (BayesianEvent e : bnt.getEvents())
+            size += e.getTable().getLines().size();
+        if (size > maxLines)
+            return;
+
+        Entry previous = entries.put(key, new Entry(bnt, size));
+        if (previous != null)
+            lines -= previous.lines;
+        lines += size;
+
+        for (Iterator<Entry> it = entries.values().iterator(); lines > maxLines; ) {
+            lines -= it.next().lines;
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private BayesianNetwork load(NetworkHash key) {
+        if (directory == null)
+            return null;
+        Path path = directory.resolve(key + EXTENSION);
+        if (!Files.isRegularFile(path))
+            return null;
+        try {
+            return NetworkSnapshot.load(path).toNetwork();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes a result to the directory of the cache. It is written to a temporary file first and then moved,
+     * so that a partially written result is never loaded.
+     */
+    private void store(NetworkHash key, BayesianNetwork bnt) {
+        if (directory == null)
+            return;
+        try {
+            Path temp = Files.createTempFile(directory, key.toString(), ".tmp");
+            try {
+                NetworkSnapshot.write(bnt, temp);
+                Files.move(temp, directory.resolve(key + EXTENSION), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            }
+            finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Removes all the results from memory. Results stored in the directory of the cache are kept.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        lines = 0;
+    }
+
+    /**
+     * @return the number of merges answered from memory
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of merges answered from the directory of the cache
+     */
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    /**
+     * @return the number of merges that had to be computed
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of results evicted from memory to fit the budget
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the number of results in memory
+     */
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * @return the total number of table lines of the results in memory
+     */
+    public synchronized long getLines() {
+        return lines;
+    }
+
+    private static class Entry {
+
+        private final BayesianNetwork bnt;
+        private final long lines;
+
+        private Entry(BayesianNetwork bnt, long lines) {
+            this.bnt = bnt;
+            this.lines = lines;
+        }
+    }
+}
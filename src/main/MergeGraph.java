@@ -0,0 +1,280 @@
+package main;
+
+import org.encog.ml.bayesian.BayesianEvent;
+import org.encog.ml.bayesian.BayesianNetwork;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The structures of the two networks of a merge, with their labels interned into dense int ids,
+ * which {@link Merger} classifies and connects without looking events up by label.
+ * <p>
+ * The events of BN1 get the ids from 0, in the order of BN1, and the events that are only in BN2 get the next
+ * ids, in the order of BN2. The parents and the children of every event in each network are stored in
+ * compressed sparse row form, and the sets of the Feng et al Algorithm are {@link BitSet}s of ids,
+ * so the classification of the events is a handful of bitwise operations.
+ * Labels are only hashed once, when they are interned.
+ * <p>
+ * The sets are also kept in the order in which {@link Merger} always listed them: the intersection in the order
+ * of the event map of BN1, and the outside events in the order of BN1 and then BN2,
+ * so that the merged network is the same as before.
+ *
+ * @version 1.0
+ */
+final class MergeGraph {
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final String[] labels;
+    /**
+     * The parents and children of every event in each network: the parents of event i in BN1 are the ids from
+     * bn1Parents[bn1ParentOffsets[i]] to bn1Parents[bn1ParentOffsets[i + 1]], exclusive, and likewise for
+     * the children and for BN2. An event that is not in a network has none in it.
+     */
+    private final int[] bn1ParentOffsets, bn1Parents, bn2ParentOffsets, bn2Parents;
+    private final int[] bn1ChildOffsets, bn1Children, bn2ChildOffsets, bn2Children;
+
+    private final BitSet inBN1, inBN2, intersection, internal, external, outside;
+    /**
+     * The ids of the intersection and of the outside events, in the order described above.
+     */
+    private final int[] intersectionOrder, outsideOrder;
+    /**
+     * The {@link DeleteRule} of every internal event, by id.
+     */
+    private final DeleteRule[] deleteRules;
+
+    /**
+     * Interns the labels of the two networks, stores their structures and classifies their events.
+     *
+     * @param bn1 the first network
+     * @param bn2 the second network
+     */
+    MergeGraph(BayesianNetwork bn1, BayesianNetwork bn2) {
+        List<BayesianEvent> bn1Events = bn1.getEvents(), bn2Events = bn2.getEvents();
+        int[] bn2Ids = new int[bn2Events.size()];
+        int count = 0;
+        for (BayesianEvent e : bn1Events)
+            ids.put(e.getLabel(), count++);
+        inBN1 = new BitSet(count);
+        inBN1.set(0, count);
+        inBN2 = new BitSet();
+        for (int i = 0; i < bn2Events.size(); i++) {
+            Integer id = ids.putIfAbsent(bn2Events.get(i).getLabel(), count);
+            bn2Ids[i] = id != null ? id : count++;
+            inBN2.set(bn2Ids[i]);
+        }
+
+        labels = new String[count];
+        for (BayesianEvent e : bn1Events)
+            labels[ids.get(e.getLabel())] = e.getLabel();
+        for (int i = 0; i < bn2Events.size(); i++)
+            labels[bn2Ids[i]] = bn2Events.get(i).getLabel();
+
+        int[] bn1Ids = new int[bn1Events.size()];
+        for (int i = 0; i < bn1Ids.length; i++)
+            bn1Ids[i] = i;
+        bn1ParentOffsets = new int[count + 1];
+        bn1Parents = parents(bn1Events, bn1Ids, bn1ParentOffsets);
+        bn2ParentOffsets = new int[count + 1];
+        bn2Parents = parents(bn2Events, bn2Ids, bn2ParentOffsets);
+        bn1ChildOffsets = new int[count + 1];
+        bn1Children = transpose(bn1ParentOffsets, bn1Parents, bn1ChildOffsets);
+        bn2ChildOffsets = new int[count + 1];
+        bn2Children = transpose(bn2ParentOffsets, bn2Parents, bn2ChildOffsets);
+
+        intersection = (BitSet) inBN1.clone();
+        intersection.and(inBN2);
+        outside = (BitSet) inBN1.clone();
+        outside.or(inBN2);
+        outside.andNot(intersection);
+
+        // An event of the intersection is external iff it has a parent outside the intersection in both networks,
+        // that is, iff it is a child of an outside event in both networks.
+        BitSet bn1OutsideParent = childrenOf(outside, bn1ChildOffsets, bn1Children);
+        BitSet bn2OutsideParent = childrenOf(outside, bn2ChildOffsets, bn2Children);
+        external = (BitSet) bn1OutsideParent.clone();
+        external.and(bn2OutsideParent);
+        external.and(intersection);
+        internal = (BitSet) intersection.clone();
+        internal.andNot(external);
+
+        deleteRules = new DeleteRule[count];
+        for (int id = internal.nextSetBit(0); id >= 0; id = internal.nextSetBit(id + 1)) {
+            if (bn1OutsideParent.get(id))
+                deleteRules[id] = DeleteRule.CASE_A;
+            else if (bn2OutsideParent.get(id))
+                deleteRules[id] = DeleteRule.CASE_B;
+            else if (parentCount(id, true) < parentCount(id, false))
+                deleteRules[id] = DeleteRule.CASE_C_BN2;
+            else  // Default to BN1 if the number of parents is equal
+                deleteRules[id] = DeleteRule.CASE_C_BN1;
+        }
+
+        intersectionOrder = new int[intersection.cardinality()];
+        int size = 0;
+        for (String label : bn1.getEventMap().keySet()) {
+            int id = ids.get(label);
+            if (intersection.get(id))
+                intersectionOrder[size++] = id;
+        }
+        outsideOrder = new int[outside.cardinality()];
+        size = 0;
+        for (int id = outside.nextSetBit(0); id >= 0; id = outside.nextSetBit(id + 1))
+            outsideOrder[size++] = id;
+    }
+
+    /**
+     * Stores the parents of the events of a network in compressed sparse row form.
+     *
+     * @param events     the events of the network
+     * @param eventIds   the id of every event
+     * @param offsets    the array for the offsets of the parents of every id
+     * @return the parents of every id
+     */
+    private int[] parents(List<BayesianEvent> events, int[] eventIds, int[] offsets) {
+        for (int i = 0; i < events.size(); i++)
+            offsets[eventIds[i] + 1] = events.get(i).getParents().size();
+        for (int id = 0; id < offsets.length - 1; id++)
+            offsets[id + 1] += offsets[id];
+        int[] parents = new int[offsets[offsets.length - 1]];
+        for (int i = 0; i < events.size(); i++) {
+            int at = offsets[eventIds[i]];
+            for (BayesianEvent parent : events.get(i).getParents())
+                parents[at++] = ids.get(parent.getLabel());
+        }
+        return parents;
+    }
+
+    /**
+     * Reverses the edges of a graph in compressed sparse row form, keeping the order of the sources.
+     *
+     * @return the targets of the reversed graph
+     */
+    private static int[] transpose(int[] offsets, int[] targets, int[] reversedOffsets) {
+        for (int target : targets)
+            reversedOffsets[target + 1]++;
+        for (int id = 0; id < reversedOffsets.length - 1; id++)
+            reversedOffsets[id + 1] += reversedOffsets[id];
+        int[] reversed = new int[targets.length], next = reversedOffsets.clone();
+        for (int id = 0; id < offsets.length - 1; id++)
+            for (int j = offsets[id]; j < offsets[id + 1]; j++)
+                reversed[next[targets[j]]++] = id;
+        return reversed;
+    }
+
+    /**
+     * @return the children of the given events
+     */
+    private static BitSet childrenOf(BitSet events, int[] childOffsets, int[] children) {
+        BitSet result = new BitSet(childOffsets.length - 1);
+        for (int id = events.nextSetBit(0); id >= 0; id = events.nextSetBit(id + 1))
+            for (int j = childOffsets[id]; j < childOffsets[id + 1]; j++)
+                result.set(children[j]);
+        return result;
+    }
+
+    /**
+     * @return the number of events of both networks
+     */
+    int size() {
+        return labels.length;
+    }
+
+    String getLabel(int id) {
+        return labels[id];
+    }
+
+    /**
+     * @param label the label of an event
+     * @return its id
+     * @throws IllegalArgumentException if the event is in neither network
+     */
+    int getId(String label) {
+        Integer id = ids.get(label);
+        if (id == null)
+            throw new IllegalArgumentException("Event \"" + label + "\" is in neither network");
+        return id;
+    }
+
+    boolean isInBN1(int id) {
+        return inBN1.get(id);
+    }
+
+    boolean isInternal(int id) {
+        return internal.get(id);
+    }
+
+    boolean isExternal(int id) {
+        return external.get(id);
+    }
+
+    /**
+     * @return the ids of the events in both networks, in the order of the event map of BN1.
+     * The array must not be modified.
+     */
+    int[] intersectionOrder() {
+        return intersectionOrder;
+    }
+
+    /**
+     * @return the ids of the events in only one network, those of BN1 first. The array must not be modified.
+     */
+    int[] outsideOrder() {
+        return outsideOrder;
+    }
+
+    /**
+     * @return the {@link DeleteRule} of the given internal event
+     */
+    DeleteRule getDeleteRule(int id) {
+        return deleteRules[id];
+    }
+
+    /**
+     * @return the offsets of the parents of every id in one network, see {@link MergeGraph#parents(boolean)}.
+     * The array must not be modified.
+     */
+    int[] parentOffsets(boolean fromBN1) {
+        return fromBN1 ? bn1ParentOffsets : bn2ParentOffsets;
+    }
+
+    /**
+     * @return the parents of all ids in one network, in the order of their tables. The parents of an id are
+     * between its offset and the offset of the next id. The array must not be modified.
+     */
+    int[] parents(boolean fromBN1) {
+        return fromBN1 ? bn1Parents : bn2Parents;
+    }
+
+    int parentCount(int id, boolean fromBN1) {
+        int[] offsets = parentOffsets(fromBN1);
+        return offsets[id + 1] - offsets[id];
+    }
+
+    /**
+     * Creates the masks of {@link cpt.CPT#projectionMasks(List, List)} by comparing ids instead of labels.
+     *
+     * @param id      the id of an event
+     * @param fromBN1 whether to project onto the parents of the event in BN1, as opposed to BN2
+     * @param to      the parents of the event in the merged network
+     * @param scratch an array of the size of the graph filled with -1, which is left that way
+     * @return the mask of every parent in the merged network
+     */
+    int[] projectionMasks(int id, boolean fromBN1, List<BayesianEvent> to, int[] scratch) {
+        int[] offsets = parentOffsets(fromBN1), parents = parents(fromBN1);
+        int from = offsets[id], count = offsets[id + 1] - from;
+        for (int j = 0; j < count; j++)
+            scratch[parents[from + j]] = j;
+        int[] masks = new int[to.size()];
+        for (int i = 0; i < masks.length; i++) {
+            int j = scratch[getId(to.get(i).getLabel())];
+            masks[i] = j < 0 ? 0 : 1 << (count - 1 - j);
+        }
+        for (int j = 0; j < count; j++)
+            scratch[parents[from + j]] = -1;
+        return masks;
+    }
+}
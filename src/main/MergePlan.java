@@ -0,0 +1,820 @@
+package main;
+
+import cpt.CPT;
+import cpt.CPTSource;
+import cpt.CPTStorage;
+import cpt.DecisionDiagram;
+import cpt.DenseCPT;
+import cpt.LazyCPT;
+import org.encog.ml.bayesian.BayesianEvent;
+import org.encog.ml.bayesian.BayesianNetwork;
+import util.Log;
+import util.NetworkValidator;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntFunction;
+
+import static main.Merger.FALSE;
+import static main.Merger.TRUE;
+
+/**
+ * The structural part of merging two {@link BayesianNetwork}s, compiled once by
+ * {@link Merger#compile(BayesianNetwork, BayesianNetwork)}.
+ * It stores the sets of events, the {@link DeleteRule} chosen for each internal event,
+ * the structure of the merged network, and for each external event the maps from its parents in the merged network
+ * to its parents in the two original networks.
+ * <p>
+ * The plan can be executed against any two networks that have the same structure as the ones it was compiled from,
+ * for example after the parameters of their Conditional Probability Tables have been re-estimated.
+ * Executing it only copies and combines probabilities.
+ * The tables of the two networks can also be read from any {@link CPTSource},
+ * such as a memory-mapped {@link io.NetworkSnapshot}, without building the networks' encog objects.
+ * <p>
+ * Given a {@link ForkJoinPool}, the tables of the external events are merged in parallel:
+ * one task per external event, and the rows of large tables are further split into ranges.
+ * Every row is computed exactly as in the sequential path, so the results are identical.
+ * <p>
+ * The tables of external events with many parents are merged through {@link DecisionDiagram}s when the tables of
+ * the two networks have few distinct contexts, such as deterministic or repetitive tables, so that the merge
+ * scales with the number of contexts instead of the number of rows. {@link MergePlan#mergeDiagram(String,
+ * CPTSource, CPTSource)} returns such a merged table without expanding it.
+ * <p>
+ * {@link MergePlan#executeTo(CPTSource, CPTSource, IntFunction, ForkJoinPool)} writes the merged tables of the
+ * external events straight into other storage, such as the off-heap tables of a {@link CPTStorage}, instead of
+ * a {@link BayesianNetwork}, which wide tables would not fit in.
+ * <p>
+ * {@link MergePlan#executeLazy(CPTSource, CPTSource, int)} merges the rows of the external tables only when they
+ * are read instead, see {@link LazyMerge}.
+ * <p>
+ * The table of a single event can be recomputed with
+ * {@link MergePlan#update(BayesianNetwork, String, CPTSource, CPTSource)}, see {@link MergeSession}.
+ *
+ * @version 1.15
+ */
+public class MergePlan {
+
+    /**
+     * The number of rows of a merged table below which a range of rows is not split into further tasks.
+     */
+    private static final int MIN_PARALLEL_ROWS = 1 << 12;
+    /**
+     * The number of parents of a merged table below which it is always merged row by row.
+     */
+    private static final int MIN_COMPRESSED_PARENTS = 8;
+
+    /**
+     * The merged network without any Conditional Probability Tables, used as a template by
+     * {@link MergePlan#createStructure()}.
+     */
+    private final BayesianNetwork structure;
+    /**
+     * The labels of the events of the merged network in topological order, see {@link DependencyOrder}.
+     */
+    private final List<String> topologicalOrder;
+    /**
+     * The sets of labels of events, as built by {@link Merger}.
+     */
+    private final Set<String> intersection, internal, external, outside;
+    /**
+     * The {@link DeleteRule} applied to each internal event.
+     */
+    private final Map<String, DeleteRule> deleteRules;
+
+    /**
+     * The labels of the outside events and whether each one is taken from BN1 (as opposed to BN2).
+     */
+    private final String[] outsideLabels;
+    private final boolean[] outsideFromBN1;
+    /**
+     * The labels of the internal events and the {@link DeleteRule} applied to each one.
+     */
+    private final String[] internalLabels;
+    private final DeleteRule[] internalRules;
+    /**
+     * The labels of the external events, the number of parents of each one in the three networks,
+     * and the masks that project rows of its merged table onto rows of its tables in BN1 and BN2.
+     *
+     * @see CPT#project(int, int[])
+     */
+    private final String[] externalLabels;
+    private final int[] bn1ParentCounts, bn2ParentCounts, bntParentCounts;
+    private final int[][] bn1Masks, bn2Masks;
+    /**
+     * The parent in the merged network that every parent of each external event in BN1 and BN2 is,
+     * for building {@link DecisionDiagram}s.
+     */
+    private final int[][] bn1Positions, bn2Positions;
+    /**
+     * The index of each event in {@link MergePlan#outsideLabels}, {@link MergePlan#internalLabels}
+     * or {@link MergePlan#externalLabels}, by its label.
+     */
+    private final Map<String, Integer> outsideIndices = new HashMap<>(), internalIndices = new HashMap<>(),
+            externalIndices = new HashMap<>();
+
+    /**
+     * Compiles a plan from the state of a {@link Merger} after the dependencies of the merged network are built.
+     *
+     * @param graph        the interned structures of the two networks
+     * @param structure    the finalized merged network, without Conditional Probability Tables
+     * @param order        the labels of the events of the merged network in topological order
+     * @param intersection the labels of the events in both networks
+     * @param internal     the labels of the internal events
+     * @param external     the labels of the external events
+     * @param outside      the labels of the events outside the intersection
+     * @param deleteRules  the {@link DeleteRule} applied to each internal event
+     */
+    MergePlan(MergeGraph graph, BayesianNetwork structure, String[] order, Set<String> intersection,
+              Set<String> internal, Set<String> external, Set<String> outside, Map<String, DeleteRule> deleteRules) {
+        this.structure = structure;
+        this.topologicalOrder = Collections.unmodifiableList(Arrays.asList(order));
+        this.intersection = Collections.unmodifiableSet(new LinkedHashSet<>(intersection));
+        this.internal = Collections.unmodifiableSet(new LinkedHashSet<>(internal));
+        this.external = Collections.unmodifiableSet(new LinkedHashSet<>(external));
+        this.outside = Collections.unmodifiableSet(new LinkedHashSet<>(outside));
+        this.deleteRules = Collections.unmodifiableMap(new LinkedHashMap<>(deleteRules));
+
+        outsideLabels = outside.toArray(new String[0]);
+        outsideFromBN1 = new boolean[outsideLabels.length];
+        for (int i = 0; i < outsideLabels.length; i++) {
+            outsideFromBN1[i] = graph.isInBN1(graph.getId(outsideLabels[i]));
+            outsideIndices.put(outsideLabels[i], i);
+        }
+
+        internalLabels = internal.toArray(new String[0]);
+        internalRules = new DeleteRule[internalLabels.length];
+        for (int i = 0; i < internalLabels.length; i++) {
+            internalRules[i] = deleteRules.get(internalLabels[i]);
+            internalIndices.put(internalLabels[i], i);
+        }
+
+        externalLabels = external.toArray(new String[0]);
+        int n = externalLabels.length;
+        bn1ParentCounts = new int[n];
+        bn2ParentCounts = new int[n];
+        bntParentCounts = new int[n];
+        bn1Masks = new int[n][];
+        bn2Masks = new int[n][];
+        bn1Positions = new int[n][];
+        bn2Positions = new int[n][];
+        int[] scratch = new int[graph.size()];
+        Arrays.fill(scratch, -1);
+        for (int i = 0; i < n; i++) {
+            int id = graph.getId(externalLabels[i]);
+            List<BayesianEvent> bntParents = structure.getEvent(externalLabels[i]).getParents();
+            bn1ParentCounts[i] = graph.parentCount(id, true);
+            bn2ParentCounts[i] = graph.parentCount(id, false);
+            bntParentCounts[i] = bntParents.size();
+            bn1Masks[i] = graph.projectionMasks(id, true, bntParents, scratch);
+            bn2Masks[i] = graph.projectionMasks(id, false, bntParents, scratch);
+            bn1Positions[i] = positions(bn1Masks[i], bn1ParentCounts[i]);
+            bn2Positions[i] = positions(bn2Masks[i], bn2ParentCounts[i]);
+            externalIndices.put(externalLabels[i], i);
+        }
+    }
+
+    /**
+     * Inverts projection masks: finds the parent of the merged table that every parent of the original one is.
+     *
+     * @param masks   the masks created by {@link CPT#projectionMasks(java.util.List, java.util.List)}
+     * @param parents the number of parents of the original table
+     * @return the position of every parent of the original table among the parents of the merged one
+     */
+    private static int[] positions(int[] masks, int parents) {
+        int[] positions = new int[parents];
+        Arrays.fill(positions, -1);
+        for (int i = 0; i < masks.length; i++)
+            if (masks[i] != 0)
+                positions[parents - 1 - Integer.numberOfTrailingZeros(masks[i])] = i;
+        return positions;
+    }
+
+    /**
+     * @return the labels of the events of the merged network, in an order in which every event comes after its
+     * parents, without sorting them
+     */
+    public List<String> getTopologicalOrder() {
+        return topologicalOrder;
+    }
+
+    public Set<String> getIntersection() {
+        return intersection;
+    }
+
+    public Set<String> getInternal() {
+        return internal;
+    }
+
+    public Set<String> getExternal() {
+        return external;
+    }
+
+    public Set<String> getOutside() {
+        return outside;
+    }
+
+    public Map<String, DeleteRule> getDeleteRules() {
+        return deleteRules;
+    }
+
+    /**
+     * Creates a new merged {@link BayesianNetwork} and fills its Conditional Probability Tables
+     * from the two given networks.
+     * The two given networks are not changed.
+     *
+     * @param bn1 the first network, with the same structure as the one the plan was compiled from
+     * @param bn2 the second network, with the same structure as the one the plan was compiled from
+     * @return the resulting merged {@link BayesianNetwork}
+     * @throws IllegalArgumentException if one of the networks does not have the structure of the plan
+     */
+    public BayesianNetwork execute(BayesianNetwork bn1, BayesianNetwork bn2) {
+        return execute(bn1, bn2, null);
+    }
+
+    /**
+     * Same as {@link MergePlan#execute(BayesianNetwork, BayesianNetwork)},
+     * but merges the tables of the external events in the given {@link ForkJoinPool}.
+     *
+     * @param bn1  the first network, with the same structure as the one the plan was compiled from
+     * @param bn2  the second network, with the same structure as the one the plan was compiled from
+     * @param pool the pool in which to merge the tables, or null to merge them in the calling thread
+     * @return the resulting merged {@link BayesianNetwork}
+     * @throws IllegalArgumentException if one of the networks does not have the structure of the plan
+     */
+    public BayesianNetwork execute(BayesianNetwork bn1, BayesianNetwork bn2, ForkJoinPool pool) {
+        return execute(CPTSource.of(bn1), CPTSource.of(bn2), pool);
+    }
+
+    /**
+     * Same as {@link MergePlan#execute(BayesianNetwork, BayesianNetwork, ForkJoinPool)},
+     * but reads the tables of the two networks from the given {@link CPTSource}s.
+     *
+     * @param bn1  the tables of the first network, with the structure of the one the plan was compiled from
+     * @param bn2  the tables of the second network, with the structure of the one the plan was compiled from
+     * @param pool the pool in which to merge the tables, or null to merge them in the calling thread
+     * @return the resulting merged {@link BayesianNetwork}
+     * @throws IllegalArgumentException if one of the networks does not have the structure of the plan
+     * @throws org.encog.ml.bayesian.BayesianError if a merged table is invalid, see {@link NetworkValidator}
+     */
+    public BayesianNetwork execute(CPTSource bn1, CPTSource bn2, ForkJoinPool pool) {
+        return execute(bn1, bn2, pool, null);
+    }
+
+    /**
+     * Same as {@link MergePlan#execute(CPTSource, CPTSource, ForkJoinPool)}, measuring every phase and counting
+     * the rows and the lookups if there are stats to fill.
+     */
+    BayesianNetwork execute(CPTSource bn1, CPTSource bn2, ForkJoinPool pool, MergeStats stats) {
+        BayesianNetwork bnt = MergeStats.compute(stats, MergeStats.Phase.CREATE_STRUCTURE, this::createStructure);
+        update(bnt, bn1, bn2, pool, stats);
+        MergeStats.measure(stats, MergeStats.Phase.VALIDATE, pool, () -> NetworkValidator.validate(bnt, pool));
+        // The progress messages of a merge are written in one batch, before anything the caller prints.
+        Log.flush();
+        return bnt;
+    }
+
+    /**
+     * Creates a new {@link BayesianNetwork} with the events and dependencies of the merged network.
+     * Its structure is finalized, but its Conditional Probability Tables are empty.
+     *
+     * @return the structure of the merged network
+     */
+    public BayesianNetwork createStructure() {
+        BayesianNetwork bnt = new BayesianNetwork();
+        structure.getEvents().forEach(e -> bnt.createEvent(e.getLabel()));
+        structure.getEvents().forEach(e ->
+                e.getParents().forEach(parent -> bnt.createDependency(parent.getLabel(), e.getLabel())));
+        bnt.finalizeStructure();
+        return bnt;
+    }
+
+    /**
+     * Overwrites the Conditional Probability Tables of a merged network in place,
+     * with the ones computed from the two given networks.
+     * Nothing but the tables is changed, so this is the cheapest way to repeat a merge after
+     * the parameters of the original networks have changed.
+     *
+     * @param bnt a network created by {@link MergePlan#execute(BayesianNetwork, BayesianNetwork)}
+     *            or {@link MergePlan#createStructure()} of this plan
+     * @param bn1 the first network, with the same structure as the one the plan was compiled from
+     * @param bn2 the second network, with the same structure as the one the plan was compiled from
+     * @throws IllegalArgumentException if one of the networks does not have the structure of the plan
+     */
+    public void update(BayesianNetwork bnt, BayesianNetwork bn1, BayesianNetwork bn2) {
+        update(bnt, bn1, bn2, null);
+    }
+
+    /**
+     * Same as {@link MergePlan#update(BayesianNetwork, BayesianNetwork, BayesianNetwork)},
+     * but merges the tables of the external events in the given {@link ForkJoinPool}.
+     *
+     * @param bnt  a network created by {@link MergePlan#execute(BayesianNetwork, BayesianNetwork)}
+     *             or {@link MergePlan#createStructure()} of this plan
+     * @param bn1  the first network, with the same structure as the one the plan was compiled from
+     * @param bn2  the second network, with the same structure as the one the plan was compiled from
+     * @param pool the pool in which to merge the tables, or null to merge them in the calling thread
+     * @throws IllegalArgumentException if one of the networks does not have the structure of the plan
+     */
+    public void update(BayesianNetwork bnt, BayesianNetwork bn1, BayesianNetwork bn2, ForkJoinPool pool) {
+        update(bnt, CPTSource.of(bn1), CPTSource.of(bn2), pool);
+    }
+
+    /**
+     * Same as {@link MergePlan#update(BayesianNetwork, BayesianNetwork, BayesianNetwork, ForkJoinPool)},
+     * but reads the tables of the two networks from the given {@link CPTSource}s.
+     *
+     * @param bnt  a network created by {@link MergePlan#execute(BayesianNetwork, BayesianNetwork)}
+     *             or {@link MergePlan#createStructure()} of this plan
+     * @param bn1  the tables of the first network, with the structure of the one the plan was compiled from
+     * @param bn2  the tables of the second network, with the structure of the one the plan was compiled from
+     * @param pool the pool in which to merge the tables, or null to merge them in the calling thread
+     * @throws IllegalArgumentException if one of the networks does not have the structure of the plan
+     */
+    public void update(BayesianNetwork bnt, CPTSource bn1, CPTSource bn2, ForkJoinPool pool) {
+        update(bnt, bn1, bn2, pool, null);
+    }
+
+    private void update(BayesianNetwork bnt, CPTSource bn1, CPTSource bn2, ForkJoinPool pool, MergeStats stats) {
+        MergeStats.measure(stats, MergeStats.Phase.OUTSIDE_TABLES, () -> addOutsideCPT(bnt, bn1, bn2, stats));
+        MergeStats.measure(stats, MergeStats.Phase.DELETE_RULE_TABLES, () -> deleteRuleCPT(bnt, bn1, bn2, stats));
+        MergeStats.measure(stats, MergeStats.Phase.EXTERNAL_TABLES, pool, () -> {
+            if (pool == null)
+                mergeCPTs(bnt, bn1, bn2, stats);
+            else
+                mergeCPTs(bnt, bn1, bn2, pool, stats);
+        });
+    }
+
+    /**
+     * Checks whether the table of the event with the given label in the merged network is computed from
+     * the table of that event in the first or the second network.
+     * When the table in that network changes, the table in the merged network has to be updated.
+     *
+     * @param label   the label of an event
+     * @param fromBN1 true for the first network, false for the second
+     * @return true iff the merged table depends on the table in the given network
+     */
+    public boolean readsTable(String label, boolean fromBN1) {
+        Integer i;
+        if ((i = outsideIndices.get(label)) != null)
+            return outsideFromBN1[i] == fromBN1;
+        if ((i = internalIndices.get(label)) != null)
+            return internalRules[i].isFromBN1() == fromBN1;
+        return externalIndices.containsKey(label);
+    }
+
+    /**
+     * Recomputes only the Conditional Probability Table of the event with the given label in a merged network.
+     * Depending on the class of the event, this either copies its table again or merges its two tables again.
+     *
+     * @param bnt   a network created by {@link MergePlan#execute(BayesianNetwork, BayesianNetwork)}
+     *              or {@link MergePlan#createStructure()} of this plan
+     * @param label the label of the event
+     * @param bn1   the tables of the first network, with the structure of the one the plan was compiled from
+     * @param bn2   the tables of the second network, with the structure of the one the plan was compiled from
+     * @throws IllegalArgumentException if there is no such event in the merged network,
+     *                                  or one of the networks does not have the structure of the plan
+     */
+    public void update(BayesianNetwork bnt, String label, CPTSource bn1, CPTSource bn2) {
+        BayesianEvent bntEvent = bnt.getEventMap().get(label);
+        if (bntEvent == null)
+            throw new IllegalArgumentException("Event \"" + label + "\" is not in the merged network");
+
+        int i = getExternalIndex(label);
+        if (i >= 0)
+            mergeTable(i, bn1, bn2, null).writeTo(bntEvent);
+        else
+            copiedCPT(label, bn1, bn2).writeTo(bntEvent);
+    }
+
+    /**
+     * Creates the tables of the merged network without merging any of them, see {@link LazyMerge}.
+     * The tables of the two networks are not read either until the merged tables are.
+     *
+     * @param bn1      the tables of the first network, with the structure of the one the plan was compiled from
+     * @param bn2      the tables of the second network, with the structure of the one the plan was compiled from
+     * @param memoRows the number of merged rows to keep per external event, see {@link LazyCPT}
+     * @return the tables of the merged network
+     */
+    public LazyMerge executeLazy(CPTSource bn1, CPTSource bn2, int memoRows) {
+        LazyCPT[] tables = new LazyCPT[externalLabels.length];
+        for (int i = 0; i < tables.length; i++)
+            tables[i] = lazyTable(i, bn1, bn2, memoRows);
+        return new LazyMerge(this, bn1, bn2, tables);
+    }
+
+    /**
+     * Merges the Conditional Probability Tables of the external events into tables created by the given function,
+     * such as the off-heap tables of a {@link CPTStorage}, without building the merged network's encog tables.
+     * The merged tables are written directly, and the returned source reads them without copying them.
+     * The tables of the outside and internal events are read from the network they are copied from.
+     * <p>
+     * With a reduced-precision storage, the merged probabilities are rounded to that precision.
+     *
+     * @param bn1    the tables of the first network, with the structure of the one the plan was compiled from
+     * @param bn2    the tables of the second network, with the structure of the one the plan was compiled from
+     * @param tables creates an empty, writable table for an event with the given number of parents,
+     *               for example {@code CPTStorage.FLOAT::allocate}
+     * @param pool   the pool in which to merge the tables, or null to merge them in the calling thread
+     * @return the tables of the merged network
+     * @throws IllegalArgumentException if one of the networks does not have the structure of the plan,
+     *                                  or a table cannot be created
+     */
+    public CPTSource executeTo(CPTSource bn1, CPTSource bn2, IntFunction<? extends CPT> tables, ForkJoinPool pool) {
+        Log.info("Merging Conditional Probability Tables of external nodes...");
+        CPT[] merged = new CPT[externalLabels.length];
+        ExternalTask[] tasks = new ExternalTask[externalLabels.length];
+        for (int i = 0; i < merged.length; i++) {
+            Log.debug("\t{}", externalLabels[i]);
+            merged[i] = tables.apply(bntParentCounts[i]);
+            tasks[i] = new ExternalTask(i, bn1, bn2, merged[i], null, null);
+        }
+
+        if (pool == null)
+            for (ExternalTask task : tasks)
+                task.compute();
+        else
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        Log.flush();
+
+        return label -> {
+            int i = getExternalIndex(label);
+            return i >= 0 ? merged[i] : copiedCPT(label, bn1, bn2);
+        };
+    }
+
+    /**
+     * Creates the lazy merged table of the i-th external event, which reads the two original tables
+     * and merges its rows like {@link MergePlan#mergeLine(int, CPT, int[], CPT, int[], CPT)}.
+     */
+    private LazyCPT lazyTable(int i, CPTSource bn1, CPTSource bn2, int memoRows) {
+        int[] bn1Masks = this.bn1Masks[i], bn2Masks = this.bn2Masks[i];
+        return new LazyCPT(bntParentCounts[i], () -> {
+            CPT bn1CPT = bn1CPT(i, bn1), bn2CPT = bn2CPT(i, bn2);
+            return row -> {
+                int bn1Row = CPT.project(row, bn1Masks), bn2Row = CPT.project(row, bn2Masks);
+                return combine(bn1CPT.get(bn1Row, TRUE), bn1CPT.get(bn1Row, FALSE),
+                        bn2CPT.get(bn2Row, TRUE), bn2CPT.get(bn2Row, FALSE));
+            };
+        }, memoRows);
+    }
+
+    /**
+     * @param label the label of an event
+     * @return the index of the event in {@link MergePlan#externalLabels}, or -1 if it is not external
+     */
+    int getExternalIndex(String label) {
+        Integer i = externalIndices.get(label);
+        return i == null ? -1 : i;
+    }
+
+    /**
+     * Reads the table of an outside or internal event from the network it is copied from.
+     *
+     * @param label the label of the event
+     * @param bn1   the tables of the first network
+     * @param bn2   the tables of the second network
+     * @return the table of the event in the merged network, or null if the event is neither outside nor internal
+     * @throws IllegalArgumentException if the table does not have the structure of the plan
+     */
+    CPT copiedCPT(String label, CPTSource bn1, CPTSource bn2) {
+        Integer i;
+        if ((i = outsideIndices.get(label)) != null)
+            return cpt(outsideFromBN1[i] ? bn1 : bn2, label, structure.getEvent(label).getParents().size());
+        if ((i = internalIndices.get(label)) != null)
+            return cpt(internalRules[i].isFromBN1() ? bn1 : bn2, label, structure.getEvent(label).getParents().size());
+        return null;
+    }
+
+    /**
+     * Retrieves the table of the event with the given label and checks that it has the expected number of parents.
+     *
+     * @param source  the tables of the network to look in
+     * @param label   the label of the event
+     * @param parents the number of parents the event should have
+     * @return the {@link CPT} of the event
+     * @throws IllegalArgumentException if there is no such event or it has a different number of parents
+     */
+    private static CPT cpt(CPTSource source, String label, int parents) {
+        CPT cpt = source.getCPT(label);
+        if (cpt == null || cpt.getParentCount() != parents)
+            throw new IllegalArgumentException("Event \"" + label + "\" does not match the compiled merge plan");
+        return cpt;
+    }
+
+    /**
+     * Copies the Conditional Probability Tables of events outside the intersection set.
+     * Implements the CPTs part of step 4 of the Feng et al Algorithm as described in the lectures.
+     */
+    private void addOutsideCPT(BayesianNetwork bnt, CPTSource bn1, CPTSource bn2, MergeStats stats) {
+        Log.info("Adding the Conditional Probability Tables of non-intersection nodes...");
+        for (int i = 0; i < outsideLabels.length; i++) {
+            String label = outsideLabels[i];
+            Log.debug("\t{}", label);
+            BayesianEvent bntEvent = bnt.getEvent(label);
+            CPTSource source = outsideFromBN1[i] ? bn1 : bn2;
+            cpt(source, label, bntEvent.getParents().size()).writeTo(bntEvent);
+            MergeStats.count(stats, MergeStats.Counter.TABLE_LOOKUPS, 2L << bntEvent.getParents().size());
+        }
+    }
+
+    /**
+     * Same as {@link MergePlan#deleteRuleCPT(BayesianNetwork, CPTSource, CPTSource, MergeStats)}, without measuring.
+     */
+    void deleteRuleCPT(BayesianNetwork bnt, CPTSource bn1, CPTSource bn2) {
+        deleteRuleCPT(bnt, bn1, bn2, null);
+    }
+
+    /**
+     * Copies the Conditional Probability Tables of the internal events from the network chosen by
+     * the {@link DeleteRule} when the plan was compiled.
+     * Implements the CPTs part of steps 6 and 7 of the Feng et al Algorithm as described in the lectures.
+     */
+    private void deleteRuleCPT(BayesianNetwork bnt, CPTSource bn1, CPTSource bn2, MergeStats stats) {
+        Log.info("Applying the delete rule on internal nodes and saving Conditional Probability Tables...");
+        for (int i = 0; i < internalLabels.length; i++) {
+            String label = internalLabels[i];
+            Log.debug("\t{} {}", label, internalRules[i].getDescription());
+            BayesianEvent bntEvent = bnt.getEvent(label);
+            CPTSource source = internalRules[i].isFromBN1() ? bn1 : bn2;
+            cpt(source, label, bntEvent.getParents().size()).writeTo(bntEvent);
+            MergeStats.count(stats, MergeStats.Counter.TABLE_LOOKUPS, 2L << bntEvent.getParents().size());
+        }
+    }
+
+    /**
+     * Same as {@link MergePlan#mergeCPTs(BayesianNetwork, CPTSource, CPTSource, MergeStats)}, without measuring.
+     */
+    void mergeCPTs(BayesianNetwork bnt, CPTSource bn1, CPTSource bn2) {
+        mergeCPTs(bnt, bn1, bn2, (MergeStats) null);
+    }
+
+    /**
+     * Same as {@link MergePlan#mergeCPTs(BayesianNetwork, CPTSource, CPTSource, ForkJoinPool, MergeStats)},
+     * without measuring.
+     */
+    void mergeCPTs(BayesianNetwork bnt, CPTSource bn1, CPTSource bn2, ForkJoinPool pool) {
+        mergeCPTs(bnt, bn1, bn2, pool, null);
+    }
+
+    /**
+     * Merges the Conditional Probabilities Tables of the external events.
+     * Implements step 10 of the Feng et al Algorithm as described in the lectures.
+     *
+     * @see MergePlan#mergeRows(int, CPT, CPT, CPT, int, int)
+     */
+    private void mergeCPTs(BayesianNetwork bnt, CPTSource bn1, CPTSource bn2, MergeStats stats) {
+        Log.info("Merging Conditional Probability Tables of external nodes...");
+        for (int i = 0; i < externalLabels.length; i++) {
+            String label = externalLabels[i];
+            Log.debug("\t{}", label);
+            mergeTable(i, bn1, bn2, stats).writeTo(bnt.getEvent(label));
+        }
+    }
+
+    /**
+     * Same as {@link MergePlan#mergeCPTs(BayesianNetwork, CPTSource, CPTSource, MergeStats)},
+     * but merges the tables in the given {@link ForkJoinPool}, with one {@link ExternalTask} per external event.
+     */
+    private void mergeCPTs(BayesianNetwork bnt, CPTSource bn1, CPTSource bn2, ForkJoinPool pool, MergeStats stats) {
+        Log.info("Merging Conditional Probability Tables of external nodes...");
+        ExternalTask[] tasks = new ExternalTask[externalLabels.length];
+        for (int i = 0; i < externalLabels.length; i++) {
+            Log.debug("\t{}", externalLabels[i]);
+            BayesianEvent bntEvent = bnt.getEvent(externalLabels[i]);
+            tasks[i] = new ExternalTask(i, bn1, bn2, new DenseCPT(bntParentCounts[i]), bntEvent, stats);
+        }
+
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+    }
+
+    /**
+     * Reads the table of the i-th external event in the first network.
+     */
+    private CPT bn1CPT(int i, CPTSource bn1) {
+        return cpt(bn1, externalLabels[i], bn1ParentCounts[i]);
+    }
+
+    /**
+     * Reads the table of the i-th external event in the second network.
+     */
+    private CPT bn2CPT(int i, CPTSource bn2) {
+        return cpt(bn2, externalLabels[i], bn2ParentCounts[i]);
+    }
+
+    /**
+     * Merges the Conditional Probability Table of the i-th external event, through decision diagrams if that is
+     * cheaper, see {@link MergePlan#mergeCompressed(int, CPT, CPT, CPT)}.
+     */
+    private DenseCPT mergeTable(int i, CPTSource bn1, CPTSource bn2, MergeStats stats) {
+        CPT bn1CPT = bn1CPT(i, bn1), bn2CPT = bn2CPT(i, bn2);
+        DenseCPT bntCPT = new DenseCPT(bntParentCounts[i]);
+        boolean compressed = mergeCompressed(i, bn1CPT, bn2CPT, bntCPT);
+        if (!compressed)
+            mergeRows(i, bn1CPT, bn2CPT, bntCPT, 0, bntCPT.getRowCount());
+        count(stats, i, compressed);
+        return bntCPT;
+    }
+
+    /**
+     * Counts the rows of the merged table of the i-th external event, and the probabilities read to merge them:
+     * two per row of the two tables to build their diagrams, or two per row of each table per merged row.
+     */
+    private void count(MergeStats stats, int i, boolean compressed) {
+        if (stats == null)
+            return;
+        MergeStats.count(stats, MergeStats.Counter.MERGED_ROWS, 1L << bntParentCounts[i]);
+        if (compressed) {
+            MergeStats.count(stats, MergeStats.Counter.COMPRESSED_TABLES, 1);
+            MergeStats.count(stats, MergeStats.Counter.TABLE_LOOKUPS,
+                    (2L << bn1ParentCounts[i]) + (2L << bn2ParentCounts[i]));
+        }
+        else
+            MergeStats.count(stats, MergeStats.Counter.TABLE_LOOKUPS, 4L << bntParentCounts[i]);
+    }
+
+    /**
+     * Merges the Conditional Probability Table of the i-th external event through the {@link DecisionDiagram}s of
+     * its two tables, if they are small enough that the merged diagram has far fewer nodes than the merged table
+     * has rows. Only the expansion of the merged diagram then takes time proportional to the rows, and it merely
+     * copies the leaves. The probabilities are combined exactly as by
+     * {@link MergePlan#mergeLine(int, CPT, int[], CPT, int[], CPT)}, so the result is the same.
+     *
+     * @param bntCPT the merged table to which the rows are written
+     * @return true iff the table was merged, false if the diagrams are too large to be worth it
+     */
+    private boolean mergeCompressed(int i, CPT bn1CPT, CPT bn2CPT, CPT bntCPT) {
+        if (bntParentCounts[i] < MIN_COMPRESSED_PARENTS)
+            return false;
+        DecisionDiagram bn1Diagram = DecisionDiagram.of(bn1CPT, bn1Positions[i], bntParentCounts[i]);
+        DecisionDiagram bn2Diagram = DecisionDiagram.of(bn2CPT, bn2Positions[i], bntParentCounts[i]);
+        if ((long) bn1Diagram.getNodeCount() * bn2Diagram.getNodeCount() > bn1Diagram.getRowCount() / 4)
+            return false;
+        DecisionDiagram.apply(bn1Diagram, bn2Diagram, MergePlan::combine).expandInto(bntCPT);
+        return true;
+    }
+
+    /**
+     * Merges the Conditional Probability Table of an external event into a {@link DecisionDiagram},
+     * whose size depends on the number of distinct contexts of the two tables rather than on the number of rows
+     * of the merged table, without expanding it.
+     *
+     * @param label the label of the external event
+     * @param bn1   the tables of the first network, with the structure of the one the plan was compiled from
+     * @param bn2   the tables of the second network, with the structure of the one the plan was compiled from
+     * @return the merged table, over the parents of the event in the merged network
+     * @throws IllegalArgumentException if the event is not external,
+     *                                  or one of the networks does not have the structure of the plan
+     */
+    public DecisionDiagram mergeDiagram(String label, CPTSource bn1, CPTSource bn2) {
+        Integer i = externalIndices.get(label);
+        if (i == null)
+            throw new IllegalArgumentException("Event \"" + label + "\" is not external");
+        return DecisionDiagram.apply(DecisionDiagram.of(bn1CPT(i, bn1), bn1Positions[i], bntParentCounts[i]),
+                DecisionDiagram.of(bn2CPT(i, bn2), bn2Positions[i], bntParentCounts[i]), MergePlan::combine);
+    }
+
+    /**
+     * Merges a range of rows of the Conditional Probability Table of the i-th external event.
+     * Every row of the merged table is computed with O(1) lookups in the two original tables.
+     * The rows are visited in the order of all permutations of {@link Merger#TRUE} and {@link Merger#FALSE}
+     * for the parents in the merged network.
+     *
+     * @param i      the index of the external event
+     * @param bn1CPT the table of the event in the first network
+     * @param bn2CPT the table of the event in the second network
+     * @param bntCPT the merged table to which the rows are written
+     * @param from   the first row to merge, inclusive
+     * @param to     the last row to merge, exclusive
+     * @see MergePlan#mergeLine(int, CPT, int[], CPT, int[], CPT)
+     */
+    private void mergeRows(int i, CPT bn1CPT, CPT bn2CPT, CPT bntCPT, int from, int to) {
+        for (int row = from; row < to; row++)
+            mergeLine(row, bn1CPT, bn1Masks[i], bn2CPT, bn2Masks[i], bntCPT);
+    }
+
+    /**
+     * Computes a line of the merged Conditional Probability Table.
+     * The row in the merged table is projected onto the rows of the two original tables,
+     * which are then combined and normalized.
+     *
+     * @param row      the row of the merged table to compute
+     * @param bn1CPT   the table of the event in BN1
+     * @param bn1Masks the masks that project rows of the merged table onto rows of {@code bn1CPT}
+     * @param bn2CPT   the table of the event in BN2
+     * @param bn2Masks the masks that project rows of the merged table onto rows of {@code bn2CPT}
+     * @param bntCPT   the merged table to which the line is written
+     * @see CPT#project(int, int[])
+     */
+    private static void mergeLine(int row, CPT bn1CPT, int[] bn1Masks, CPT bn2CPT, int[] bn2Masks,
+                                  CPT bntCPT) {
+        int bn1Row = CPT.project(row, bn1Masks), bn2Row = CPT.project(row, bn2Masks);
+
+        // Find the probabilities with the given arguments.
+        double p = combine(bn1CPT.get(bn1Row, TRUE), bn1CPT.get(bn1Row, FALSE),
+                bn2CPT.get(bn2Row, TRUE), bn2CPT.get(bn2Row, FALSE));
+        bntCPT.set(row, TRUE, p);
+        bntCPT.set(row, FALSE, 1 - p);
+    }
+
+    /**
+     * Combines the probabilities of a row of the two tables of an external event.
+     *
+     * @return the normalized probability of {@link Merger#TRUE} in the merged row
+     * @see DecisionDiagram.Combiner
+     */
+    private static double combine(double true1, double false1, double true2, double false2) {
+        double ptTrue = true1 + true2 - true1 * true2;
+        double ptFalse = false1 + false2 - false1 * false2;
+        return ptTrue / (ptTrue + ptFalse);  // normalized
+    }
+
+    /**
+     * Merges the Conditional Probability Table of one external event,
+     * and writes it to the merged network if it is given an event.
+     */
+    private class ExternalTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int i;
+        private final CPTSource bn1, bn2;
+        private final CPT bntCPT;
+        private final BayesianEvent bntEvent;
+        private final MergeStats stats;
+
+        private ExternalTask(int i, CPTSource bn1, CPTSource bn2, CPT bntCPT, BayesianEvent bntEvent,
+                             MergeStats stats) {
+            this.i = i;
+            this.bn1 = bn1;
+            this.bn2 = bn2;
+            this.bntCPT = bntCPT;
+            this.bntEvent = bntEvent;
+            this.stats = stats;
+        }
+
+        @Override
+        protected void compute() {
+            CPT bn1CPT = bn1CPT(i, bn1), bn2CPT = bn2CPT(i, bn2);
+            boolean compressed = mergeCompressed(i, bn1CPT, bn2CPT, bntCPT);
+            if (!compressed)
+                new RowsTask(i, bn1CPT, bn2CPT, bntCPT, 0, bntCPT.getRowCount()).compute();
+            count(stats, i, compressed);
+            if (bntEvent != null)
+                bntCPT.writeTo(bntEvent);
+        }
+    }
+
+    /**
+     * Merges a range of rows of the Conditional Probability Table of one external event,
+     * splitting the range in halves while it is larger than {@link MergePlan#MIN_PARALLEL_ROWS} and runs in a pool.
+     */
+    private class RowsTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int i, from, to;
+        private final CPT bn1CPT, bn2CPT;
+        private final CPT bntCPT;
+
+        private RowsTask(int i, CPT bn1CPT, CPT bn2CPT, CPT bntCPT, int from, int to) {
+            this.i = i;
+            this.bn1CPT = bn1CPT;
+            this.bn2CPT = bn2CPT;
+            this.bntCPT = bntCPT;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            // Outside a pool, forked halves would run in the common pool instead of the calling thread.
+            if (to - from <= MIN_PARALLEL_ROWS || !inForkJoinPool()) {
+                mergeRows(i, bn1CPT, bn2CPT, bntCPT, from, to);
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new RowsTask(i, bn1CPT, bn2CPT, bntCPT, from, middle),
+                    new RowsTask(i, bn1CPT, bn2CPT, bntCPT, middle, to));
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package main;
+
+import cpt.CPT;
+import cpt.CPTSource;
+import cpt.DenseCPT;
+import org.encog.ml.bayesian.BayesianEvent;
+import org.encog.ml.bayesian.BayesianNetwork;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps a merged network up to date while the two original networks are being edited.
+ * <p>
+ * A session holds the two original networks, the {@link MergePlan} compiled from them and the merged network.
+ * After the table of an event in one of the original networks is changed, {@link MergeSession#cptChanged}
+ * recomputes only the table of that event in the merged network, and only if the merged table depends on it:
+ * the table of an outside or internal event is copied again, the table of an external event is merged again.
+ * The tables of the original networks are cached, so the other tables are never read again.
+ * <p>
+ * After a dependency is added to or removed from one of the original networks, the sets of events may change,
+ * so {@link MergeSession#dependencyChanged} compiles the plan and merges the networks again.
+ * <p>
+ * The merged network returned by {@link MergeSession#getResult()} is updated in place until the next change of
+ * dependencies. A session is not thread-safe.
+ *
+ * @version 1.0
+ */
+public class MergeSession {
+
+    private final BayesianNetwork bn1, bn2;
+    private final TableCache bn1Tables, bn2Tables;
+    private MergePlan plan;
+    private BayesianNetwork bnt;
+
+    /**
+     * Merges the two given networks and starts a session on them.
+     *
+     * @param bn1 the first network
+     * @param bn2 the second network
+     */
+    public MergeSession(BayesianNetwork bn1, BayesianNetwork bn2) {
+        this.bn1 = bn1;
+        this.bn2 = bn2;
+        bn1Tables = new TableCache(bn1);
+        bn2Tables = new TableCache(bn2);
+        remerge();
+    }
+
+    /**
+     * @return the merged network, which is updated in place until the next call of
+     * {@link MergeSession#dependencyChanged(BayesianNetwork, String)}
+     */
+    public BayesianNetwork getResult() {
+        return bnt;
+    }
+
+    /**
+     * @return the plan the merged network was built from
+     */
+    public MergePlan getPlan() {
+        return plan;
+    }
+
+    /**
+     * Notifies the session that the Conditional Probability Table of an event in one of the original networks
+     * has changed, and updates the table of that event in the merged network if it depends on it.
+     *
+     * @param bn    the original network that was changed, which must be one of the two networks of the session
+     * @param label the label of the event whose table was changed
+     * @return true iff the merged network was changed
+     * @throws IllegalArgumentException if the network is not one of the two networks of the session,
+     *                                  or it has no event with the given label
+     */
+    public boolean cptChanged(BayesianNetwork bn, String label) {
+        boolean fromBN1 = isBN1(bn);
+        (fromBN1 ? bn1Tables : bn2Tables).invalidate(label);
+        if (!plan.readsTable(label, fromBN1))
+            return false;
+
+        plan.update(bnt, label, bn1Tables, bn2Tables);
+        return true;
+    }
+
+    /**
+     * Notifies the session that a dependency of an event in one of the original networks was added or removed.
+     * The plan is compiled again and a new merged network is built,
+     * so {@link MergeSession#getResult()} has to be called again.
+     *
+     * @param bn    the original network that was changed, which must be one of the two networks of the session
+     * @param label the label of the child of the changed dependency
+     * @return the new merged network
+     * @throws IllegalArgumentException if the network is not one of the two networks of the session
+     */
+    public BayesianNetwork dependencyChanged(BayesianNetwork bn, String label) {
+        (isBN1(bn) ? bn1Tables : bn2Tables).invalidate(label);
+        remerge();
+        return bnt;
+    }
+
+    private void remerge() {
+        plan = Merger.compile(bn1, bn2);
+        bnt = plan.execute(bn1Tables, bn2Tables, null);
+    }
+
+    private boolean isBN1(BayesianNetwork bn) {
+        if (bn == bn1)
+            return true;
+        if (bn == bn2)
+            return false;
+        throw new IllegalArgumentException("The network is not part of this session");
+    }
+
+    /**
+     * Reads the tables of a network once and keeps them until they are invalidated.
+     */
+    private static class TableCache implements CPTSource {
+
+        private final BayesianNetwork net;
+        private final Map<String, DenseCPT> tables = new HashMap<>();
+
+        private TableCache(BayesianNetwork net) {
+            this.net = net;
+        }
+
+        @Override
+        public CPT getCPT(String label) {
+            DenseCPT cpt = tables.get(label);
+            if (cpt == null) {
+                BayesianEvent e = net.getEventMap().get(label);
+                if (e == null)
+                    return null;
+                tables.put(label, cpt = DenseCPT.of(e));
+            }
+            return cpt;
+        }
+
+        private void invalidate(String label) {
+            if (!net.getEventMap().containsKey(label))
+                throw new IllegalArgumentException("Event \"" + label + "\" is not in the network");
+            tables.remove(label);
+        }
+    }
+}
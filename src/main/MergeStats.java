@@ -0,0 +1,329 @@
+package main;
+
+import util.Log;
+import util.PrintFormatting;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * Measurements of a merge: the wall time and the bytes allocated during each {@link Phase},
+ * and a number of {@link Counter}s.
+ * <p>
+ * A merge is measured when it is given a {@link MergeStats} to fill, see
+ * {@link Merger#merge(org.encog.ml.bayesian.BayesianNetwork, org.encog.ml.bayesian.BayesianNetwork, MergeStats)},
+ * or, for every merge, when measuring is enabled with {@link MergeStats#setEnabled(boolean)} or the system
+ * property {@code merge.stats}. Otherwise nothing is measured and the only cost is a null check per phase.
+ * The counters are computed from the structure of the merge, once per table at most, so measuring does not slow
+ * down the merge of the rows either.
+ * <p>
+ * The bytes allocated during a phase are those allocated by the thread that runs the merge and, for the phases
+ * that run in a {@link ForkJoinPool}, by the workers of that pool. Other merges that run at the same time in
+ * other threads are not included, but other work in the same pool is, as are the allocations of a worker that
+ * starts during the phase; those of a worker that ends during the phase are lost. They are -1 if the virtual
+ * machine cannot measure the thread that runs the merge.
+ * <p>
+ * The stats are given to a merge rather than returned with its result, so that a merge still returns only its
+ * network and several merges may be added to the same stats.
+ * <p>
+ * Every measured merge is also added to totals that are registered as a {@link MergeStatsMXBean}
+ * under {@link MergeStats#OBJECT_NAME} when the first merge is measured.
+ * A {@link MergeStats} may be read while it is filled, but should only be filled by one merge at a time.
+ *
+ * @version 1.1
+ */
+public final class MergeStats {
+
+    /**
+     * The phases of a merge, in the order in which they run.
+     */
+    public enum Phase {
+        BUILD_SETS, OUTSIDE_DEPENDENCIES, DELETE_RULE_DEPENDENCIES, EXTERNAL_DEPENDENCIES, FINALIZE_STRUCTURE,
+        CREATE_STRUCTURE, OUTSIDE_TABLES, DELETE_RULE_TABLES, EXTERNAL_TABLES, VALIDATE
+    }
+
+    /**
+     * What is counted during a merge.
+     */
+    public enum Counter {
+        /**
+         * The events of each class.
+         */
+        OUTSIDE_EVENTS, INTERNAL_EVENTS, EXTERNAL_EVENTS,
+        /**
+         * The internal events to which each case of the {@link DeleteRule} applies.
+         */
+        DELETE_RULE_A, DELETE_RULE_B, DELETE_RULE_C,
+        /**
+         * The rows of the merged tables of the external events, one per assignment of values to their parents.
+         */
+        MERGED_ROWS,
+        /**
+         * The merged tables that were merged through decision diagrams, see {@link MergePlan}.
+         */
+        COMPRESSED_TABLES,
+        /**
+         * The probabilities read from the tables of the two networks.
+         */
+        TABLE_LOOKUPS
+    }
+
+    /**
+     * The name under which the totals of all measured merges are registered.
+     */
+    public static final String OBJECT_NAME = "main:type=MergeStats";
+
+    private static volatile boolean enabled = Boolean.getBoolean("merge.stats");
+    private static final Totals TOTALS = new Totals();
+    private static boolean registered;
+
+    private final long[] nanos = new long[Phase.values().length], bytes = new long[Phase.values().length];
+    private final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param enabled whether to measure every merge, including those that are not given a {@link MergeStats}
+     */
+    public static void setEnabled(boolean enabled) {
+        MergeStats.enabled = enabled;
+    }
+
+    /**
+     * @return a new {@link MergeStats} if every merge is measured, null otherwise
+     */
+    static MergeStats ifEnabled() {
+        return enabled ? new MergeStats() : null;
+    }
+
+    /**
+     * Runs a phase of a merge in the calling thread, measuring it if there are stats to fill.
+     *
+     * @param stats  the stats to fill, or null
+     * @param phase  the phase
+     * @param action the work of the phase
+     */
+    static void measure(MergeStats stats, Phase phase, Runnable action) {
+        measure(stats, phase, null, action);
+    }
+
+    /**
+     * Runs a phase of a merge, measuring it if there are stats to fill.
+     *
+     * @param stats  the stats to fill, or null
+     * @param phase  the phase
+     * @param pool   the pool in which the phase runs part of its work, or null if it only runs in the calling thread
+     * @param action the work of the phase
+     */
+    static void measure(MergeStats stats, Phase phase, ForkJoinPool pool, Runnable action) {
+        if (stats == null) {
+            action.run();
+            return;
+        }
+        Map<Long, Long> startBytes = allocatedBytes(pool);
+        long start = System.nanoTime();
+        action.run();
+        stats.nanos[phase.ordinal()] += System.nanoTime() - start;
+        Map<Long, Long> endBytes = allocatedBytes(pool);
+        if (startBytes == null || endBytes == null || stats.bytes[phase.ordinal()] < 0) {
+            stats.bytes[phase.ordinal()] = -1;
+            return;
+        }
+        long total = 0;
+        for (Map.Entry<Long, Long> thread : endBytes.entrySet())
+            total += Math.max(0, thread.getValue() - startBytes.getOrDefault(thread.getKey(), 0L));
+        stats.bytes[phase.ordinal()] += total;
+    }
+
+    /**
+     * Same as {@link MergeStats#measure(MergeStats, Phase, Runnable)}, for a phase that computes something.
+     *
+     * @return the result of the phase
+     */
+    static <T> T compute(MergeStats stats, Phase phase, Supplier<T> action) {
+        if (stats == null)
+            return action.get();
+        Object[] result = new Object[1];
+        measure(stats, phase, () -> result[0] = action.get());
+        @SuppressWarnings("unchecked")
+        T t = (T) result[0];
+        return t;
+    }
+
+    /**
+     * Adds to a counter if there are stats to fill. May be called from any thread.
+     */
+    static void count(MergeStats stats, Counter counter, long delta) {
+        if (stats != null)
+            stats.counters.addAndGet(counter.ordinal(), delta);
+    }
+
+    /**
+     * @param pool the pool whose workers are measured too, or null
+     * @return the number of bytes allocated so far by the calling thread and the live workers of the pool,
+     * by thread id, or null if the calling thread cannot be measured
+     */
+    private static Map<Long, Long> allocatedBytes(ForkJoinPool pool) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean))
+            return null;
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        if (!allocations.isThreadAllocatedMemorySupported() || !allocations.isThreadAllocatedMemoryEnabled())
+            return null;
+
+        Thread current = Thread.currentThread();
+        Map<Long, Long> bytes = new HashMap<>();
+        long allocated = allocations.getThreadAllocatedBytes(current.getId());
+        if (allocated < 0)
+            return null;
+        bytes.put(current.getId(), allocated);
+        if (pool == null)
+            return bytes;
+
+        ThreadGroup root = current.getThreadGroup();
+        while (root.getParent() != null)
+            root = root.getParent();
+        // Room for the workers that start while the threads are listed.
+        Thread[] all = new Thread[root.activeCount() + pool.getParallelism()];
+        for (int i = 0, n = root.enumerate(all, true); i < n; i++) {
+            Thread thread = all[i];
+            if (thread != current && thread instanceof ForkJoinWorkerThread
+                    && ((ForkJoinWorkerThread) thread).getPool() == pool) {
+                allocated = allocations.getThreadAllocatedBytes(thread.getId());
+                // A worker that has ended in the meantime is not measured.
+                if (allocated >= 0)
+                    bytes.put(thread.getId(), allocated);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Adds a finished merge to the totals of the {@link MergeStatsMXBean}, registering it if necessary.
+     */
+    void finish() {
+        synchronized (TOTALS) {
+            if (!registered) {
+                registered = true;
+                try {
+                    ManagementFactory.getPlatformMBeanServer().registerMBean(TOTALS, new ObjectName(OBJECT_NAME));
+                }
+                catch (JMException e) {
+                    Log.warn("Could not register the merge statistics: {}", e);
+                }
+            }
+            TOTALS.add(this);
+        }
+    }
+
+    /**
+     * @return the wall time of the given phase, in nanoseconds
+     */
+    public long getNanos(Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    /**
+     * @return the number of bytes allocated during the given phase, or -1 if it could not be measured
+     */
+    public long getAllocatedBytes(Phase phase) {
+        return bytes[phase.ordinal()];
+    }
+
+    public long getCount(Counter counter) {
+        return counters.get(counter.ordinal());
+    }
+
+    /**
+     * @return the wall time of all phases, in nanoseconds
+     */
+    public long getTotalNanos() {
+        long total = 0;
+        for (long phase : nanos)
+            total += phase;
+        return total;
+    }
+
+    /**
+     * @return a table of the phases and the counters, one per line
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Phase phase : Phase.values())
+            sb.append(String.format(Locale.ROOT, "%-24s %10.3f ms %14d B",
+                    phase, getNanos(phase) / 1e6, getAllocatedBytes(phase))).append(PrintFormatting.NEW_LINE);
+        for (Counter counter : Counter.values())
+            sb.append(String.format(Locale.ROOT, "%-24s %14d", counter, getCount(counter)))
+                    .append(PrintFormatting.NEW_LINE);
+        return sb.toString();
+    }
+
+    /**
+     * The totals of all measured merges.
+     */
+    private static class Totals implements MergeStatsMXBean {
+
+        private long merges;
+        private final long[] nanos = new long[Phase.values().length], bytes = new long[Phase.values().length];
+        private final long[] counters = new long[Counter.values().length];
+
+        private synchronized void add(MergeStats stats) {
+            merges++;
+            for (int i = 0; i < nanos.length; i++) {
+                nanos[i] += stats.nanos[i];
+                bytes[i] = bytes[i] < 0 || stats.bytes[i] < 0 ? -1 : bytes[i] + stats.bytes[i];
+            }
+            for (int i = 0; i < counters.length; i++)
+                counters[i] += stats.counters.get(i);
+        }
+
+        @Override
+        public synchronized long getMergeCount() {
+            return merges;
+        }
+
+        @Override
+        public synchronized Map<String, Long> getPhaseNanos() {
+            return byName(Phase.values(), nanos);
+        }
+
+        @Override
+        public synchronized Map<String, Long> getPhaseAllocatedBytes() {
+            return byName(Phase.values(), bytes);
+        }
+
+        @Override
+        public synchronized Map<String, Long> getCounters() {
+            return byName(Counter.values(), counters);
+        }
+
+        private static Map<String, Long> byName(Enum<?>[] keys, long[] values) {
+            Map<String, Long> map = new LinkedHashMap<>();
+            for (Enum<?> key : keys)
+                map.put(key.name(), values[key.ordinal()]);
+            return map;
+        }
+
+        @Override
+        public synchronized void reset() {
+            merges = 0;
+            Arrays.fill(nanos, 0);
+            Arrays.fill(bytes, 0);
+            Arrays.fill(counters, 0);
+        }
+    }
+}
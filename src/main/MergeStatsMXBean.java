@@ -0,0 +1,35 @@
+package main;
+
+import java.util.Map;
+
+/**
+ * The totals of all measured merges, registered with the platform MBean server as {@link MergeStats#OBJECT_NAME}.
+ * The maps are keyed by the names of {@link MergeStats.Phase}s and {@link MergeStats.Counter}s.
+ *
+ * @version 1.0
+ * @see MergeStats
+ */
+public interface MergeStatsMXBean {
+
+    /**
+     * @return the number of measured merges
+     */
+    long getMergeCount();
+
+    /**
+     * @return the total wall time of every phase, in nanoseconds
+     */
+    Map<String, Long> getPhaseNanos();
+
+    /**
+     * @return the total number of bytes allocated during every phase, or -1 where it could not be measured
+     */
+    Map<String, Long> getPhaseAllocatedBytes();
+
+    Map<String, Long> getCounters();
+
+    /**
+     * Forgets all measured merges.
+     */
+    void reset();
+}
@@ -1,19 +1,35 @@
 package main;
 
+import cpt.CPTSource;
+import io.NetworkSnapshot;
+import org.encog.ml.bayesian.BayesianError;
 import org.encog.ml.bayesian.BayesianEvent;
 import org.encog.ml.bayesian.BayesianNetwork;
-import org.encog.ml.bayesian.table.TableLine;
+import util.Log;
+import util.NetworkValidator;
 
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
-
-import static util.PrintFormatting.print;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * An implementation of the Feng et al Algorithm as presented in the lectures.
  * The static method {@link Merger#merge(BayesianNetwork, BayesianNetwork)} should be called.
+ * When the same structures are merged repeatedly, {@link Merger#compile(BayesianNetwork, BayesianNetwork)}
+ * can be called once and the returned {@link MergePlan} executed for every merge.
+ * {@link Merger#merge(BayesianNetwork, BayesianNetwork, int)} merges the tables of the external events in parallel,
+ * and {@link Merger#mergeAll(List, int)} merges any number of networks.
+ * <p>
+ * The progress of a merge is logged with {@link Log}: every phase at {@link Log.Level#INFO}
+ * and every event at {@link Log.Level#DEBUG}.
+ * <p>
+ * Only boolean events can be merged. The events of the merged network are all boolean, and the tables of the two
+ * networks, including the ones that are only copied, are read as {@link cpt.DenseCPT}s, which reject an event
+ * with any other number of outcomes.
  *
- * @version 3.0
+ * @version 3.14
  */
 public class Merger {
 
@@ -37,26 +53,191 @@ public class Merger {
      * @param bn1 the first {@link BayesianNetwork} to merge
      * @param bn2 the second {@link BayesianNetwork} to merge
      * @return the resulting merged {@link BayesianNetwork}
+     * @throws IllegalArgumentException if an event of one of the networks is not boolean
      */
     public static BayesianNetwork merge(BayesianNetwork bn1, BayesianNetwork bn2) {
-        Merger m = new Merger(bn1, bn2);
-        m.buildSets();
+        return merge(bn1, bn2, MergeStats.ifEnabled());
+    }
 
-        m.addOutsideDependencies();
-        m.deleteRuleDependencies();
-        m.mergeDependencies();
-        m.BNT.finalizeStructure();
+    /**
+     * Same as {@link Merger#merge(BayesianNetwork, BayesianNetwork)}, but measures the merge.
+     *
+     * @param bn1   the first {@link BayesianNetwork} to merge
+     * @param bn2   the second {@link BayesianNetwork} to merge
+     * @param stats the {@link MergeStats} to which the measurements are added, or null to measure nothing
+     * @return the resulting merged {@link BayesianNetwork}
+     */
+    public static BayesianNetwork merge(BayesianNetwork bn1, BayesianNetwork bn2, MergeStats stats) {
+        return execute(compile(bn1, bn2, stats), CPTSource.of(bn1), CPTSource.of(bn2), null, stats);
+    }
 
-        m.addOutsideCPT();
-        m.deleteRuleCPT();
-        m.mergeCPTs();
-        m.BNT.validate();
+    /**
+     * Same as {@link Merger#merge(BayesianNetwork, BayesianNetwork)}, but merges the Conditional Probability Tables
+     * of the external events in a {@link ForkJoinPool} with the given parallelism.
+     * The resulting network is identical to the one computed sequentially.
+     *
+     * @param bn1         the first {@link BayesianNetwork} to merge
+     * @param bn2         the second {@link BayesianNetwork} to merge
+     * @param parallelism the number of threads used to merge the tables
+     * @return the resulting merged {@link BayesianNetwork}
+     * @see MergePlan#execute(BayesianNetwork, BayesianNetwork, ForkJoinPool)
+     */
+    public static BayesianNetwork merge(BayesianNetwork bn1, BayesianNetwork bn2, int parallelism) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            MergeStats stats = MergeStats.ifEnabled();
+            return execute(compile(bn1, bn2, stats), CPTSource.of(bn1), CPTSource.of(bn2), pool, stats);
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
 
-        return m.BNT;
+    /**
+     * Merges all the given {@link BayesianNetwork}s, using as many threads as there are processors.
+     *
+     * @param networks the networks to merge
+     * @return the resulting merged {@link BayesianNetwork}
+     * @see Merger#mergeAll(List, int)
+     */
+    public static BayesianNetwork mergeAll(List<BayesianNetwork> networks) {
+        return mergeAll(networks, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Merges all the given {@link BayesianNetwork}s as a balanced reduction tree in a {@link ForkJoinPool}
+     * with the given parallelism. The given networks are not changed.
+     * <p>
+     * The list is split at its middle, both halves are merged recursively and in parallel, and the two results
+     * are merged by compiling a {@link MergePlan} for them, creating its structure and updating its tables,
+     * the tables of external events in the same pool. The networks earlier in the list are always the first
+     * operand. With K networks, the longest chain of merges is about log2(K) long.
+     * <p>
+     * The intermediate networks are the operands of the next level as they are, and are neither validated nor
+     * measured by {@link MergeStats}; only the final network is validated. Nothing else is reused between
+     * levels: the operands of every merge have structures of their own, so every merge compiles its own plan.
+     * <p>
+     * The Feng et al merge is not associative, so the result generally differs from the left fold
+     * {@code merge(merge(merge(bn1, bn2), bn3), ...)}. Whether an event is internal or external depends on the
+     * intersection of the two operands, which are different groups of networks in the two orders;
+     * the combined probabilities of external events are normalized after every merge;
+     * and the DELETE RULE compares numbers of parents that grow as networks are merged.
+     * Events that appear in only one of the networks are copied unchanged in both orders.
+     * For two networks the result is exactly {@link Merger#merge(BayesianNetwork, BayesianNetwork)}.
+     *
+     * @param networks    the networks to merge, at least one
+     * @param parallelism the number of threads used to merge
+     * @return the resulting merged {@link BayesianNetwork}, or the only network if there is just one
+     * @throws IllegalArgumentException if there are no networks
+     */
+    public static BayesianNetwork mergeAll(List<BayesianNetwork> networks, int parallelism) {
+        if (networks.isEmpty())
+            throw new IllegalArgumentException("There are no networks to merge");
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            BayesianNetwork bnt = pool.invoke(new ReductionTask(networks, 0, networks.size(), pool));
+            NetworkValidator.validate(bnt, pool);
+            return bnt;
+        }
+        finally {
+            pool.shutdown();
+        }
     }
 
     /**
-     * References to the two given {@link BayesianNetwork}s and the one containing the merge result.
+     * Merges the structures of the two given {@link BayesianNetwork}s, but merges the rows of the Conditional
+     * Probability Tables of the external events only when they are read, see {@link LazyMerge}.
+     * The two given networks must not change while the merged tables are being read.
+     *
+     * @param bn1      the first {@link BayesianNetwork} to merge
+     * @param bn2      the second {@link BayesianNetwork} to merge
+     * @param memoRows the number of merged rows to keep per external event
+     * @return the tables of the merged network
+     * @see MergePlan#executeLazy(CPTSource, CPTSource, int)
+     */
+    public static LazyMerge mergeLazy(BayesianNetwork bn1, BayesianNetwork bn2, int memoRows) {
+        return compile(bn1, bn2).executeLazy(CPTSource.of(bn1), CPTSource.of(bn2), memoRows);
+    }
+
+    /**
+     * Merges the two networks stored in the given {@link NetworkSnapshot}s and returns the resulting one.
+     * Only the structures of the two networks are built as encog objects,
+     * their tables are read straight from the mapped snapshot files.
+     *
+     * @param bn1 the snapshot of the first {@link BayesianNetwork} to merge
+     * @param bn2 the snapshot of the second {@link BayesianNetwork} to merge
+     * @return the resulting merged {@link BayesianNetwork}
+     */
+    public static BayesianNetwork merge(NetworkSnapshot bn1, NetworkSnapshot bn2) {
+        MergeStats stats = MergeStats.ifEnabled();
+        return execute(compile(bn1.createStructure(), bn2.createStructure(), stats), bn1, bn2, null, stats);
+    }
+
+    /**
+     * Executes a plan and adds the measurements of the whole merge to the totals of {@link MergeStats}.
+     */
+    private static BayesianNetwork execute(MergePlan plan, CPTSource bn1, CPTSource bn2, ForkJoinPool pool,
+                                           MergeStats stats) {
+        BayesianNetwork bnt = plan.execute(bn1, bn2, pool, stats);
+        if (stats != null)
+            stats.finish();
+        return bnt;
+    }
+
+    /**
+     * Does the structural part of merging the two given {@link BayesianNetwork}s:
+     * builds the sets of events, applies the DELETE RULE and adds the dependencies of the merged network.
+     * The returned {@link MergePlan} can then be executed against these two networks,
+     * or any other two with the same structure, to fill in the Conditional Probability Tables.
+     * The two given networks are not changed.
+     *
+     * @param bn1 the first {@link BayesianNetwork} to merge
+     * @param bn2 the second {@link BayesianNetwork} to merge
+     * @return the compiled {@link MergePlan}
+     * @throws BayesianError if the merged network would have a cycle, which is then described in the message.
+     *                       The first dependency that closes a cycle is rejected as soon as it is added.
+     */
+    public static MergePlan compile(BayesianNetwork bn1, BayesianNetwork bn2) {
+        return compile(bn1, bn2, null);
+    }
+
+    /**
+     * Same as {@link Merger#compile(BayesianNetwork, BayesianNetwork)}, measuring every phase and counting
+     * the events of every class and every case of the {@link DeleteRule} if there are stats to fill.
+     */
+    static MergePlan compile(BayesianNetwork bn1, BayesianNetwork bn2, MergeStats stats) {
+        Merger m = new Merger(bn1, bn2);
+        MergeStats.measure(stats, MergeStats.Phase.BUILD_SETS, m::buildSets);
+
+        MergeStats.measure(stats, MergeStats.Phase.OUTSIDE_DEPENDENCIES, m::addOutsideDependencies);
+        MergeStats.measure(stats, MergeStats.Phase.DELETE_RULE_DEPENDENCIES, m::deleteRuleDependencies);
+        MergeStats.measure(stats, MergeStats.Phase.EXTERNAL_DEPENDENCIES, m::mergeDependencies);
+        MergeStats.measure(stats, MergeStats.Phase.FINALIZE_STRUCTURE, m.BNT::finalizeStructure);
+        if (stats != null)
+            m.count(stats);
+
+        String[] order = new String[m.graph.size()];
+        for (int i = 0; i < order.length; i++)
+            order[i] = m.graph.getLabel(m.order.order()[i]);
+        return new MergePlan(m.graph, m.BNT, order, m.Z, m.internal, m.external, m.outside, m.deleteRules);
+    }
+
+    /**
+     * Runs only {@link Merger#buildSets()} on the two given networks, so that it can be measured in isolation.
+     *
+     * @param bn1 the first {@link BayesianNetwork}
+     * @param bn2 the second {@link BayesianNetwork}
+     * @return the {@link DeleteRule} applied to each internal event
+     */
+    static LinkedHashMap<String, DeleteRule> buildSets(BayesianNetwork bn1, BayesianNetwork bn2) {
+        Merger m = new Merger(bn1, bn2);
+        m.buildSets();
+        return m.deleteRules;
+    }
+
+    /**
+     * References to the two given {@link BayesianNetwork}s and the one containing the structure of the merge result.
      */
     private final BayesianNetwork BN1, BN2, BNT = new BayesianNetwork();
     /**
@@ -75,6 +256,19 @@ public class Merger {
      * The set of labels of the intersection events.
      */
     private final LinkedHashSet<String> Z = new LinkedHashSet<>();
+    /**
+     * The {@link DeleteRule} applied to each internal event.
+     */
+    private final LinkedHashMap<String, DeleteRule> deleteRules = new LinkedHashMap<>();
+    /**
+     * The interned structures of the two networks, and the events of {@link Merger#BNT} by their ids in it.
+     */
+    private MergeGraph graph;
+    private BayesianEvent[] bntEvents;
+    /**
+     * The topological order of {@link Merger#BNT}, kept up to date as dependencies are added to it.
+     */
+    private DependencyOrder order;
 
     /**
      * Constructor used to create an instance of this class internally.
@@ -88,91 +282,74 @@ public class Merger {
     }
 
     /**
-     * Fills the intersection set {@link Merger#Z} with the labels of events found in both networks.
-     */
-    private void determineIntersection() {
-        print("Determining intersection...");
-        Z.addAll(BN1.getEventMap().keySet());
-        Z.retainAll(BN2.getEventMap().keySet());
-    }
-
-    /**
-     * Within the given {@link BayesianNetwork},
-     * gets the {@link BayesianEvent} associated with this label and retrieves its parent events.
-     * Returns true if all of these parents are within the intersection set {@link Merger#Z}.
-     *
-     * @param bn    the {@link BayesianNetwork} to look in
-     * @param label the label of the {@link BayesianEvent} to look for
-     * @return true iff all parents of the {@link BayesianEvent} are inside the intersection set {@link Merger#Z}
-     */
-    private boolean parentsInIntersection(BayesianNetwork bn, String label) {
-        for (BayesianEvent bn1Parent : bn.getEvent(label).getParents()) {
-            // If there is a parent that is not in the intersection, return false.
-            if (!Z.contains(bn1Parent.getLabel()))
-                return false;
-        }
-
-        // All parents are in the intersection, return true.
-        return true;
-    }
-
-    /**
-     * Calls {@link Merger#determineIntersection()} and fills the sets used by the algorithm.
+     * Builds the {@link MergeGraph} of the two networks, which classifies their events,
+     * and fills the sets used by the algorithm in the order of the graph.
      * Implements steps 2 and 3 of the Feng et al Algorithm as described in the lectures.
+     * Also decides which {@link DeleteRule} applies to each internal event,
+     * so that the parents of every event are checked only once.
+     * The events of the merged network are created in the order internal, external, outside.
      *
      * @see Merger#internal
      * @see Merger#external
      * @see Merger#outside
+     * @see Merger#deleteRules
      */
     private void buildSets() {
-        print("Building sets of nodes...");
-        determineIntersection();
-        print("Sorting out internal and external nodes...");
-        for (String label : Z) {
-            // All parents from BN1 are in the intersection.
-            if (parentsInIntersection(BN1, label)) {
+        Log.info("Building sets of nodes...");
+        Log.info("Determining intersection...");
+        graph = new MergeGraph(BN1, BN2);
+        order = new DependencyOrder(graph.size(), graph::getLabel);
+        Log.info("Sorting out internal and external nodes...");
+        for (int id : graph.intersectionOrder()) {
+            String label = graph.getLabel(id);
+            Z.add(label);
+            if (graph.isExternal(id))
+                external.add(label);
+            else {
                 internal.add(label);
-                continue;
+                deleteRules.put(label, graph.getDeleteRule(id));
             }
-            // All parents from BN2 are in the intersection.
-            if (parentsInIntersection(BN2, label))
-                internal.add(label);
-                // Neither the BN1 parents, nor the BN2 parents are in the intersection.
-            else external.add(label);
         }
+        for (int id : graph.outsideOrder())
+            outside.add(graph.getLabel(id));
+
+        Log.info("Adding the nodes to BNT...");
+        bntEvents = new BayesianEvent[graph.size()];
+        Log.debug("internal: {}", internal);
+        Log.debug("external: {}", external);
+        for (int pass = 0; pass < 2; pass++)
+            for (int id : graph.intersectionOrder())
+                if (graph.isExternal(id) == (pass == 1))
+                    bntEvents[id] = BNT.createEvent(graph.getLabel(id));
+        Log.debug("non-intersection: {}", outside);
+        for (int id : graph.outsideOrder())
+            bntEvents[id] = BNT.createEvent(graph.getLabel(id));
+    }
 
-        BN1.getEvents().forEach(e -> {
-            if (!Z.contains(e.getLabel()))
-                outside.add(e.getLabel());
-        });
-        BN2.getEvents().forEach(e -> {
-            if (!Z.contains(e.getLabel()))
-                outside.add(e.getLabel());
-        });
-
-        print("Adding the nodes to BNT...");
-        print("internal:", internal);
-        internal.forEach(BNT::createEvent);
-        print("external:", external);
-        external.forEach(BNT::createEvent);
-        print("non-intersection:", outside);
-        outside.forEach(BNT::createEvent);
+    /**
+     * Counts the events of every class and the internal events of every case of the {@link DeleteRule}.
+     */
+    private void count(MergeStats stats) {
+        MergeStats.count(stats, MergeStats.Counter.OUTSIDE_EVENTS, outside.size());
+        MergeStats.count(stats, MergeStats.Counter.INTERNAL_EVENTS, internal.size());
+        MergeStats.count(stats, MergeStats.Counter.EXTERNAL_EVENTS, external.size());
+        for (DeleteRule rule : deleteRules.values())
+            MergeStats.count(stats, rule == DeleteRule.CASE_A ? MergeStats.Counter.DELETE_RULE_A
+                    : rule == DeleteRule.CASE_B ? MergeStats.Counter.DELETE_RULE_B
+                    : MergeStats.Counter.DELETE_RULE_C, 1);
     }
 
     /**
-     * Retrieves the {@link BayesianEvent} associated with the given label.
-     * First checks if the event is in {@link Merger#BN1} and returns that on true.
-     * Otherwise it returns the event from {@link Merger#BN2}.
-     * <p>
-     * This method is meant to be used for labels from {@link Merger#outside} - the set of nodes outside the intersection.
+     * Adds a dependency to {@link Merger#BNT} from every parent of the given event in one of the networks.
      *
-     * @param label the label of the event to look for.
-     * @return the {@link BayesianEvent} with the given label
+     * @throws BayesianError if a dependency closes a cycle, see {@link DependencyOrder#add(int, int)}
      */
-    private BayesianEvent getOldEvent(String label) {
-        if (BN1.getEventMap().containsKey(label))
-            return BN1.getEvent(label);
-        else return BN2.getEvent(label);
+    private void addParents(int id, boolean fromBN1) {
+        int[] offsets = graph.parentOffsets(fromBN1), parents = graph.parents(fromBN1);
+        for (int j = offsets[id]; j < offsets[id + 1]; j++) {
+            order.add(parents[j], id);
+            BNT.createDependency(bntEvents[parents[j]], bntEvents[id]);
+        }
     }
 
     /**
@@ -181,27 +358,11 @@ public class Merger {
      * Implements the dependencies part of step 4 of the Feng et al Algorithm as described in the lectures.
      */
     private void addOutsideDependencies() {
-        print("Adding dependencies of non-intersection nodes...");
-        outside.forEach(label -> {
-            print("\t" + label);
-            getOldEvent(label).getParents().forEach(parent -> BNT.createDependency(parent.getLabel(), label));
-        });
-    }
-
-    /**
-     * Adds the Conditional Probability Tables of events outside the intersection set.
-     * The CPTs are added to {@link Merger#BNT}.
-     * Implements the CPTs part of step 4 of the Feng et al Algorithm as described in the lectures.
-     */
-    private void addOutsideCPT() {
-        print("Adding the Conditional Probability Tables of non-intersection nodes...");
-        outside.forEach(label -> {
-            print("\t" + label);
-            BayesianEvent oldEvent = getOldEvent(label);
-            List<TableLine> lines = BNT.getEvent(label).getTable().getLines();
-            lines.clear();
-            lines.addAll(oldEvent.getTable().getLines());
-        });
+        Log.info("Adding dependencies of non-intersection nodes...");
+        for (int id : graph.outsideOrder()) {
+            Log.debug("\t{}", graph.getLabel(id));
+            addParents(id, graph.isInBN1(id));
+        }
     }
 
     /**
@@ -210,67 +371,14 @@ public class Merger {
      * Implements the dependencies part of steps 6 and 7 of the Feng et al Algorithm as described in the lectures.
      */
     private void deleteRuleDependencies() {
-        print("Applying the delete rule on internal nodes and saving dependencies...");
-        internal.forEach(label -> {
-            List<BayesianEvent> bn1EventParents = BN1.getEvent(label).getParents();
-            if (!parentsInIntersection(BN1, label)) {
-                print("\t" + label + " CASE A, saving node from BN1");
-                bn1EventParents.forEach(parent -> BNT.createDependency(parent.getLabel(), label));
-                return;
-            }
-
-            List<BayesianEvent> bn2EventParents = BN2.getEvent(label).getParents();
-            if (!parentsInIntersection(BN2, label)) {
-                print("\t" + label + " CASE B, saving node from BN2");
-                bn2EventParents.forEach(parent -> BNT.createDependency(parent.getLabel(), label));
-                return;
-            }
-
-            if (bn1EventParents.size() < bn2EventParents.size()) {
-                print("\t" + label + " CASE C, more parents in BN2, saving node from BN2");
-                bn2EventParents.forEach(parent -> BNT.createDependency(parent.getLabel(), label));
-            }
-            else {  // Default to BN1 if the number of parents is equal
-                print("\t" + label + " CASE C, more parents in BN1, saving node from BN1");
-                bn1EventParents.forEach(parent -> BNT.createDependency(parent.getLabel(), label));
-            }
-        });
-    }
-
-    /**
-     * Iterates the {@link Merger#internal} events and chooses which Conditional Probability Tables to add to
-     * {@link Merger#BNT} based on the DELETE RULE described in the lectures.
-     * Implements the CPTs part of steps 6 and 7 of the Feng et al Algorithm as described in the lectures.
-     */
-    private void deleteRuleCPT() {
-        print("Applying the delete rule on internal nodes and saving Conditional Probability Tables...");
-        internal.forEach(label -> {
-            // Clear CPT in BNT's event.
-            List<TableLine> lines = BNT.getEvent(label).getTable().getLines();
-            lines.clear();
-
-            BayesianEvent bn1Event = BN1.getEvent(label);
-            if (!parentsInIntersection(BN1, label)) {
-                print("\t" + label + " CASE A, saving node from BN1");
-                lines.addAll(bn1Event.getTable().getLines());
-                return;
-            }
-            BayesianEvent bn2Event = BN2.getEvent(label);
-            if (!parentsInIntersection(BN2, label)) {
-                print("\t" + label + " CASE B, saving node from BN2");
-                lines.addAll(bn2Event.getTable().getLines());
-                return;
-            }
-
-            if (bn1Event.getParents().size() < bn2Event.getParents().size()) {
-                print("\t" + label + " CASE C, more parents in BN2, saving node from BN2");
-                lines.addAll(bn2Event.getTable().getLines());
-            }
-            else {  // Default to BN1 if the number of parents is equal
-                print("\t" + label + " CASE C, more parents in BN1, saving node from BN1");
-                lines.addAll(bn1Event.getTable().getLines());
-            }
-        });
+        Log.info("Applying the delete rule on internal nodes and saving dependencies...");
+        for (int id : graph.intersectionOrder()) {
+            if (!graph.isInternal(id))
+                continue;
+            DeleteRule rule = graph.getDeleteRule(id);
+            Log.debug("\t{} {}", graph.getLabel(id), rule.getDescription());
+            addParents(id, rule.isFromBN1());
+        }
     }
 
     /**
@@ -278,105 +386,52 @@ public class Merger {
      * Implements step 9 of the Feng et al Algorithm as described in the lectures.
      */
     private void mergeDependencies() {
-        print("Adding all dependencies of external nodes...");
-        external.forEach(label -> {
-            print("\t" + label);
-            BN1.getEvent(label).getParents().forEach(parent -> BNT.createDependency(parent.getLabel(), label));
-            BN2.getEvent(label).getParents().forEach(parent -> BNT.createDependency(parent.getLabel(), label));
-        });
-    }
-
-    /**
-     * Iterates the {@link Merger#external} events, merges their Conditional Probabilities Tables, and adds the
-     * created CPTs to {@link Merger#BNT}.
-     * Implements step 10 of the Feng et al Algorithm as described in the lectures.
-     * <br>
-     * Recursively goes through all permutations of values for the parents in {@link Merger#BNT}.
-     *
-     * @see Merger#recursePermutations(int[], int, String)
-     */
-    private void mergeCPTs() {
-        print("Merging Conditional Probability Tables of external nodes...");
-        external.forEach(label -> {
-            print("\t" + label);
-            int[] args = new int[BNT.getEvent(label).getParents().size()];
-            int startIndex = 0;
-            recursePermutations(args, startIndex, label);
-        });
+        Log.info("Adding all dependencies of external nodes...");
+        for (int id : graph.intersectionOrder()) {
+            if (!graph.isExternal(id))
+                continue;
+            Log.debug("\t{}", graph.getLabel(id));
+            addParents(id, true);
+            addParents(id, false);
+        }
     }
 
     /**
-     * Recursively fills the given array with all possible permutations of {@link Merger#TRUE} and {@link Merger#FALSE}.
-     * When the array is filled, the current permutation is a key for the CPT of the {@link BayesianEvent} with the
-     * given label in {@link Merger#BNT}.
+     * Merges a range of networks as a balanced reduction tree.
+     * The merged networks are validated only once, at the root of the tree.
      *
-     * @param args  the array to be filled
-     * @param index the current index to put a value at
-     * @param label the label of the {@link BayesianEvent}
-     * @see Merger#mergeLine(int[], String)
+     * @see Merger#mergeAll(List, int)
      */
-    private void recursePermutations(int[] args, int index, String label) {
-        if (index == args.length) {
-            mergeLine(args, label);
-            return;
-        }
+    private static class ReductionTask extends RecursiveTask<BayesianNetwork> {
 
-        args[index] = TRUE;
-        recursePermutations(args, index + 1, label);
+        private static final long serialVersionUID = 1L;
 
-        args[index] = FALSE;
-        recursePermutations(args, index + 1, label);
-    }
-
-    /**
-     * Adds a line to the CPT of the {@link BayesianEvent} with the given label in {@link Merger#BNT}.
-     * The arguments of the line are in the given array.
-     * This method iterates the parents of the {@link BayesianEvent} in {@link Merger#BN1} and in {@link Merger#BN2}
-     * and constructs two arrays to be used as arguments when accessing the original CPTs of the {@link BayesianEvent}.
-     * The values in the arrays correspond to values in the given array.
-     *
-     * @param args  the arguments used to access the CPT of the {@link BayesianEvent}
-     * @param label the label of the {@link BayesianEvent}
-     */
-    private void mergeLine(int[] args, String label) {
-        List<BayesianEvent> bn1Parents = BN1.getEvent(label).getParents();
-        List<BayesianEvent> bn2Parents = BN2.getEvent(label).getParents();
-        List<BayesianEvent> bntParents = BNT.getEvent(label).getParents();
-        int[] argsInBN1 = new int[bn1Parents.size()];
-        int[] argsInBN2 = new int[bn2Parents.size()];
-
-        // Iterate the parents in BNT, and set the args in BN1 and BN2
-        for (int bnti = 0; bnti < bntParents.size(); bnti++) {
-            String plabel = bntParents.get(bnti).getLabel();
-
-            // Find the matching parent in BN1
-            for (int bn1i = 0; bn1i < bn1Parents.size(); bn1i++) {
-                if (bn1Parents.get(bn1i).getLabel().equals(plabel)) {
-                    // and set the appropriate index
-                    argsInBN1[bn1i] = args[bnti];
-                    break;
-                }
-            }
+        private final List<BayesianNetwork> networks;
+        private final int from, to;
+        private final ForkJoinPool pool;
 
-            // Find the matching parent in BN2
-            for (int bn2i = 0; bn2i < bn2Parents.size(); bn2i++) {
-                if (bn2Parents.get(bn2i).getLabel().equals(plabel)) {
-                    // and set the appropriate index
-                    argsInBN2[bn2i] = args[bnti];
-                    break;
-                }
-            }
+        private ReductionTask(List<BayesianNetwork> networks, int from, int to, ForkJoinPool pool) {
+            this.networks = networks;
+            this.from = from;
+            this.to = to;
+            this.pool = pool;
         }
 
-        // Find the probabilities with the given arguments.
-        double p1, p2, ptTrue, ptFalse;
-        p1 = BN1.getEvent(label).getTable().findLine(TRUE, argsInBN1).getProbability();
-        p2 = BN2.getEvent(label).getTable().findLine(TRUE, argsInBN2).getProbability();
-        ptTrue = p1 + p2 - p1 * p2;
-        p1 = BN1.getEvent(label).getTable().findLine(FALSE, argsInBN1).getProbability();
-        p2 = BN2.getEvent(label).getTable().findLine(FALSE, argsInBN2).getProbability();
-        ptFalse = p1 + p2 - p1 * p2;
-        double p = ptTrue / (ptTrue + ptFalse);  // normalized
-        BNT.getEvent(label).getTable().addLine(p, TRUE, args);
+        @Override
+        protected BayesianNetwork compute() {
+            if (to - from == 1)
+                return networks.get(from);
+
+            int middle = (from + to) >>> 1;
+            ReductionTask left = new ReductionTask(networks, from, middle, pool);
+            left.fork();
+            BayesianNetwork bn2 = new ReductionTask(networks, middle, to, pool).compute();
+            BayesianNetwork bn1 = left.join();
+
+            MergePlan plan = compile(bn1, bn2);
+            BayesianNetwork bnt = plan.createStructure();
+            plan.update(bnt, bn1, bn2, pool);
+            return bnt;
+        }
     }
 }
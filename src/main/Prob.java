@@ -1,88 +1,192 @@
 package main;
 
+import io.CPTRenderer;
+import io.NetworkSnapshot;
+import io.XMLBIFReader;
+import io.XMLBIFWriter;
 import networks.Creator;
 import org.encog.ml.bayesian.BayesianEvent;
 import org.encog.ml.bayesian.BayesianNetwork;
 
-import static main.Merger.FALSE;
-import static main.Merger.TRUE;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static util.PrintFormatting.NEW_LINE;
 import static util.PrintFormatting.print;
 
 /**
  * The class with the executable main method.
  *
- * @version 2.2
+ * @version 2.8
  */
 public class Prob {
 
+    /**
+     * The extension of files with binary {@link NetworkSnapshot}s.
+     */
+    public static final String SNAPSHOT_EXTENSION = ".bns";
+
     /**
      * Creates and returns a printable {@link String} that contains the full Conditional Probability Table
      * of the given {@link BayesianEvent} as well as the labels of parent events.
+     * For large tables, stream them with {@link CPTRenderer#render(BayesianEvent, Appendable)} instead.
      *
      * @param e the {@link BayesianEvent} for which to build a {@link String}
      * @return the {@link String} representation of the given {@link BayesianEvent} as described above
-     * @see BayesianEvent#getParents()
-     * @see BayesianEvent#getLabel()
+     * @see CPTRenderer#DEFAULT
      */
     public static String getCPT(BayesianEvent e) {
-        StringBuilder sb = new StringBuilder();
-        String label = e.getLabel();
-        sb.append(label + "\n");
-
-        // If there are parents, add them in a line.
-        if (e.getParents().size() > 0) {
-            e.getParents().forEach(p -> sb.append(p.getLabel() + ", "));
-            // Remove the space and the comma.
-            sb.deleteCharAt(sb.length() - 1);
-            sb.deleteCharAt(sb.length() - 1);
-            sb.append("\n");
+        return CPTRenderer.DEFAULT.toString(e);
+    }
+
+    /**
+     * Streams the tables of all the events of a network, in braces after its name.
+     *
+     * @param name     the name of the network
+     * @param net      the {@link BayesianNetwork} to print
+     * @param renderer how to render every table
+     * @param out      where to print the network
+     * @throws IOException if the network cannot be printed
+     */
+    private static void printNetwork(String name, BayesianNetwork net, CPTRenderer renderer, Writer out)
+            throws IOException {
+        out.write(name + " {" + NEW_LINE);
+        for (BayesianEvent e : net.getEvents()) {
+            renderer.render(e, out);
+            out.write(NEW_LINE);
         }
+    }
+
+    /**
+     * Reads a network from the file at the given path.
+     * The format is chosen by the extension of the file: a {@link NetworkSnapshot} for {@link Prob#SNAPSHOT_EXTENSION},
+     * otherwise XMLBIF, which may be gzip-compressed.
+     *
+     * @param path the path of the file to read
+     * @return the network in the file
+     * @throws IOException if the file cannot be read
+     */
+    static BayesianNetwork read(Path path) throws IOException {
+        if (path.getFileName().toString().endsWith(SNAPSHOT_EXTENSION))
+            return NetworkSnapshot.load(path).toNetwork();
+        return XMLBIFReader.read(path);
+    }
+
+    /**
+     * Writes the merged network to the file at the given path.
+     * The format is chosen by the extension of the file: a {@link NetworkSnapshot} for {@link Prob#SNAPSHOT_EXTENSION},
+     * otherwise XMLBIF.
+     *
+     * @param bnt  the merged {@link BayesianNetwork}
+     * @param path the path of the file to write
+     * @throws IOException if the file cannot be written
+     */
+    static void write(BayesianNetwork bnt, Path path) throws IOException {
+        if (path.getFileName().toString().endsWith(SNAPSHOT_EXTENSION))
+            NetworkSnapshot.write(bnt, path);
+        else XMLBIFWriter.write(bnt, "BNT", path);
+    }
+
+    /**
+     * @param name the simple class name of a {@link Creator} in the package networks, in any case
+     * @return the fully qualified name of the class
+     */
+    static String getCreatorClassName(String name) {
+        return "networks." + Character.toUpperCase(name.charAt(0)) + name.substring(1).toLowerCase();
+    }
 
-        e.getTable().getLines().forEach(line -> {
-            if (line.getResult() == FALSE) return;
-
-            // If there are arguments, add them to the line.
-            if (line.getArguments().length > 0) {
-                for (int arg : line.getArguments())
-                    sb.append(arg == TRUE ? "True, " : "False, ");
-                // Remove the comma.
-                sb.deleteCharAt(sb.length() - 2);
-                sb.append("\t");
-            }
-            sb.append(String.format("%.2f %.2f\n", line.getProbability(), 1 - line.getProbability()));
-        });
-
-        return sb.toString();
+    /**
+     * Creates a {@link Creator} by the simple name of its class, through its constructor that takes
+     * the given number of {@link String}s.
+     *
+     * @param name the simple class name of the {@link Creator}, in any case
+     * @param args the arguments of its constructor
+     * @return the new {@link Creator}
+     * @throws ReflectiveOperationException if there is no such class or constructor, or the constructor throws
+     * @throws ClassCastException           if the class is not a {@link Creator}
+     */
+    static Creator createCreator(String name, String... args) throws ReflectiveOperationException {
+        Class<?>[] parameters = new Class<?>[args.length];
+        Arrays.fill(parameters, String.class);
+        return (Creator) Class.forName(getCreatorClassName(name)).getConstructor(parameters)
+                .newInstance((Object[]) args);
     }
 
     public static void main(String[] args) {
+        // Separate the output options from the arguments of the creator.
+        String output = null;
+        long rowLimit = Long.MAX_VALUE;
+        boolean summary = false;
+        List<String> arguments = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-o") && i + 1 < args.length)
+                output = args[++i];
+            else if (args[i].equals("-r") && i + 1 < args.length && args[i + 1].matches("\\d+"))
+                rowLimit = Long.parseLong(args[++i]);
+            else if (args[i].equals("-s"))
+                summary = true;
+            else arguments.add(args[i]);
+        }
+        args = arguments.toArray(new String[0]);
+
         if (args.length < 1) {
-            print("Please provide the simple class name of the network creator to be used. (For example, Practical)");
+            print("Please provide the simple class name of the network creator to be used. (For example, Practical)",
+                    "Any further arguments are passed to its constructor. (For example, Xmlbif bn1.xml bn2.xml)",
+                    "Use -o <file> to also write the merged network to an XMLBIF file (For example, -o bnt.xml)",
+                    "or, if the name of the file ends with " + SNAPSHOT_EXTENSION + ", to a binary snapshot.",
+                    "Use -r <rows> to print at most that many rows of every table,",
+                    "and -s to print a summary of every table instead of its rows.");
             return;
         }
-        String className = "networks." + Character.toUpperCase(args[0].charAt(0)) + args[0].substring(1).toLowerCase();
         Creator creator;
         try {
-            creator = (Creator) Class.forName(className).getConstructor().newInstance();
+            creator = createCreator(args[0], Arrays.copyOfRange(args, 1, args.length));
         }
-        catch (Exception e) {
-            print("Could not create instance of class \"" + className + "\"");
+        catch (ReflectiveOperationException | ClassCastException e) {
+            print("Could not create instance of class \"" + getCreatorClassName(args[0]) + "\"");
             return;
         }
 
         BayesianNetwork bn1 = creator.createBN1(), bn2 = creator.createBN2();
 
-        print("BN1 {");
-        bn1.getEvents().forEach(e -> print(getCPT(e)));
-        print("}\n");
+        // The tables are streamed, so that printing huge merged tables takes constant memory.
+        CPTRenderer renderer = new CPTRenderer(2, rowLimit, summary);
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+        BayesianNetwork bnt;
+        try {
+            printNetwork("BN1", bn1, renderer, out);
+            out.write("}\n" + NEW_LINE);
+
+            printNetwork("BN2", bn2, renderer, out);
+            out.write("}\n" + NEW_LINE);
+            // The progress messages of the merge are printed in between.
+            out.flush();
 
-        print("BN2 {");
-        bn2.getEvents().forEach(e -> print(getCPT(e)));
-        print("}\n");
+            bnt = Merger.merge(bn1, bn2);
+            printNetwork("\nBNT", bnt, renderer, out);
+            out.write("}" + NEW_LINE);
+            out.flush();
+        }
+        catch (IOException e) {
+            print("Could not print the networks: " + e.getMessage());
+            return;
+        }
 
-        BayesianNetwork bnt = Merger.merge(bn1, bn2);
-        print("\nBNT {");
-        bnt.getEvents().forEach(e -> print(getCPT(e)));
-        print("}");
+        if (output == null)
+            return;
+        try {
+            write(bnt, Paths.get(output));
+            print("Merged network written to \"" + output + "\"");
+        }
+        catch (IOException e) {
+            print("Could not write the merged network to \"" + output + "\": " + e.getMessage());
+        }
     }
 }
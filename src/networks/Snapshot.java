@@ -0,0 +1,73 @@
+package networks;
+
+import io.NetworkSnapshot;
+import org.encog.ml.bayesian.BayesianNetwork;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * This implementation of {@link Creator} loads the two bayesian networks from binary {@link NetworkSnapshot} files.
+ * By default these are bn1.bns and bn2.bns.
+ *
+ * @version 1.0
+ */
+public class Snapshot extends Creator {
+
+    /**
+     * The paths of the files with the two networks.
+     */
+    private final Path bn1, bn2;
+
+    /**
+     * Creates a {@link Creator} that loads bn1.bns and bn2.bns from the working directory.
+     */
+    public Snapshot() {
+        this("bn1.bns", "bn2.bns");
+    }
+
+    /**
+     * Creates a {@link Creator} that loads the two networks from the given files.
+     *
+     * @param bn1 the path of the file with the first network
+     * @param bn2 the path of the file with the second network
+     */
+    public Snapshot(String bn1, String bn2) {
+        this.bn1 = Paths.get(bn1);
+        this.bn2 = Paths.get(bn2);
+    }
+
+    /**
+     * Loads the snapshot in the file at the given path.
+     *
+     * @param path the path of the snapshot file
+     * @return the loaded snapshot
+     * @throws UncheckedIOException if the file cannot be read
+     */
+    private static NetworkSnapshot load(Path path) {
+        try {
+            return NetworkSnapshot.load(path);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Could not load \"" + path + "\"", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public BayesianNetwork createBN1() {
+        return load(bn1).toNetwork();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public BayesianNetwork createBN2() {
+        return load(bn2).toNetwork();
+    }
+}
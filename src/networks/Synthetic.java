@@ -0,0 +1,245 @@
+package networks;
+
+import cpt.CPT;
+import cpt.DenseCPT;
+import org.encog.ml.bayesian.BayesianEvent;
+import org.encog.ml.bayesian.BayesianNetwork;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import static main.Merger.FALSE;
+import static main.Merger.TRUE;
+
+/**
+ * This implementation of {@link Creator} generates two random bayesian networks from a seed,
+ * for merging networks of any size.
+ * <p>
+ * The events of both networks are placed in one random global order, and every event only depends on events
+ * that come before it, so the two networks and their merge are always acyclic.
+ * The parameters control the number of events in each network, the number of events they share,
+ * the fraction of shared events that are external, the maximum number of parents of an event
+ * and the fraction of table rows that are deterministic.
+ * <p>
+ * The structure is generated once, into flat arrays, when the {@link Creator} is constructed.
+ * The networks and their tables are generated on every call of {@link Synthetic#createBN1()} and
+ * {@link Synthetic#createBN2()}, always with the same result for the same seed.
+ *
+ * @version 1.0
+ */
+public class Synthetic extends Creator {
+
+    /**
+     * The membership of an event in the global order.
+     */
+    private static final byte IN_BN1 = 1, IN_BN2 = 2, IN_BOTH = IN_BN1 | IN_BN2;
+
+    private final long seed;
+    private final int maxInDegree;
+    private final double determinism;
+
+    /**
+     * The membership of every event, by its index in the global order.
+     */
+    private final byte[] membership;
+    /**
+     * The parents of every event in each network, in compressed sparse row form: the parents of event i are
+     * the global indices from parents[offsets[i]] to parents[offsets[i + 1]], exclusive.
+     */
+    private final int[] bn1Offsets, bn1Parents, bn2Offsets, bn2Parents;
+
+    /**
+     * Creates a {@link Creator} of two networks with 1000 events each, 500 of which are shared,
+     * half of them external, with at most 4 parents per event.
+     */
+    public Synthetic() {
+        this(1, 1000, 500, 0.5, 4, 0);
+    }
+
+    /**
+     * Same as {@link Synthetic#Synthetic(long, int, int, double, int, double)}, with the parameters parsed from
+     * {@link String}s, so that it can be used from the command line.
+     */
+    public Synthetic(String seed, String nodes, String intersection, String externalFraction, String maxInDegree,
+                     String determinism) {
+        this(Long.parseLong(seed), Integer.parseInt(nodes), Integer.parseInt(intersection),
+                Double.parseDouble(externalFraction), Integer.parseInt(maxInDegree), Double.parseDouble(determinism));
+    }
+
+    /**
+     * Generates the structure of two random networks.
+     *
+     * @param seed             the seed of the generator
+     * @param nodes            the number of events in each network
+     * @param intersection     the number of events the networks share
+     * @param externalFraction the fraction of shared events that have a parent outside the intersection
+     *                         in both networks, which makes them external. This is only approximate,
+     *                         as an event early in the global order may have no such parent to choose from.
+     * @param maxInDegree      the largest number of parents of an event in one network.
+     *                         An external event has the parents of both networks in the merge, so twice this
+     *                         must not exceed {@link CPT#MAX_PARENTS}.
+     * @param determinism      the fraction of table rows whose probability is exactly 0 or 1
+     * @throws IllegalArgumentException if one of the parameters is out of range
+     */
+    public Synthetic(long seed, int nodes, int intersection, double externalFraction, int maxInDegree,
+                     double determinism) {
+        if (nodes < 0 || intersection < 0 || intersection > nodes)
+            throw new IllegalArgumentException("The intersection must be between 0 and the number of nodes");
+        if (!(externalFraction >= 0 && externalFraction <= 1) || !(determinism >= 0 && determinism <= 1))
+            throw new IllegalArgumentException("Fractions must be between 0 and 1");
+        if (maxInDegree < 0 || 2 * maxInDegree > CPT.MAX_PARENTS)
+            throw new IllegalArgumentException("The maximum in-degree must be between 0 and " + CPT.MAX_PARENTS / 2);
+
+        this.seed = seed;
+        this.maxInDegree = maxInDegree;
+        this.determinism = determinism;
+
+        SplittableRandom random = new SplittableRandom(seed);
+        int total = 2 * nodes - intersection;
+        membership = new byte[total];
+        Arrays.fill(membership, 0, intersection, IN_BOTH);
+        Arrays.fill(membership, intersection, nodes, IN_BN1);
+        Arrays.fill(membership, nodes, total, IN_BN2);
+        for (int i = total - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            byte swap = membership[i];
+            membership[i] = membership[j];
+            membership[j] = swap;
+        }
+
+        // The events seen so far, by group, to choose parents from.
+        int[] shared = new int[intersection], bn1Only = new int[nodes - intersection],
+                bn2Only = new int[nodes - intersection];
+        int sharedCount = 0, bn1OnlyCount = 0, bn2OnlyCount = 0;
+
+        bn1Offsets = new int[total + 1];
+        bn2Offsets = new int[total + 1];
+        int[] bn1Parents = new int[Math.max(1, nodes * maxInDegree)], bn2Parents = bn1Parents.clone();
+        int bn1Size = 0, bn2Size = 0;
+
+        for (int i = 0; i < total; i++) {
+            byte member = membership[i];
+            if (member == IN_BOTH) {
+                boolean external = random.nextDouble() < externalFraction;
+                // An internal event keeps all its parents in the intersection in at least one network.
+                boolean bn1Inside = !external && random.nextBoolean(), bn2Inside = !external && !bn1Inside;
+                bn1Size = chooseParents(random, bn1Parents, bn1Size, external, bn1Inside,
+                        shared, sharedCount, bn1Only, bn1OnlyCount);
+                bn2Size = chooseParents(random, bn2Parents, bn2Size, external, bn2Inside,
+                        shared, sharedCount, bn2Only, bn2OnlyCount);
+                shared[sharedCount++] = i;
+            }
+            else if (member == IN_BN1) {
+                bn1Size = chooseParents(random, bn1Parents, bn1Size, false, false,
+                        shared, sharedCount, bn1Only, bn1OnlyCount);
+                bn1Only[bn1OnlyCount++] = i;
+            }
+            else {
+                bn2Size = chooseParents(random, bn2Parents, bn2Size, false, false,
+                        shared, sharedCount, bn2Only, bn2OnlyCount);
+                bn2Only[bn2OnlyCount++] = i;
+            }
+            bn1Offsets[i + 1] = bn1Size;
+            bn2Offsets[i + 1] = bn2Size;
+        }
+
+        this.bn1Parents = Arrays.copyOf(bn1Parents, bn1Size);
+        this.bn2Parents = Arrays.copyOf(bn2Parents, bn2Size);
+    }
+
+    /**
+     * Chooses distinct parents for an event, among the events of one network that come before it,
+     * and appends them to the given array.
+     *
+     * @param parents     the parents chosen so far, to append to
+     * @param size        the number of parents chosen so far
+     * @param outside     whether the first parent must be one that is not shared, if there is one
+     * @param inside      whether all parents must be shared
+     * @param shared      the shared events so far
+     * @param sharedCount the number of shared events so far
+     * @param own         the events so far that are only in this network
+     * @param ownCount    the number of events so far that are only in this network
+     * @return the number of parents chosen so far, including the new ones
+     */
+    private int chooseParents(SplittableRandom random, int[] parents, int size, boolean outside, boolean inside,
+                              int[] shared, int sharedCount, int[] own, int ownCount) {
+        int candidates = inside ? sharedCount : sharedCount + ownCount;
+        int degree = Math.min(candidates, random.nextInt(maxInDegree + 1));
+        if (outside && ownCount > 0 && maxInDegree > 0)
+            degree = Math.max(degree, 1);
+
+        int start = size;
+        while (size - start < degree) {
+            int parent;
+            if (outside && size == start && ownCount > 0)
+                parent = own[random.nextInt(ownCount)];
+            else {
+                int k = random.nextInt(candidates);
+                parent = k < sharedCount ? shared[k] : own[k - sharedCount];
+            }
+
+            boolean duplicate = false;
+            for (int j = start; j < size && !duplicate; j++)
+                duplicate = parents[j] == parent;
+            if (!duplicate)
+                parents[size++] = parent;
+        }
+        return size;
+    }
+
+    /**
+     * Builds one of the two networks: creates its events in the global order, adds their dependencies
+     * and fills their tables with random probabilities.
+     *
+     * @param network {@link Synthetic#IN_BN1} or {@link Synthetic#IN_BN2}
+     * @param offsets the offsets of the parents of every event in the network
+     * @param parents the parents of every event in the network
+     * @return the network
+     */
+    private BayesianNetwork create(byte network, int[] offsets, int[] parents) {
+        BayesianNetwork net = new BayesianNetwork();
+        BayesianEvent[] events = new BayesianEvent[membership.length];
+        for (int i = 0; i < membership.length; i++)
+            if ((membership[i] & network) != 0)
+                events[i] = net.createEvent("N" + i);
+        for (int i = 0; i < membership.length; i++)
+            for (int j = offsets[i]; j < offsets[i + 1]; j++)
+                net.createDependency(events[parents[j]], events[i]);
+        net.finalizeStructure();
+
+        // One table per number of parents is enough, as writing a table copies it.
+        SplittableRandom random = new SplittableRandom(seed * 31 + network);
+        DenseCPT[] tables = new DenseCPT[maxInDegree + 1];
+        for (int i = 0; i < membership.length; i++) {
+            if (events[i] == null)
+                continue;
+            int parentCount = offsets[i + 1] - offsets[i];
+            DenseCPT table = tables[parentCount];
+            if (table == null)
+                table = tables[parentCount] = new DenseCPT(parentCount);
+            for (int row = 0; row < table.getRowCount(); row++) {
+                double p = random.nextDouble() < determinism ? (random.nextBoolean() ? 1 : 0) : random.nextDouble();
+                table.set(row, TRUE, p);
+                table.set(row, FALSE, 1 - p);
+            }
+            table.writeTo(events[i]);
+        }
+        return net;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public BayesianNetwork createBN1() {
+        return create(IN_BN1, bn1Offsets, bn1Parents);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public BayesianNetwork createBN2() {
+        return create(IN_BN2, bn2Offsets, bn2Parents);
+    }
+}
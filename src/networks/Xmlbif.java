@@ -0,0 +1,75 @@
+package networks;
+
+import io.XMLBIFReader;
+import org.encog.ml.bayesian.BayesianNetwork;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * This implementation of {@link Creator} reads the two bayesian networks from XMLBIF files.
+ * By default these are bn1.xml and bn2.xml, the networks modeled in part 1 of this practical.
+ *
+ * @version 1.0
+ * @see XMLBIFReader
+ */
+public class Xmlbif extends Creator {
+
+    /**
+     * The paths of the files with the two networks.
+     */
+    private final Path bn1, bn2;
+
+    /**
+     * Creates a {@link Creator} that reads bn1.xml and bn2.xml from the working directory.
+     */
+    public Xmlbif() {
+        this("bn1.xml", "bn2.xml");
+    }
+
+    /**
+     * Creates a {@link Creator} that reads the two networks from the given files.
+     * The files may be gzip-compressed.
+     *
+     * @param bn1 the path of the file with the first network
+     * @param bn2 the path of the file with the second network
+     */
+    public Xmlbif(String bn1, String bn2) {
+        this.bn1 = Paths.get(bn1);
+        this.bn2 = Paths.get(bn2);
+    }
+
+    /**
+     * Reads the network in the file at the given path.
+     *
+     * @param path the path of the XMLBIF file
+     * @return the network in the file
+     * @throws UncheckedIOException if the file cannot be read
+     */
+    private static BayesianNetwork read(Path path) {
+        try {
+            return XMLBIFReader.read(path);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Could not read \"" + path + "\"", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public BayesianNetwork createBN1() {
+        return read(bn1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public BayesianNetwork createBN2() {
+        return read(bn2);
+    }
+}
@@ -0,0 +1,220 @@
+package util;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+import java.util.function.Supplier;
+
+/**
+ * A minimal logging facility for the progress messages of the merge, which are printed for every event and
+ * every phase and would otherwise take a measurable share of the time of large merges.
+ * <p>
+ * Every message has a {@link Level}, and messages below the current level are discarded before anything is
+ * formatted. Messages are given either as a pattern whose {@code {}} placeholders are replaced by up to three
+ * arguments, with one method per number of arguments so that no array is created, or as a {@link Supplier}
+ * that is only called when the level is enabled. Either way, a disabled message costs one comparison.
+ * <p>
+ * Enabled messages are formatted into a shared buffer, which is written to the output in one go when it
+ * is large enough, when a {@link Level#WARN} or {@link Level#ERROR} message is logged, when {@link Log#flush()}
+ * is called and when the virtual machine exits. By default the output is {@link System#out},
+ * looked up at every flush, so that it can be redirected with {@link System#setOut(PrintStream)}.
+ * <p>
+ * The level is {@link Level#INFO} unless the system property {@code log.level} names another one, in any case.
+ * An unknown name is reported with a warning and ignored.
+ * All methods are thread-safe.
+ *
+ * @version 1.1
+ */
+public final class Log {
+
+    /**
+     * The levels of messages, from the most to the least verbose.
+     * {@link Level#OFF} discards all messages.
+     */
+    public enum Level {
+        TRACE, DEBUG, INFO, WARN, ERROR, OFF
+    }
+
+    /**
+     * The number of buffered characters above which the buffer is written to the output.
+     */
+    private static final int BATCH = 1 << 13;
+    private static final String PLACEHOLDER = "{}";
+
+    private static volatile Level level = Level.INFO;
+    private static Appendable output;
+    private static final StringBuilder buffer = new StringBuilder(2 * BATCH);
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush));
+        String name = System.getProperty("log.level");
+        if (name != null) {
+            try {
+                level = Level.valueOf(name.trim().toUpperCase(Locale.ROOT));
+            }
+            catch (IllegalArgumentException e) {
+                warn("Unknown log level \"{}\", using INFO", name);
+            }
+        }
+    }
+
+    private Log() {
+    }
+
+    public static Level getLevel() {
+        return level;
+    }
+
+    public static void setLevel(Level level) {
+        Log.level = level;
+    }
+
+    /**
+     * Sets where messages are written. The buffered messages are written to the previous output first.
+     *
+     * @param output the output, or null for {@link System#out}
+     */
+    public static void setOutput(Appendable output) {
+        synchronized (buffer) {
+            flush();
+            Log.output = output;
+        }
+    }
+
+    /**
+     * @param level the level of a message
+     * @return whether messages of the given level are logged
+     */
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(Log.level) >= 0 && level != Level.OFF;
+    }
+
+    public static void log(Level level, String message) {
+        if (isEnabled(level))
+            write(level, message, null, null, null, 0);
+    }
+
+    public static void log(Level level, String pattern, Object arg) {
+        if (isEnabled(level))
+            write(level, pattern, arg, null, null, 1);
+    }
+
+    public static void log(Level level, String pattern, Object arg1, Object arg2) {
+        if (isEnabled(level))
+            write(level, pattern, arg1, arg2, null, 2);
+    }
+
+    public static void log(Level level, String pattern, Object arg1, Object arg2, Object arg3) {
+        if (isEnabled(level))
+            write(level, pattern, arg1, arg2, arg3, 3);
+    }
+
+    /**
+     * Logs the message of the given supplier, which is only called if the level is enabled.
+     */
+    public static void log(Level level, Supplier<String> message) {
+        if (isEnabled(level))
+            write(level, message.get(), null, null, null, 0);
+    }
+
+    public static void debug(String message) {
+        log(Level.DEBUG, message);
+    }
+
+    public static void debug(String pattern, Object arg) {
+        log(Level.DEBUG, pattern, arg);
+    }
+
+    public static void debug(String pattern, Object arg1, Object arg2) {
+        log(Level.DEBUG, pattern, arg1, arg2);
+    }
+
+    public static void debug(Supplier<String> message) {
+        log(Level.DEBUG, message);
+    }
+
+    public static void info(String message) {
+        log(Level.INFO, message);
+    }
+
+    public static void info(String pattern, Object arg) {
+        log(Level.INFO, pattern, arg);
+    }
+
+    public static void info(String pattern, Object arg1, Object arg2) {
+        log(Level.INFO, pattern, arg1, arg2);
+    }
+
+    public static void info(Supplier<String> message) {
+        log(Level.INFO, message);
+    }
+
+    public static void warn(String message) {
+        log(Level.WARN, message);
+    }
+
+    public static void warn(String pattern, Object arg) {
+        log(Level.WARN, pattern, arg);
+    }
+
+    public static void error(String message) {
+        log(Level.ERROR, message);
+    }
+
+    public static void error(String pattern, Object arg) {
+        log(Level.ERROR, pattern, arg);
+    }
+
+    /**
+     * Formats a message into the buffer, replacing the first placeholders by the arguments in order.
+     * Placeholders without an argument are kept as they are.
+     */
+    private static void write(Level level, String pattern, Object arg1, Object arg2, Object arg3, int args) {
+        synchronized (buffer) {
+            int start = 0;
+            for (int i = 0; i < args; i++) {
+                int at = pattern.indexOf(PLACEHOLDER, start);
+                if (at < 0)
+                    break;
+                buffer.append(pattern, start, at);
+                Object arg = i == 0 ? arg1 : i == 1 ? arg2 : arg3;
+                if (arg instanceof CharSequence)
+                    buffer.append((CharSequence) arg);
+                else
+                    buffer.append(arg);
+                start = at + PLACEHOLDER.length();
+            }
+            buffer.append(pattern, start, pattern.length()).append(PrintFormatting.NEW_LINE);
+
+            if (buffer.length() >= BATCH || level.compareTo(Level.WARN) >= 0)
+                flush();
+        }
+    }
+
+    /**
+     * Writes the buffered messages to the output.
+     *
+     * @throws UncheckedIOException if the output could not be written
+     */
+    public static void flush() {
+        synchronized (buffer) {
+            if (buffer.length() == 0)
+                return;
+            if (output == null) {
+                PrintStream out = System.out;
+                out.append(buffer);
+                out.flush();
+            }
+            else {
+                try {
+                    output.append(buffer);
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            buffer.setLength(0);
+        }
+    }
+}
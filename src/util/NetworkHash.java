@@ -0,0 +1,112 @@
+package util;
+
+import org.encog.ml.bayesian.BayesianChoice;
+import org.encog.ml.bayesian.BayesianEvent;
+import org.encog.ml.bayesian.BayesianNetwork;
+import org.encog.ml.bayesian.table.TableLine;
+
+/**
+ * A 128-bit hash of the structure and the parameters of a {@link BayesianNetwork}.
+ * <p>
+ * The hash is computed in a single pass over the events, in the order of the network, hashing the label and
+ * the outcomes of each event, the labels of its parents in order and every line of its table in order.
+ * Probabilities are hashed by their exact bits, so two networks have the same hash only if they are
+ * merged into exactly the same network, barring collisions, which are negligible with 128 bits.
+ * The two halves are computed with independent seeds of the same 64-bit mixing function.
+ *
+ * @version 1.0
+ */
+public final class NetworkHash {
+
+    private static final long SEED_1 = 0x9E3779B97F4A7C15L, SEED_2 = 0xC2B2AE3D27D4EB4FL;
+
+    private final long high, low;
+
+    private NetworkHash(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * Hashes the given network.
+     *
+     * @param net the {@link BayesianNetwork} to hash
+     * @return the hash of its events, dependencies and tables
+     */
+    public static NetworkHash of(BayesianNetwork net) {
+        long h1 = SEED_1, h2 = SEED_2;
+        for (BayesianEvent e : net.getEvents()) {
+            h1 = mix(h1, e.getLabel());
+            h2 = mix(h2, e.getLabel());
+            for (BayesianChoice choice : e.getChoices()) {
+                h1 = mix(h1, choice.getLabel());
+                h2 = mix(h2, choice.getLabel());
+            }
+            h1 = mix(h1, e.getParents().size());
+            h2 = mix(h2, e.getParents().size());
+            for (BayesianEvent parent : e.getParents()) {
+                h1 = mix(h1, parent.getLabel());
+                h2 = mix(h2, parent.getLabel());
+            }
+
+            h1 = mix(h1, e.getTable().getLines().size());
+            h2 = mix(h2, e.getTable().getLines().size());
+            for (TableLine line : e.getTable().getLines()) {
+                long bits = Double.doubleToLongBits(line.getProbability()), key = line.getResult();
+                for (int arg : line.getArguments())
+                    key = key * 31 + arg;
+                h1 = mix(mix(h1, key), bits);
+                h2 = mix(mix(h2, key), bits);
+            }
+        }
+        return new NetworkHash(h1, h2);
+    }
+
+    /**
+     * Combines this hash with another one, in order.
+     *
+     * @param other the hash to combine with
+     * @return the hash of the pair
+     */
+    public NetworkHash combine(NetworkHash other) {
+        return new NetworkHash(mix(mix(high, other.high), other.low), mix(mix(low, other.low), other.high));
+    }
+
+    private static long mix(long h, String s) {
+        h = mix(h, s.length());
+        for (int i = 0; i < s.length(); i++)
+            h = mix(h, s.charAt(i));
+        return h;
+    }
+
+    /**
+     * Adds a value to a hash, with the finalizer of MurmurHash3.
+     */
+    private static long mix(long h, long value) {
+        h = (h ^ value) * 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof NetworkHash))
+            return false;
+        NetworkHash other = (NetworkHash) o;
+        return high == other.high && low == other.low;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (low ^ (low >>> 32));
+    }
+
+    /**
+     * @return the hash as 32 hexadecimal digits
+     */
+    @Override
+    public String toString() {
+        return String.format("%016x%016x", high, low);
+    }
+}
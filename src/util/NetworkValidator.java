@@ -0,0 +1,204 @@
+package util;
+
+import org.encog.ml.bayesian.BayesianError;
+import org.encog.ml.bayesian.BayesianEvent;
+import org.encog.ml.bayesian.BayesianNetwork;
+import org.encog.ml.bayesian.table.TableLine;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Checks the structure and the Conditional Probability Tables of a {@link BayesianNetwork} in time linear in the
+ * size of the network, instead of {@link BayesianNetwork#validate()}.
+ * <p>
+ * {@link NetworkValidator#topologicalOrder(BayesianNetwork)} sorts the events in a single pass over the events and
+ * their dependencies, and describes a cycle if there is one. {@link NetworkValidator#validate(BayesianNetwork,
+ * ForkJoinPool)} checks the tables of the events independently, so it checks them in parallel when it is given a
+ * {@link ForkJoinPool}: every table must have exactly one line per assignment of values to the event and its
+ * parents, and every probability must be between 0 and 1. Like {@link BayesianNetwork#validate()}, an empty table
+ * is accepted as one that has not been filled in yet. Either way, the error reported is the one of the first
+ * invalid event in the order of the network, so the result does not depend on the parallelism.
+ *
+ * @version 1.1
+ */
+public final class NetworkValidator {
+
+    /**
+     * The number of lines below which a range of events is not split into further tasks.
+     */
+    private static final int MIN_PARALLEL_LINES = 1 << 14;
+
+    private NetworkValidator() {
+    }
+
+    /**
+     * Orders the events of a network so that every event comes after its parents.
+     * Events without a dependency between them keep the order of the network.
+     *
+     * @param net the network
+     * @return the events in topological order
+     * @throws BayesianError if the network has a cycle, which is then described in the message
+     */
+    public static List<BayesianEvent> topologicalOrder(BayesianNetwork net) {
+        List<BayesianEvent> events = net.getEvents();
+        int n = events.size();
+        Map<BayesianEvent, Integer> indices = new HashMap<>(2 * n);
+        for (int i = 0; i < n; i++)
+            indices.put(events.get(i), i);
+
+        int[] missing = new int[n], order = new int[n];
+        int size = 0;
+        for (int i = 0; i < n; i++)
+            if ((missing[i] = events.get(i).getParents().size()) == 0)
+                order[size++] = i;
+        for (int next = 0; next < size; next++)
+            for (BayesianEvent child : events.get(order[next]).getChildren())
+                if (--missing[indices.get(child)] == 0)
+                    order[size++] = indices.get(child);
+        if (size != n)
+            throw new BayesianError("The network has the cycle " + cycle(events, indices, missing));
+
+        List<BayesianEvent> sorted = new ArrayList<>(n);
+        for (int i : order)
+            sorted.add(events.get(i));
+        return sorted;
+    }
+
+    /**
+     * Describes a cycle among the events that could not be sorted. Every such event has a parent that could not
+     * be sorted either, so following parents from any of them must come back to an event already seen.
+     */
+    private static String cycle(List<BayesianEvent> events, Map<BayesianEvent, Integer> indices, int[] missing) {
+        int start = 0;
+        while (missing[start] == 0)
+            start++;
+        int[] seenAt = new int[events.size()];
+        List<BayesianEvent> path = new ArrayList<>();
+        int id = start;
+        while (seenAt[id] == 0) {
+            path.add(events.get(id));
+            seenAt[id] = path.size();
+            for (BayesianEvent parent : events.get(id).getParents()) {
+                int p = indices.get(parent);
+                if (missing[p] > 0) {
+                    id = p;
+                    break;
+                }
+            }
+        }
+
+        // The path goes from children to parents, and its part from the repeated event on is the cycle.
+        StringBuilder sb = new StringBuilder(events.get(id).getLabel());
+        for (int k = path.size() - 1; k >= seenAt[id] - 1; k--)
+            sb.append(" -> ").append(path.get(k).getLabel());
+        return sb.toString();
+    }
+
+    /**
+     * Checks the Conditional Probability Tables of all events of a network.
+     *
+     * @param net  the network, whose structure must be finalized
+     * @param pool the pool in which to check the tables, or null to check them in the calling thread
+     * @throws BayesianError if a table is invalid, describing the first invalid table in the order of the network
+     */
+    public static void validate(BayesianNetwork net, ForkJoinPool pool) {
+        List<BayesianEvent> events = net.getEvents();
+        String[] errors = new String[events.size()];
+        ValidationTask task = new ValidationTask(events, errors, 0, events.size());
+        if (pool == null)
+            task.compute();
+        else
+            pool.invoke(task);
+        for (String error : errors)
+            if (error != null)
+                throw new BayesianError(error);
+    }
+
+    /**
+     * Checks the table of one event.
+     *
+     * @return a description of the first problem of the table, or null if it is valid
+     */
+    private static String check(BayesianEvent e) {
+        if (e.getTable() == null)
+            return "The structure of \"" + e.getLabel() + "\" is not finalized";
+        List<BayesianEvent> parents = e.getParents();
+        int[] radices = new int[parents.size() + 1];
+        long expected = radices[parents.size()] = e.getChoices().size();
+        for (int j = 0; j < parents.size(); j++)
+            expected *= radices[j] = parents.get(j).getChoices().size();
+
+        List<TableLine> lines = e.getTable().getLines();
+        if (lines.isEmpty())
+            return null;
+        if (lines.size() != expected)
+            return "The table of \"" + e.getLabel() + "\" has " + lines.size() + " lines, but should have " + expected;
+
+        BitSet seen = new BitSet((int) expected);
+        for (TableLine line : lines) {
+            double p = line.getProbability();
+            if (!(p >= 0 && p <= 1))
+                return "The table of \"" + e.getLabel() + "\" has the probability " + p;
+            int[] args = line.getArguments();
+            if (args.length != parents.size())
+                return "A line of the table of \"" + e.getLabel() + "\" has " + args.length + " arguments, but "
+                        + "the event has " + parents.size() + " parents";
+
+            // The index of the line in mixed radix, with the result as the last digit.
+            int index = 0;
+            for (int j = 0; j <= args.length; j++) {
+                int value = j < args.length ? args[j] : line.getResult();
+                if (value < 0 || value >= radices[j])
+                    return "A line of the table of \"" + e.getLabel() + "\" has the value " + value + " out of range";
+                index = index * radices[j] + value;
+            }
+            if (seen.get(index))
+                return "The table of \"" + e.getLabel() + "\" has a line twice";
+            seen.set(index);
+        }
+        return null;
+    }
+
+    /**
+     * Checks the tables of a range of events, splitting the range in halves while it has more than
+     * {@link NetworkValidator#MIN_PARALLEL_LINES} lines and more than one event.
+     */
+    private static class ValidationTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<BayesianEvent> events;
+        private final String[] errors;
+        private final int from, to;
+
+        private ValidationTask(List<BayesianEvent> events, String[] errors, int from, int to) {
+            this.events = events;
+            this.errors = errors;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1 && inForkJoinPool()) {
+                long lines = 0;
+                for (int i = from; i < to && lines <= MIN_PARALLEL_LINES; i++)
+                    lines += events.get(i).getTable() == null ? 0 : events.get(i).getTable().getLines().size();
+                if (lines > MIN_PARALLEL_LINES) {
+                    int middle = (from + to) >>> 1;
+                    invokeAll(new ValidationTask(events, errors, from, middle),
+                            new ValidationTask(events, errors, middle, to));
+                    return;
+                }
+            }
+            for (int i = from; i < to; i++)
+                errors[i] = check(events.get(i));
+        }
+    }
+}
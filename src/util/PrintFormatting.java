@@ -1,85 +1,80 @@
 package util;
 
-import sun.security.action.GetPropertyAction;
-
-import java.security.AccessController;
 import java.util.Collection;
 
 /**
  * Provides a method to "pretty-print" multiple objects.
+ * <p>
+ * Everything given to one call is formatted first and printed with a single write,
+ * and the elements of primitive arrays are formatted without boxing them.
+ * For progress messages that should be cheap when they are not wanted, use {@link Log} instead.
  *
- * @version 2.1
+ * @version 2.2
  */
 public class PrintFormatting {
 
-    public static final String NEW_LINE = AccessController.doPrivileged(new GetPropertyAction("line.separator"));
+    public static final String NEW_LINE = System.lineSeparator();
     public static final String SEPARATOR = ",";
 
     public static void print(Object... objects) {
+        StringBuilder sb = new StringBuilder();
         for (Object o : objects)
-            print(o, 0);
+            format(sb, o, 0);
+        System.out.print(sb);
     }
 
-    private static void printTabs(int numberOfTabs) {
+    private static StringBuilder appendTabs(StringBuilder sb, int numberOfTabs) {
         for (int i = 0; i < numberOfTabs; i++)
-            System.out.print("\t");
+            sb.append('\t');
+        return sb;
     }
 
-    private static void printArray(Object[] arr, int nestingLevel) {
-        printTabs(nestingLevel - 1);
-        print("[");
-
-        for (Object o : arr)
-            print(o, nestingLevel);
-
-        printTabs(nestingLevel - 1);
-        print("]");
+    private static void appendLine(StringBuilder sb, int numberOfTabs, String line) {
+        appendTabs(sb, numberOfTabs);
+        sb.append(line).append(NEW_LINE);
     }
 
-    private static void print(Object o, int nestingLevel) {
-        if (o instanceof int[]) {
-            int[] x = ((int[]) o);
-            Object[] objs = new Object[x.length];
-            for (int i = 0; i < x.length; i++) objs[i] = x[i];
-            printArray(objs, nestingLevel + 1);
-        }
-        else if (o instanceof double[]) {
-            double[] x = ((double[]) o);
-            Object[] objs = new Object[x.length];
-            for (int i = 0; i < x.length; i++) objs[i] = x[i];
-            printArray(objs, nestingLevel + 1);
-        }
-        else if (o instanceof char[]) {
-            char[] x = ((char[]) o);
-            Object[] objs = new Object[x.length];
-            for (int i = 0; i < x.length; i++) objs[i] = x[i];
-            printArray(objs, nestingLevel + 1);
+    private static void format(StringBuilder sb, Object o, int nestingLevel) {
+        if (o instanceof Object[] || o instanceof Collection) {
+            Object[] arr = o instanceof Object[] ? (Object[]) o : ((Collection<?>) o).toArray();
+            appendLine(sb, nestingLevel, "[");
+            for (Object element : arr)
+                format(sb, element, nestingLevel + 1);
+            appendLine(sb, nestingLevel, "]");
         }
-        else if (o instanceof float[]) {
-            float[] x = ((float[]) o);
-            Object[] objs = new Object[x.length];
-            for (int i = 0; i < x.length; i++) objs[i] = x[i];
-            printArray(objs, nestingLevel + 1);
-        }
-        else if (o instanceof boolean[]) {
-            boolean[] x = ((boolean[]) o);
-            Object[] objs = new Object[x.length];
-            for (int i = 0; i < x.length; i++) objs[i] = x[i];
-            printArray(objs, nestingLevel + 1);
-        }
-        else if (o instanceof byte[]) {
-            byte[] x = ((byte[]) o);
-            Object[] objs = new Object[x.length];
-            for (int i = 0; i < x.length; i++) objs[i] = x[i];
-            printArray(objs, nestingLevel + 1);
-        }
-        else if (o instanceof Object[])
-            printArray(((Object[]) o), nestingLevel + 1);
-        else if (o instanceof Collection)
-            printArray(((Collection) o).toArray(), nestingLevel + 1);
-        else {
-            printTabs(nestingLevel);
-            System.out.println(String.valueOf(o));
+        else if (o != null && o.getClass().isArray()) {
+            appendLine(sb, nestingLevel, "[");
+            formatPrimitives(sb, o, nestingLevel + 1);
+            appendLine(sb, nestingLevel, "]");
         }
+        else
+            appendLine(sb, nestingLevel, String.valueOf(o));
+    }
+
+    private static void formatPrimitives(StringBuilder sb, Object o, int nestingLevel) {
+        if (o instanceof int[])
+            for (int x : (int[]) o)
+                appendTabs(sb, nestingLevel).append(x).append(NEW_LINE);
+        else if (o instanceof double[])
+            for (double x : (double[]) o)
+                appendTabs(sb, nestingLevel).append(x).append(NEW_LINE);
+        else if (o instanceof char[])
+            for (char x : (char[]) o)
+                appendTabs(sb, nestingLevel).append(x).append(NEW_LINE);
+        else if (o instanceof float[])
+            for (float x : (float[]) o)
+                appendTabs(sb, nestingLevel).append(x).append(NEW_LINE);
+        else if (o instanceof boolean[])
+            for (boolean x : (boolean[]) o)
+                appendTabs(sb, nestingLevel).append(x).append(NEW_LINE);
+        else if (o instanceof byte[])
+            for (byte x : (byte[]) o)
+                appendTabs(sb, nestingLevel).append(x).append(NEW_LINE);
+        else if (o instanceof short[])
+            for (short x : (short[]) o)
+                appendTabs(sb, nestingLevel).append(x).append(NEW_LINE);
+        else
+            for (long x : (long[]) o)
+                appendTabs(sb, nestingLevel).append(x).append(NEW_LINE);
     }
 }